@@ -0,0 +1,185 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2008, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.monetdb;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.util.logging.Logging;
+
+/**
+ * Picks the number of rows fetched per round trip (the MonetDB reply size) from the 
+ * average row width of a table, so that every block of rows takes about the same
+ * amount of memory: narrow point tables are fetched in large blocks, wide polygon 
+ * tables in small ones.
+ * <p>
+ * The row width is taken from the storage footprint MonetDB reports in 
+ * <code>sys.storage</code>, and cached for a while per table.
+ *
+ * @author Dennis Pallett
+ *
+ * @source $URL$
+ */
+public class AdaptiveFetchSize {
+
+    static final Logger LOGGER = Logging.getLogger(AdaptiveFetchSize.class);
+
+    /** default number of bytes fetched per round trip */
+    public static final int DEFAULT_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    /** bounds of the computed fetch size */
+    public static final int MIN_FETCH_SIZE = 10;
+    public static final int MAX_FETCH_SIZE = 100000;
+
+    /** how long the width of a table is trusted, in milliseconds */
+    static final long TTL = 5 * 60 * 1000;
+
+    /**
+     * Rows travel as text, WKB geometries as hex: about twice their size in storage
+     */
+    static final int TRANSFER_FACTOR = 2;
+
+    final int bufferSize;
+
+    final Map<String, RowWidth> widths = new ConcurrentHashMap<String, RowWidth>();
+
+    /** cleared when the server does not provide storage information */
+    volatile boolean available = true;
+
+    public AdaptiveFetchSize() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    public AdaptiveFetchSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Returns the fetch size for the specified table, or 0 if it cannot be determined
+     */
+    public int getFetchSize(String schema, String table, Connection cx) {
+        int width = getRowWidth(schema, table, cx);
+        if (width <= 0) {
+            return 0;
+        }
+        return fetchSize(width);
+    }
+
+    int fetchSize(int rowWidth) {
+        long size = bufferSize / ((long) rowWidth * TRANSFER_FACTOR);
+        return (int) Math.max(MIN_FETCH_SIZE, Math.min(MAX_FETCH_SIZE, size));
+    }
+
+    /**
+     * Average width of a row of the table in bytes, or 0 if unknown
+     */
+    int getRowWidth(String schema, String table, Connection cx) {
+        String key = schema + "." + table;
+        long now = System.currentTimeMillis();
+        RowWidth cached = widths.get(key);
+        if (cached != null && now - cached.time < TTL) {
+            return cached.width;
+        }
+
+        if (!available) {
+            return 0;
+        }
+        try {
+            // a failed query would abort the transaction of the caller
+            if (!cx.getAutoCommit()) {
+                return cached != null ? cached.width : 0;
+            }
+        } catch (SQLException e) {
+            return 0;
+        }
+
+        int width = 0;
+        Statement st = null;
+        ResultSet rs = null;
+        try {
+            st = cx.createStatement();
+            rs = st.executeQuery("SELECT SUM(\"columnsize\" + \"heapsize\"), MAX(\"count\") "
+                    + "FROM sys.storage WHERE \"schema\" = " 
+                    + MonetDBDialect.quoteValue(schema == null ? "sys" : schema) 
+                    + " AND \"table\" = " + MonetDBDialect.quoteValue(table));
+            if (rs.next()) {
+                long bytes = rs.getLong(1);
+                long rows = rs.getLong(2);
+                if (rows > 0) {
+                    width = (int) Math.max(1, Math.min(Integer.MAX_VALUE, bytes / rows));
+                }
+            }
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Unable to read the storage footprint of tables, "
+                    + "adaptive fetch size disabled", e);
+            available = false;
+        } finally {
+            closeSafe(rs);
+            closeSafe(st);
+        }
+
+        widths.put(key, new RowWidth(width, now));
+        return width;
+    }
+
+    /**
+     * Forgets the row width of a table, for instance because it has been dropped
+     */
+    public void invalidate(String schema, String table) {
+        widths.remove(schema + "." + table);
+    }
+
+    public void dispose() {
+        widths.clear();
+    }
+
+    static void closeSafe(ResultSet rs) {
+        if (rs != null) {
+            try {
+                rs.close();
+            } catch (SQLException e) {
+                // ignore
+            }
+        }
+    }
+
+    static void closeSafe(Statement st) {
+        if (st != null) {
+            try {
+                st.close();
+            } catch (SQLException e) {
+                // ignore
+            }
+        }
+    }
+
+    static class RowWidth {
+        final int width;
+        final long time;
+
+        RowWidth(int width, long time) {
+            this.width = width;
+            this.time = time;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2008, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.monetdb;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.util.logging.Logging;
+
+/**
+ * Datastore wide cache of the catalog information the dialect needs while building
+ * feature types: the type name of every column and the srid registered in
+ * <code>geometry_columns</code> for every geometry column.
+ * <p>
+ * The information of a schema is loaded with one query per catalog table the first
+ * time it is needed, and loaded again once it is older than the time to live, or
+ * when a table unknown to the cache is looked up (at most once a second). Tables
+ * created and dropped through the datastore are kept up to date by the dialect.
+ *
+ * @author Dennis Pallett
+ *
+ * @source $URL$
+ */
+public class CatalogCache {
+
+    static final Logger LOGGER = Logging.getLogger(CatalogCache.class);
+
+    /** default time to live of the information of a schema, in milliseconds */
+    public static final long DEFAULT_TTL = 5 * 60 * 1000;
+
+    /** minimum age of the information of a schema before an unknown table reloads it */
+    static final long MIN_RELOAD_INTERVAL = 1000;
+
+    final long ttl;
+
+    final Map<String, SchemaInfo> schemas = new ConcurrentHashMap<String, SchemaInfo>();
+
+    /** cleared when the catalog cannot be read in bulk */
+    volatile boolean available = true;
+
+    public CatalogCache() {
+        this(DEFAULT_TTL);
+    }
+
+    public CatalogCache(long ttl) {
+        this.ttl = ttl;
+    }
+
+    /**
+     * Whether the cache is able to answer lookups
+     */
+    public boolean isAvailable() {
+        return available;
+    }
+
+    /**
+     * Returns the type name of a column, or null if the column is unknown
+     */
+    public String getTypeName(String schema, String table, String column, Connection cx)
+            throws SQLException {
+        SchemaInfo info = getSchema(schema, table, cx);
+        if (info == null) {
+            return null;
+        }
+        synchronized (info) {
+            return info.typeNames.get(table + "." + column);
+        }
+    }
+
+    /**
+     * Returns the srid registered for a geometry column, or null if it is not registered
+     */
+    public Integer getSRID(String schema, String table, String column, Connection cx)
+            throws SQLException {
+        SchemaInfo info = getSchema(schema, table, cx);
+        if (info == null) {
+            return null;
+        }
+        synchronized (info) {
+            return info.srids.get(table + "." + column);
+        }
+    }
+
+    /**
+     * Records the srid of a geometry column registered in <code>geometry_columns</code>
+     */
+    public void putSRID(String schema, String table, String column, int srid) {
+        SchemaInfo info = schemas.get(schema);
+        if (info != null) {
+            synchronized (info) {
+                info.srids.put(table + "." + column, srid);
+            }
+        }
+    }
+
+    /**
+     * Forgets everything about a table
+     */
+    public void invalidate(String schema, String table) {
+        SchemaInfo info = schemas.get(schema);
+        if (info != null) {
+            synchronized (info) {
+                info.tables.remove(table);
+                String prefix = table + ".";
+                info.typeNames.keySet().removeAll(keysStartingWith(info.typeNames, prefix));
+                info.srids.keySet().removeAll(keysStartingWith(info.srids, prefix));
+            }
+        }
+    }
+
+    /**
+     * Forgets everything about a schema, the next lookup reloads it
+     */
+    public void invalidate(String schema) {
+        schemas.remove(schema);
+    }
+
+    public void dispose() {
+        schemas.clear();
+    }
+
+    static Set<String> keysStartingWith(Map<String, ?> map, String prefix) {
+        Set<String> keys = new HashSet<String>();
+        for (String key : map.keySet()) {
+            if (key.startsWith(prefix)) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    SchemaInfo getSchema(String schema, String table, Connection cx) throws SQLException {
+        if (!available) {
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        SchemaInfo info = schemas.get(schema);
+        if (info != null && now - info.time < ttl) {
+            synchronized (info) {
+                // unknown tables might have been created since, but don't reload the 
+                // schema over and over for tables that really do not exist
+                if (info.tables.contains(table) || now - info.time < MIN_RELOAD_INTERVAL) {
+                    return info;
+                }
+            }
+        }
+
+        try {
+            info = load(schema, cx);
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Unable to load the catalog of schema " + schema
+                    + ", looking up columns one by one", e);
+            available = false;
+            schemas.clear();
+            return null;
+        }
+        schemas.put(schema, info);
+        return info;
+    }
+
+    SchemaInfo load(String schema, Connection cx) throws SQLException {
+        SchemaInfo info = new SchemaInfo(System.currentTimeMillis());
+        String quoted = MonetDBDialect.quoteValue(schema);
+
+        Statement st = cx.createStatement();
+        try {
+            String sql = "SELECT table_name, column_name, udt_name FROM information_schema.columns"
+                    + " WHERE table_schema = " + quoted;
+            LOGGER.fine(sql);
+            ResultSet rs = st.executeQuery(sql);
+            try {
+                while (rs.next()) {
+                    String table = rs.getString(1);
+                    info.tables.add(table);
+                    info.typeNames.put(table + "." + rs.getString(2), rs.getString(3));
+                }
+            } finally {
+                rs.close();
+            }
+
+            sql = "SELECT f_table_name, f_geometry_column, srid FROM geometry_columns"
+                    + " WHERE f_table_schema = " + quoted;
+            LOGGER.fine(sql);
+            rs = st.executeQuery(sql);
+            try {
+                while (rs.next()) {
+                    info.srids.put(rs.getString(1) + "." + rs.getString(2), rs.getInt(3));
+                }
+            } finally {
+                rs.close();
+            }
+        } finally {
+            st.close();
+        }
+        return info;
+    }
+
+    /**
+     * Catalog information of a schema
+     */
+    static class SchemaInfo {
+        final long time;
+        final Set<String> tables = new HashSet<String>();
+        final Map<String, String> typeNames = new HashMap<String, String>();
+        final Map<String, Integer> srids = new HashMap<String, Integer>();
+
+        SchemaInfo(long time) {
+            this.time = time;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2008, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.monetdb;
+
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+/**
+ * Geometry factory of the queries whose geometries are decimated while decoding (see
+ * {@link MonetDBDialect#setClientDecimationEnabled(boolean)}). The feature source puts
+ * it in the query hints, the dialect finds it there when encoding the geometry columns
+ * and gets it back from the feature reader with every geometry it decodes, so the
+ * distance stays with the query. It builds the same geometries as the factory it is
+ * created from.
+ *
+ * @author Dennis Pallett
+ *
+ * @source $URL$
+ */
+class DecimatingGeometryFactory extends GeometryFactory {
+
+    private static final long serialVersionUID = 1L;
+
+    final double distance;
+
+    DecimatingGeometryFactory(GeometryFactory factory, double distance) {
+        super(factory.getPrecisionModel(), factory.getSRID(), factory
+                .getCoordinateSequenceFactory());
+        this.distance = distance;
+    }
+
+    /**
+     * Returns the decimation distance of the factory, 0 if it does not decimate
+     */
+    static double getDistance(Object factory) {
+        return factory instanceof DecimatingGeometryFactory ? ((DecimatingGeometryFactory) factory).distance
+                : 0;
+    }
+}
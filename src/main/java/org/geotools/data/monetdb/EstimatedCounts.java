@@ -0,0 +1,282 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2008, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.monetdb;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.data.Query;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.jdbc.JDBCDataStore;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.filter.Filter;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.filter.spatial.BBOX;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Estimates feature counts from the row counts MonetDB keeps in its catalog
+ * (<code>sys.storage</code>, or <code>sys.statistics</code> when the former is not
+ * available) instead of running <code>COUNT(*)</code>, see
+ * {@link MonetDBDataStore#getCount(SimpleFeatureType, Query, Connection)}.
+ * <p>
+ * Only queries whose result is the whole table can be estimated: unfiltered queries
+ * and queries with a single BBOX filter covering the bounds of the layer, on a geometry
+ * column that does not allow nulls. The catalog counts do not reflect uncommitted
+ * changes, so nothing is estimated inside a transaction, and may include recently
+ * deleted rows until MonetDB cleans them up. Counts and bounds are cached for a short
+ * time per table, the bounds being only computed for BBOX queries.
+ *
+ * @author Dennis Pallett
+ *
+ * @source $URL$
+ */
+public class EstimatedCounts {
+
+    static final Logger LOGGER = Logging.getLogger(EstimatedCounts.class);
+
+    /** default time the count of a table is trusted, in milliseconds */
+    public static final long DEFAULT_TTL = 30 * 1000;
+
+    final MonetDBDialect dialect;
+
+    final long ttl;
+
+    final Map<String, TableCount> counts = new ConcurrentHashMap<String, TableCount>();
+
+    final Map<String, TableBounds> bounds = new ConcurrentHashMap<String, TableBounds>();
+
+    public EstimatedCounts(MonetDBDialect dialect) {
+        this(dialect, DEFAULT_TTL);
+    }
+
+    public EstimatedCounts(MonetDBDialect dialect, long ttl) {
+        this.dialect = dialect;
+        this.ttl = ttl;
+    }
+
+    /**
+     * Returns the estimated number of features of the type matched by the query, or -1
+     * if the query cannot be estimated
+     */
+    public int getCount(SimpleFeatureType featureType, Query query, Connection cx)
+            throws IOException {
+        if (featureType.getUserData().get(JDBCDataStore.JDBC_VIRTUAL_TABLE) != null) {
+            return -1;
+        }
+
+        Filter filter = query.getFilter();
+        GeometryDescriptor geometry = null;
+        if (filter instanceof BBOX) {
+            geometry = getGeometry(featureType, (BBOX) filter);
+            if (geometry == null || geometry.isNillable()) {
+                // rows without geometry are not matched
+                return -1;
+            }
+        } else if (filter != null && filter != Filter.INCLUDE) {
+            return -1;
+        }
+
+        try {
+            if (!cx.getAutoCommit()) {
+                return -1;
+            }
+            String schema = dialect.getDataStore().getDatabaseSchema();
+            Long rows = getRowCount(schema, featureType.getTypeName(), cx);
+            if (rows == null) {
+                return -1;
+            }
+            if (geometry != null && !covers((BBOX) filter,
+                    getBounds(schema, featureType, geometry.getLocalName(), cx))) {
+                return -1;
+            }
+
+            long result = rows;
+            if (query.getStartIndex() != null) {
+                result = Math.max(0, result - query.getStartIndex());
+            }
+            if (!query.isMaxFeaturesUnlimited()) {
+                result = Math.min(result, query.getMaxFeatures());
+            }
+            return (int) Math.min(Integer.MAX_VALUE, result);
+        } catch (SQLException e) {
+            throw (IOException) new IOException("Could not estimate the count of "
+                    + featureType.getTypeName()).initCause(e);
+        }
+    }
+
+    /**
+     * Returns the geometry attribute the BBOX filter is on, null if unknown
+     */
+    static GeometryDescriptor getGeometry(SimpleFeatureType featureType, BBOX filter) {
+        if (!(filter.getExpression1() instanceof PropertyName)) {
+            return null;
+        }
+        String name = ((PropertyName) filter.getExpression1()).getPropertyName();
+        AttributeDescriptor att = name == null || name.length() == 0 ? featureType
+                .getGeometryDescriptor() : featureType.getDescriptor(name);
+        return att instanceof GeometryDescriptor ? (GeometryDescriptor) att : null;
+    }
+
+    /**
+     * Whether the BBOX filter is known to match all features of a layer with the
+     * specified bounds
+     */
+    static boolean covers(BBOX filter, Envelope bounds) {
+        if (bounds == null || !(filter.getExpression2() instanceof Literal)) {
+            return false;
+        }
+        Geometry geometry = ((Literal) filter.getExpression2()).evaluate(null, Geometry.class);
+        if (geometry == null || !geometry.isRectangle()) {
+            return false;
+        }
+        // an empty layer is covered by anything
+        return bounds.isNull() || geometry.getEnvelopeInternal().contains(bounds);
+    }
+
+    /**
+     * Returns the row count of the table, cached for the time to live, null if the
+     * catalog does not have it
+     */
+    Long getRowCount(String schema, String table, Connection cx) {
+        String key = schema + "." + table;
+        long now = System.currentTimeMillis();
+        TableCount count = counts.get(key);
+        if (count != null && now - count.time < ttl) {
+            return count.count;
+        }
+
+        Long rows = readCount(schema == null ? "sys" : schema, table, cx);
+        if (rows != null) {
+            counts.put(key, new TableCount(rows, now));
+        }
+        return rows;
+    }
+
+    /**
+     * Returns the bounds of a geometry column, cached for the time to live along with
+     * those of the other geometry columns of the table since they are computed by the
+     * same query
+     */
+    Envelope getBounds(String schema, SimpleFeatureType featureType, String column,
+            Connection cx) throws SQLException, IOException {
+        String key = schema + "." + featureType.getTypeName();
+        long now = System.currentTimeMillis();
+        TableBounds cached = bounds.get(key);
+        if (cached == null || now - cached.time >= ttl) {
+            List<ReferencedEnvelope> envelopes = dialect.getOptimizedBounds(schema,
+                    featureType, cx);
+            if (envelopes == null) {
+                return null;
+            }
+            // same order as the geometry attributes
+            cached = new TableBounds(now);
+            int i = 0;
+            for (AttributeDescriptor att : featureType.getAttributeDescriptors()) {
+                if (att instanceof GeometryDescriptor && i < envelopes.size()) {
+                    cached.envelopes.put(att.getLocalName(), envelopes.get(i++));
+                }
+            }
+            bounds.put(key, cached);
+        }
+        return cached.envelopes.get(column);
+    }
+
+    /**
+     * Reads the row count of the table from the catalog, null if not available
+     */
+    Long readCount(String schema, String table, Connection cx) {
+        String storage = "SELECT MAX(\"count\") FROM sys.storage WHERE \"schema\" = "
+                + MonetDBDialect.quoteValue(schema) + " AND \"table\" = "
+                + MonetDBDialect.quoteValue(table);
+        String statistics = "SELECT MAX(st.\"count\") FROM sys.statistics st"
+                + " INNER JOIN sys._columns c ON st.column_id = c.id"
+                + " INNER JOIN sys._tables t ON c.table_id = t.id"
+                + " INNER JOIN sys.schemas s ON t.schema_id = s.id"
+                + " WHERE s.name = " + MonetDBDialect.quoteValue(schema)
+                + " AND t.name = " + MonetDBDialect.quoteValue(table);
+
+        for (String sql : new String[] { storage, statistics }) {
+            Statement st = null;
+            ResultSet rs = null;
+            try {
+                st = cx.createStatement();
+                LOGGER.fine(sql);
+                rs = st.executeQuery(sql);
+                if (rs.next()) {
+                    long count = rs.getLong(1);
+                    if (!rs.wasNull()) {
+                        return count;
+                    }
+                }
+            } catch (SQLException e) {
+                LOGGER.log(Level.FINE, "Could not read the row count of " + table, e);
+            } finally {
+                dialect.getDataStore().closeSafe(rs);
+                dialect.getDataStore().closeSafe(st);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Forgets the count of a table, for instance because it has been dropped
+     */
+    public void invalidate(String schema, String table) {
+        counts.remove(schema + "." + table);
+        bounds.remove(schema + "." + table);
+    }
+
+    public void dispose() {
+        counts.clear();
+        bounds.clear();
+    }
+
+    static class TableCount {
+        final long count;
+        final long time;
+
+        TableCount(long count, long time) {
+            this.count = count;
+            this.time = time;
+        }
+    }
+
+    static class TableBounds {
+        final Map<String, Envelope> envelopes = new HashMap<String, Envelope>();
+        final long time;
+
+        TableBounds(long time) {
+            this.time = time;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2008, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.monetdb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.geotools.filter.visitor.SimplifyingFilterVisitor;
+import org.opengis.filter.And;
+import org.opengis.filter.BinaryLogicOperator;
+import org.opengis.filter.Filter;
+import org.opengis.filter.Or;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.filter.spatial.BBOX;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Rewrites filters before they are encoded to SQL, so that rule sets generated by
+ * styles do not reach the server as long chains of predicates:
+ * <ul>
+ * <li>constant terms are dropped, nested AND and OR flattened and repeated terms
+ * removed</li>
+ * <li>BBOX terms of an OR on the same property are merged when one box contains the
+ * other, or when together they form a box</li>
+ * <li>BBOX terms of an AND on the same property are dropped when they contain
+ * another one</li>
+ * </ul>
+ * OR'ed equalities on one column are left to the SQL encoder, which writes them as a
+ * single IN.
+ *
+ * @author Dennis Pallett
+ *
+ * @source $URL$
+ */
+public class FilterOptimizer extends SimplifyingFilterVisitor {
+
+    /**
+     * Returns the optimized version of a filter
+     */
+    public static Filter optimize(Filter filter) {
+        if (filter == null || filter == Filter.INCLUDE || filter == Filter.EXCLUDE) {
+            return filter;
+        }
+        return (Filter) filter.accept(new FilterOptimizer(), null);
+    }
+
+    @Override
+    public Object visit(And filter, Object extraData) {
+        Object result = super.visit(filter, extraData);
+        if (!(result instanceof And)) {
+            return result;
+        }
+
+        List<Filter> terms = flatten((And) result, And.class);
+        for (int i = 0; i < terms.size(); i++) {
+            for (int j = 0; j < terms.size(); j++) {
+                // a box containing another one adds nothing to it
+                if (i != j && contains(terms.get(i), terms.get(j))) {
+                    terms.remove(i--);
+                    break;
+                }
+            }
+        }
+        return terms.size() == 1 ? terms.get(0) : getFactory(extraData).and(terms);
+    }
+
+    @Override
+    public Object visit(Or filter, Object extraData) {
+        Object result = super.visit(filter, extraData);
+        if (!(result instanceof Or)) {
+            return result;
+        }
+
+        List<Filter> terms = flatten((Or) result, Or.class);
+        boolean merged = true;
+        while (merged) {
+            merged = false;
+            for (int i = 0; i < terms.size() && !merged; i++) {
+                for (int j = i + 1; j < terms.size() && !merged; j++) {
+                    Filter union = union(terms.get(i), terms.get(j), extraData);
+                    if (union != null) {
+                        terms.set(i, union);
+                        terms.remove(j);
+                        merged = true;
+                    }
+                }
+            }
+        }
+        return terms.size() == 1 ? terms.get(0) : getFactory(extraData).or(terms);
+    }
+
+    /**
+     * Returns the terms of nested operators of the same kind, without repetitions
+     */
+    List<Filter> flatten(BinaryLogicOperator filter, Class<? extends BinaryLogicOperator> type) {
+        List<Filter> terms = new ArrayList<Filter>();
+        for (Filter child : filter.getChildren()) {
+            if (type.isInstance(child)) {
+                for (Filter grandChild : flatten((BinaryLogicOperator) child, type)) {
+                    if (!terms.contains(grandChild)) {
+                        terms.add(grandChild);
+                    }
+                }
+            } else if (!terms.contains(child)) {
+                terms.add(child);
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Returns true if both filters are BBOX on the same property and the first box
+     * contains the second one
+     */
+    boolean contains(Filter f1, Filter f2) {
+        Envelope e1 = getSameBoxEnvelope(f1, f2);
+        return e1 != null && e1.contains(getEnvelope((BBOX) f2));
+    }
+
+    /**
+     * Returns a single BBOX matching the same features as the two filters, or null if
+     * there is none
+     */
+    Filter union(Filter f1, Filter f2, Object extraData) {
+        if (f1.equals(f2)) {
+            return f1;
+        }
+        Envelope e1 = getSameBoxEnvelope(f1, f2);
+        if (e1 == null) {
+            return null;
+        }
+        Envelope e2 = getEnvelope((BBOX) f2);
+        if (e1.contains(e2)) {
+            return f1;
+        } else if (e2.contains(e1)) {
+            return f2;
+        }
+
+        // two boxes sharing a side and touching or overlapping form a box
+        boolean sameX = e1.getMinX() == e2.getMinX() && e1.getMaxX() == e2.getMaxX();
+        boolean sameY = e1.getMinY() == e2.getMinY() && e1.getMaxY() == e2.getMaxY();
+        if ((sameX || sameY) && e1.intersects(e2)) {
+            Envelope union = new Envelope(e1);
+            union.expandToInclude(e2);
+            BBOX bbox = (BBOX) f1;
+            return getFactory(extraData).bbox(bbox.getExpression1(), union.getMinX(),
+                    union.getMinY(), union.getMaxX(), union.getMaxY(), bbox.getSRS());
+        }
+        return null;
+    }
+
+    /**
+     * Returns the envelope of the first filter if both are BBOX filters on the same
+     * property in the same reference system, null otherwise
+     */
+    Envelope getSameBoxEnvelope(Filter f1, Filter f2) {
+        if (!(f1 instanceof BBOX) || !(f2 instanceof BBOX)) {
+            return null;
+        }
+        BBOX b1 = (BBOX) f1;
+        BBOX b2 = (BBOX) f2;
+        if (!(b1.getExpression1() instanceof PropertyName)
+                || !b1.getExpression1().equals(b2.getExpression1())
+                || (b1.getSRS() == null ? b2.getSRS() != null : !b1.getSRS().equals(b2.getSRS()))) {
+            return null;
+        }
+        Envelope e1 = getEnvelope(b1);
+        Envelope e2 = getEnvelope(b2);
+        return e1 == null || e2 == null ? null : e1;
+    }
+
+    Envelope getEnvelope(BBOX filter) {
+        if (!(filter.getExpression2() instanceof Literal)) {
+            return null;
+        }
+        Geometry g = filter.getExpression2().evaluate(null, Geometry.class);
+        return g == null || g.isEmpty() ? null : g.getEnvelopeInternal();
+    }
+}
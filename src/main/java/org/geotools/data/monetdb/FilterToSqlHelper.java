@@ -25,8 +25,10 @@ import java.sql.Time;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.geotools.data.jdbc.FilterToSQL;
 import org.geotools.factory.CommonFactoryFinder;
@@ -52,8 +54,14 @@ import org.geotools.filter.function.math.FilterFunction_ceil;
 import org.geotools.filter.function.math.FilterFunction_floor;
 import org.geotools.geometry.jts.JTS;
 import org.geotools.jdbc.JDBCDataStore;
+import org.geotools.jdbc.PreparedFilterToSQL;
 import org.geotools.jdbc.SQLDialect;
+import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.filter.Filter;
+import org.opengis.filter.Or;
+import org.opengis.filter.PropertyIsEqualTo;
 import org.opengis.filter.expression.Expression;
 import org.opengis.filter.expression.Function;
 import org.opengis.filter.expression.Literal;
@@ -86,6 +94,7 @@ import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryComponentFilter;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
 import com.vividsolutions.jts.geom.Polygon;
 
 class FilterToSqlHelper {
@@ -112,9 +121,15 @@ class FilterToSqlHelper {
     
     private static final Envelope WORLD = new Envelope(-180, 180, -90, 90);
     
+    /**
+     * Maximum number of Hilbert key ranges written for a BBOX filter
+     */
+    static final int HILBERT_RANGES = 8;
+    
     FilterToSQL delegate;
     Writer out;
     boolean looseBBOXEnabled;
+    MonetDBDialect dialect;
 
     public FilterToSqlHelper(FilterToSQL delegate) {
         this.delegate = delegate;
@@ -206,25 +221,62 @@ class FilterToSqlHelper {
     void visitDistanceSpatialOperator(DistanceBufferOperator filter,
             PropertyName property, Literal geometry, boolean swapped,
             Object extraData) throws IOException {
-        if ((filter instanceof DWithin && !swapped)
-                || (filter instanceof Beyond && swapped)) {
-            out.write("ST_DWithin(");
-            property.accept(delegate, extraData);
-            out.write(",");
-            geometry.accept(delegate, extraData);
-            out.write(",");
-            out.write(toMeters(filter.getDistance(), filter.getDistanceUnits()));
+        // distances are symmetric, beyond is simply the negation of within
+        boolean beyond = filter instanceof Beyond;
+        if (beyond) {
+            out.write("NOT (");
+        }
+        
+        // only the rows whose bounding box is close enough can be within the distance
+        if (encodeDistancePrefilter(property, geometry, filter.getDistance(), extraData)) {
+            out.write(" AND ");
+        }
+        
+        out.write("ST_DWithin(");
+        property.accept(delegate, extraData);
+        out.write(",");
+        geometry.accept(delegate, extraData);
+        out.write(",");
+        out.write(toMeters(filter.getDistance(), filter.getDistanceUnits()));
+        out.write(")");
+        
+        if (beyond) {
             out.write(")");
         }
-        if ((filter instanceof DWithin && swapped)
-                || (filter instanceof Beyond && !swapped)) {
-            out.write("Distance(");
+    }
+    
+    /**
+     * Writes the bounding box overlap test between the property and the envelope of
+     * the geometry expanded by the distance, using the Hilbert key and the bounding box
+     * columns when the layer has them. Returns false without writing anything if the
+     * envelope cannot be computed.
+     */
+    boolean encodeDistancePrefilter(PropertyName property, Literal geometry, double distance,
+            Object extraData) throws IOException {
+        if (isCurrentGeography()) {
+            // the distance is not in the units of the coordinates
+            return false;
+        }
+        Geometry g = geometry.evaluate(null, Geometry.class);
+        if (g == null || g.isEmpty()) {
+            return false;
+        }
+        Envelope envelope = new Envelope(g.getEnvelopeInternal());
+        envelope.expandBy(distance);
+        Literal expanded = CommonFactoryFinder.getFilterFactory(null).literal(
+                g.getFactory().toGeometry(envelope));
+        
+        if (encodeHilbertFilter(property, expanded)) {
+            out.write(" AND ");
+        }
+        if (!encodeMBRColumnsFilter(property, expanded)) {
+            out.write("mbroverlaps(mbr(");
             property.accept(delegate, extraData);
-            out.write(",");
-            geometry.accept(delegate, extraData);
-            out.write(") > ");
-            out.write(Double.toString(filter.getDistance()));
+            out.write("), mbr(");
+            expanded.accept(delegate, extraData);
+            out.write("))");
         }
+        return true;
     }
 
     private String toMeters(double distance, String unit) {
@@ -261,13 +313,35 @@ class FilterToSqlHelper {
             }
         }
         
-        // add && filter if possible
-        if(!(filter instanceof Disjoint)) {
+        // in hybrid mode the exact predicate is evaluated by the client, with a loose
+        // bbox or on points the bounding box test is all a BBOX filter needs
+        boolean mbrOnly = HybridSpatialFilter.isMBROnly(geometry) || (filter instanceof BBOX 
+                && (looseBBOXEnabled || isPointProperty(property)));
+        
+        if(filter instanceof BBOX && encodeBBOX(property, geometry, extraData)) {
+            return;
+        }
+        
+        // on clustered layers, skip the rows outside of the key ranges the box can match
+        if((filter instanceof BBOX || mbrOnly) && encodeHilbertFilter(property, geometry)) {
+            out.write(" AND ");
+        }
+        
+        // add && filter if possible, on the persisted bounding box if the layer has one
+        if(!(filter instanceof Disjoint) && encodeMBRColumnsFilter(property, geometry)) {
+            if(mbrOnly) {
+                return;
+            }
+            out.write(" AND ");
+        } else if(!(filter instanceof Disjoint)) {
         	out.write("mbroverlaps(mbr(");
         	property.accept(delegate, extraData);
             out.write("), mbr(");
             geometry.accept(delegate, extraData);
             out.write("))");
+            if(mbrOnly) {
+                return;
+            }
                 
             out.write(" AND ");
         }
@@ -286,6 +360,207 @@ class FilterToSqlHelper {
         visitBinarySpatialOperator(filter, (Expression)property, (Expression)geometry, swapped, extraData);
     }
     
+    /**
+     * Writes a BBOX filter out of the four doubles of the box rather than as a polygon
+     * when the server can build envelopes. The exact intersection test is skipped on
+     * point layers, where it adds nothing, and in loose bbox mode. Returns false
+     * without writing anything if the box cannot be encoded this way.
+     */
+    boolean encodeBBOX(PropertyName property, Literal geometry, Object extraData) 
+            throws IOException {
+        Integer srid = getCurrentSRID();
+        Envelope envelope = getSQLEnvelope(geometry);
+        if (dialect == null || !dialect.isEnvelopeSupported() || srid == null 
+                || envelope == null) {
+            return false;
+        }
+        
+        // on clustered layers, skip the rows outside of the key ranges the box can match
+        if(encodeHilbertFilter(property, geometry)) {
+            out.write(" AND ");
+        }
+        
+        if(!encodeMBRColumnsFilter(property, geometry)) {
+            out.write("mbroverlaps(mbr(");
+            property.accept(delegate, extraData);
+            out.write("), mbr(");
+            writeEnvelope(envelope, srid);
+            out.write("))");
+        }
+        
+        if(looseBBOXEnabled || isPointProperty(property)) {
+            return true;
+        }
+        out.write(" AND \"Intersect\"(");
+        property.accept(delegate, extraData);
+        out.write(", ");
+        writeEnvelope(envelope, srid);
+        out.write(")");
+        return true;
+    }
+    
+    /**
+     * Writes an envelope built by the server out of its four ordinates
+     */
+    void writeEnvelope(Envelope envelope, int srid) throws IOException {
+        out.write("ST_MakeEnvelope(");
+        writeNumber(envelope.getMinX());
+        out.write(", ");
+        writeNumber(envelope.getMinY());
+        out.write(", ");
+        writeNumber(envelope.getMaxX());
+        out.write(", ");
+        writeNumber(envelope.getMaxY());
+        out.write(", " + srid + ")");
+    }
+    
+    /**
+     * Writes a number through the delegate, which makes it a parameter of prepared 
+     * statements and a plain literal otherwise
+     */
+    void writeNumber(Number value) {
+        CommonFactoryFinder.getFilterFactory(null).literal(value).accept(delegate, 
+                value.getClass());
+    }
+    
+    /**
+     * Returns the envelope of the geometry literal with infinite ordinates clamped to
+     * the largest doubles, SQL having no literal for them. Returns null if the literal
+     * is not a geometry, is empty or has NaN ordinates.
+     */
+    static Envelope getSQLEnvelope(Literal geometry) {
+        Geometry g = geometry.evaluate(null, Geometry.class);
+        if (g == null || g.isEmpty()) {
+            return null;
+        }
+        Envelope e = g.getEnvelopeInternal();
+        double[] ordinates = { e.getMinX(), e.getMaxX(), e.getMinY(), e.getMaxY() };
+        for (int i = 0; i < ordinates.length; i++) {
+            if (Double.isNaN(ordinates[i])) {
+                return null;
+            }
+            ordinates[i] = Math.max(-Double.MAX_VALUE, Math.min(Double.MAX_VALUE, 
+                    ordinates[i]));
+        }
+        return new Envelope(ordinates[0], ordinates[1], ordinates[2], ordinates[3]);
+    }
+    
+    /**
+     * Returns true if the property is a point geometry, whose bounding box overlaps a
+     * box exactly when the point intersects it
+     */
+    boolean isPointProperty(PropertyName property) {
+        SimpleFeatureType featureType = getFeatureType();
+        if (featureType == null) {
+            return false;
+        }
+        AttributeDescriptor att = (AttributeDescriptor) property.evaluate(featureType);
+        return att instanceof GeometryDescriptor
+                && Point.class.isAssignableFrom(att.getType().getBinding());
+    }
+    
+    /**
+     * Writes the bounding box overlap test as numeric range predicates on the 
+     * persisted bounding box columns of the property, returns false without writing 
+     * anything if the property does not have them
+     */
+    boolean encodeMBRColumnsFilter(PropertyName property, Literal geometry) throws IOException {
+        String[] columns = getMBRColumns(property);
+        Envelope envelope = getSQLEnvelope(geometry);
+        if (columns == null || envelope == null) {
+            return false;
+        }
+        
+        out.write("\"" + columns[0] + "\" <= ");
+        writeNumber(envelope.getMaxX());
+        out.write(" AND \"" + columns[2] + "\" >= ");
+        writeNumber(envelope.getMinX());
+        out.write(" AND \"" + columns[1] + "\" <= ");
+        writeNumber(envelope.getMaxY());
+        out.write(" AND \"" + columns[3] + "\" >= ");
+        writeNumber(envelope.getMinY());
+        return true;
+    }
+    
+    /**
+     * Writes the Hilbert key ranges the features intersecting the geometry can have,
+     * rows without key are always included. Returns false without writing anything if
+     * the property has no Hilbert key.
+     */
+    boolean encodeHilbertFilter(PropertyName property, Literal geometry) throws IOException {
+        SimpleFeatureType featureType = getFeatureType();
+        if (dialect == null || featureType == null) {
+            return false;
+        }
+        AttributeDescriptor att = (AttributeDescriptor) property.evaluate(featureType);
+        if (!(att instanceof GeometryDescriptor)) {
+            return false;
+        }
+        String column = MonetDBDialect.getHilbertColumn((GeometryDescriptor) att);
+        if (column == null) {
+            return false;
+        }
+        Envelope envelope = getSQLEnvelope(geometry);
+        if (envelope == null) {
+            return false;
+        }
+        HilbertCurve curve = dialect.getHilbertCurve(featureType, att.getLocalName());
+        if (curve == null) {
+            return false;
+        }
+        
+        List<long[]> ranges = curve.ranges(envelope, HILBERT_RANGES);
+        if (delegate instanceof PreparedFilterToSQL) {
+            // always as many ranges, so the statement text does not depend on the box
+            while (!ranges.isEmpty() && ranges.size() < HILBERT_RANGES) {
+                ranges.add(ranges.get(ranges.size() - 1));
+            }
+        }
+        out.write("(\"" + column + "\" IS NULL");
+        for (long[] range : ranges) {
+            out.write(" OR \"" + column + "\" BETWEEN ");
+            writeNumber(range[0]);
+            out.write(" AND ");
+            writeNumber(range[1]);
+        }
+        out.write(")");
+        return true;
+    }
+    
+    /**
+     * Returns the bounding box columns (minx, miny, maxx, maxy) of the property if 
+     * its table has them, null otherwise
+     */
+    String[] getMBRColumns(PropertyName property) {
+        SimpleFeatureType featureType = getFeatureType();
+        if (featureType == null) {
+            return null;
+        }
+        AttributeDescriptor att = (AttributeDescriptor) property.evaluate(featureType);
+        if (!(att instanceof GeometryDescriptor)) {
+            return null;
+        }
+        return MonetDBDialect.getMBRColumns((GeometryDescriptor) att);
+    }
+    
+    Integer getCurrentSRID() {
+        if (delegate instanceof MonetDBPSFilterToSQL) {
+            return ((MonetDBPSFilterToSQL) delegate).getCurrentSRID();
+        } else if (delegate instanceof MonetDBFilterToSQL) {
+            return ((MonetDBFilterToSQL) delegate).getCurrentSRID();
+        }
+        return null;
+    }
+    
+    SimpleFeatureType getFeatureType() {
+        if (delegate instanceof MonetDBPSFilterToSQL) {
+            return ((MonetDBPSFilterToSQL) delegate).getFeatureType();
+        } else if (delegate instanceof MonetDBFilterToSQL) {
+            return ((MonetDBFilterToSQL) delegate).getFeatureType();
+        }
+        return null;
+    }
+    
     void visitBinarySpatialOperator(BinarySpatialOperator filter, Expression e1, Expression e2, 
         boolean swapped, Object extraData) throws IOException {
         
@@ -467,6 +742,96 @@ class FilterToSqlHelper {
         return function.getName();
     }
 
+    /**
+     * Writes the equalities of an OR on the same column as a single IN, returns false
+     * without writing anything if there are no two such equalities
+     */
+    boolean encodeIn(Or filter, Object extraData) throws IOException {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        boolean found = false;
+        for (Filter child : filter.getChildren()) {
+            PropertyName property = getInProperty(child);
+            if (property != null) {
+                Integer count = counts.get(property.getPropertyName());
+                counts.put(property.getPropertyName(), count == null ? 1 : count + 1);
+                found |= count != null;
+            }
+        }
+        if (!found) {
+            return false;
+        }
+        
+        out.write("(");
+        Set<String> written = new HashSet<String>();
+        boolean firstTerm = true;
+        for (Filter child : filter.getChildren()) {
+            PropertyName property = getInProperty(child);
+            String name = property == null ? null : property.getPropertyName();
+            boolean grouped = name != null && counts.get(name) > 1;
+            if (grouped && !written.add(name)) {
+                // already part of the IN
+                continue;
+            }
+            if (!firstTerm) {
+                out.write(" OR ");
+            }
+            firstTerm = false;
+            if (!grouped) {
+                child.accept(delegate, extraData);
+                continue;
+            }
+            
+            Class<?> binding = ((AttributeDescriptor) property.evaluate(getFeatureType()))
+                    .getType().getBinding();
+            property.accept(delegate, binding);
+            out.write(" IN (");
+            boolean first = true;
+            for (Filter other : filter.getChildren()) {
+                PropertyName otherProperty = getInProperty(other);
+                if (otherProperty != null && name.equals(otherProperty.getPropertyName())) {
+                    if (!first) {
+                        out.write(", ");
+                    }
+                    first = false;
+                    getInLiteral((PropertyIsEqualTo) other).accept(delegate, binding);
+                }
+            }
+            out.write(")");
+        }
+        out.write(")");
+        return true;
+    }
+    
+    /**
+     * Returns the property compared by an equality that can be part of an IN: a case
+     * sensitive comparison between a non geometric attribute and a literal
+     */
+    PropertyName getInProperty(Filter filter) {
+        if (!(filter instanceof PropertyIsEqualTo) || !((PropertyIsEqualTo) filter).isMatchingCase()) {
+            return null;
+        }
+        PropertyIsEqualTo equal = (PropertyIsEqualTo) filter;
+        PropertyName property;
+        if (equal.getExpression1() instanceof PropertyName && equal.getExpression2() instanceof Literal) {
+            property = (PropertyName) equal.getExpression1();
+        } else if (equal.getExpression2() instanceof PropertyName && equal.getExpression1() instanceof Literal) {
+            property = (PropertyName) equal.getExpression2();
+        } else {
+            return null;
+        }
+        SimpleFeatureType featureType = getFeatureType();
+        Object att = featureType == null ? null : property.evaluate(featureType);
+        if (!(att instanceof AttributeDescriptor) || att instanceof GeometryDescriptor) {
+            return null;
+        }
+        return property;
+    }
+    
+    Literal getInLiteral(PropertyIsEqualTo filter) {
+        return (Literal) (filter.getExpression1() instanceof Literal ? filter.getExpression1()
+                : filter.getExpression2());
+    }
+
     /**
      * Performs custom visits for functions that cannot be encoded 
      * as <code>functionName(p1, p2, ... pN).</code>
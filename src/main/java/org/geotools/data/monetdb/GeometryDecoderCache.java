@@ -0,0 +1,216 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2008, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.monetdb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.vividsolutions.jts.geom.CoordinateSequenceFactory;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.PrecisionModel;
+
+/**
+ * Keeps a small number of geometry decoders per thread, keyed by the geometry
+ * factory they build geometries with.
+ * <p>
+ * Two factories with the same precision model, srid and coordinate sequence factory
+ * build the same geometries, so they share a decoder: readers that create a new
+ * factory for every query do not cause new decoders (and their buffers) to be
+ * allocated. The decoder is switched to the factory asked for before being returned,
+ * so geometries keep coming from the factory of their query. The caches of all
+ * threads are released by {@link #dispose()}.
+ *
+ * @author Dennis Pallett
+ *
+ * @source $URL$
+ */
+public class GeometryDecoderCache {
+
+    /** default number of decoders kept per thread */
+    public static final int DEFAULT_SIZE = 4;
+
+    final int size;
+
+    final ThreadLocal<Decoders> decoders = new ThreadLocal<Decoders>();
+
+    /** the decoders of all threads, weakly referenced so they go away with their thread */
+    final Set<Decoders> allDecoders = Collections.synchronizedSet(Collections
+            .newSetFromMap(new WeakHashMap<Decoders, Boolean>()));
+
+    /** bumped by {@link #dispose()}, the caches of older generations are dropped */
+    volatile int generation;
+
+    final AtomicLong hits = new AtomicLong();
+    final AtomicLong rebuilds = new AtomicLong();
+
+    public GeometryDecoderCache() {
+        this(DEFAULT_SIZE);
+    }
+
+    public GeometryDecoderCache(int size) {
+        this.size = size;
+    }
+
+    /**
+     * Returns a decoder building geometries equivalent to the ones of the specified
+     * factory, for use by the current thread only
+     */
+    public WKTAttributeIO getDecoder(GeometryFactory factory) {
+        Decoders local = decoders.get();
+        if (local == null || local.generation != generation) {
+            // first use by this thread, or released since
+            local = new Decoders(size, generation);
+            decoders.set(local);
+            allDecoders.add(local);
+        }
+
+        // most of the time the factory is the same as on the previous call
+        if (local.lastFactory == factory && local.lastDecoder != null) {
+            hits.incrementAndGet();
+            return local.lastDecoder;
+        }
+
+        Key key = new Key(factory);
+        WKTAttributeIO decoder;
+        boolean rebuilt = false;
+        synchronized (local) {
+            decoder = local.decoders.get(key);
+            if (decoder == null) {
+                decoder = new WKTAttributeIO(factory);
+                local.decoders.put(key, decoder);
+                rebuilt = true;
+            } else if (decoder.getGeometryFactory() != factory) {
+                decoder.setGeometryFactory(factory);
+            }
+        }
+        if (rebuilt) {
+            rebuilds.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        local.lastFactory = factory;
+        local.lastDecoder = decoder;
+        return decoder;
+    }
+
+    /**
+     * Number of lookups served by an existing decoder
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Number of lookups that required a new decoder to be built
+     */
+    public long getRebuilds() {
+        return rebuilds.get();
+    }
+
+    /**
+     * Fraction of the lookups served by an existing decoder
+     */
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + rebuilds.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * Releases the decoders of all threads. Threads still holding their emptied cache
+     * replace it on their next lookup.
+     */
+    public void dispose() {
+        List<Decoders> copy;
+        synchronized (allDecoders) {
+            generation++;
+            copy = new ArrayList<Decoders>(allDecoders);
+            allDecoders.clear();
+        }
+        for (Decoders local : copy) {
+            local.release();
+        }
+        decoders.remove();
+    }
+
+    /**
+     * Per thread LRU map of decoders, plus the last factory looked up
+     */
+    static class Decoders {
+        final Map<Key, WKTAttributeIO> decoders;
+        final int generation;
+        GeometryFactory lastFactory;
+        WKTAttributeIO lastDecoder;
+
+        Decoders(final int size, int generation) {
+            this.generation = generation;
+            decoders = new LinkedHashMap<Key, WKTAttributeIO>(size + 1, 1, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, WKTAttributeIO> eldest) {
+                    return size() > size;
+                }
+            };
+        }
+
+        synchronized void release() {
+            decoders.clear();
+            lastFactory = null;
+            lastDecoder = null;
+        }
+    }
+
+    /**
+     * What makes two geometry factories build the same geometries
+     */
+    static class Key {
+        final PrecisionModel precisionModel;
+        final int srid;
+        final CoordinateSequenceFactory csFactory;
+
+        Key(GeometryFactory factory) {
+            this.precisionModel = factory.getPrecisionModel();
+            this.srid = factory.getSRID();
+            this.csFactory = factory.getCoordinateSequenceFactory();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return srid == other.srid && precisionModel.equals(other.precisionModel)
+                    && csFactory.equals(other.csFactory);
+        }
+
+        @Override
+        public int hashCode() {
+            // PrecisionModel does not override hashCode
+            long scale = Double.doubleToLongBits(precisionModel.getScale());
+            int pmHash = precisionModel.getType().toString().hashCode() ^ (int) (scale ^ (scale >>> 32));
+            return 31 * (31 * srid + pmHash) + csFactory.hashCode();
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2008, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.monetdb;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.CoordinateSequenceFilter;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.PrecisionModel;
+
+/**
+ * Encodes geometries as <code>GeomFromText('wkt', srid)</code> expressions, and
+ * remembers the expressions of large geometries so a geometry used over and over,
+ * such as the outline of a country clipping every request, is written out once.
+ * <p>
+ * Entries are keyed by the identity of the geometry and the srid expression, geometries
+ * are expected not to change once they have been encoded. The cache is bounded both
+ * in number of entries and in total length of the expressions, the least recently
+ * used entries going first. Optionally the coordinates are rounded to a number of
+ * decimals, which shrinks the text to send and parse; rounding may make a complex
+ * polygon invalid, so it should not be finer than the data itself.
+ *
+ * @author Dennis Pallett
+ *
+ * @source $URL$
+ */
+public class GeometryEncoderCache {
+
+    /** default number of expressions kept */
+    public static final int DEFAULT_SIZE = 64;
+
+    /** default total length of the expressions kept, in characters */
+    public static final long DEFAULT_MAX_CHARACTERS = 16 * 1024 * 1024;
+
+    /** geometries with fewer points are cheaper to encode again than to look up */
+    static final int MIN_POINTS = 64;
+
+    final int size;
+
+    final long maxCharacters;
+
+    /** number of decimals the coordinates are rounded to, negative to keep them all */
+    volatile int precision = -1;
+
+    final Map<Key, String> expressions;
+
+    long characters;
+
+    final AtomicLong hits = new AtomicLong();
+    final AtomicLong misses = new AtomicLong();
+
+    public GeometryEncoderCache() {
+        this(DEFAULT_SIZE, DEFAULT_MAX_CHARACTERS);
+    }
+
+    public GeometryEncoderCache(int size, long maxCharacters) {
+        this.size = size;
+        this.maxCharacters = maxCharacters;
+        this.expressions = new LinkedHashMap<Key, String>(16, 0.75f, true);
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Sets the number of decimals coordinates are rounded to, negative to keep full
+     * precision. Clears the cache.
+     */
+    public void setPrecision(int precision) {
+        this.precision = precision;
+        clear();
+    }
+
+    /**
+     * Returns the expression building the geometry with the specified srid, the srid
+     * being any SQL expression
+     */
+    public String encode(Geometry geometry, String srid) {
+        if (size <= 0 || geometry.getNumPoints() < MIN_POINTS) {
+            return toExpression(geometry, srid);
+        }
+
+        Key key = new Key(geometry, srid);
+        String expression;
+        synchronized (expressions) {
+            expression = expressions.get(key);
+        }
+        if (expression != null) {
+            hits.incrementAndGet();
+            return expression;
+        }
+
+        misses.incrementAndGet();
+        expression = toExpression(geometry, srid);
+        if (expression.length() <= maxCharacters) {
+            synchronized (expressions) {
+                String previous = expressions.put(key, expression);
+                characters += expression.length()
+                        - (previous == null ? 0 : previous.length());
+                Iterator<String> it = expressions.values().iterator();
+                while ((expressions.size() > size || characters > maxCharacters)
+                        && it.hasNext()) {
+                    characters -= it.next().length();
+                    it.remove();
+                }
+            }
+        }
+        return expression;
+    }
+
+    String toExpression(Geometry geometry, String srid) {
+        return "GeomFromText('" + toText(geometry, precision) + "', " + srid + ")";
+    }
+
+    /**
+     * Returns the WKT of a geometry with coordinates rounded to the number of decimals,
+     * linear rings written as line strings as MonetDB does not know them
+     */
+    static String toText(Geometry geometry, int precision) {
+        if (geometry instanceof LinearRing) {
+            geometry = geometry.getFactory().createLineString(
+                    ((LinearRing) geometry).getCoordinateSequence());
+        }
+        if (precision < 0) {
+            return geometry.toText();
+        }
+
+        final PrecisionModel pm = new PrecisionModel(Math.pow(10, precision));
+        Geometry rounded = (Geometry) geometry.clone();
+        // a sequence filter, as coordinate filters do not write back to packed sequences
+        rounded.apply(new CoordinateSequenceFilter() {
+            public void filter(CoordinateSequence seq, int i) {
+                seq.setOrdinate(i, 0, pm.makePrecise(seq.getOrdinate(i, 0)));
+                seq.setOrdinate(i, 1, pm.makePrecise(seq.getOrdinate(i, 1)));
+            }
+
+            public boolean isDone() {
+                return false;
+            }
+
+            public boolean isGeometryChanged() {
+                return true;
+            }
+        });
+        return rounded.toText();
+    }
+
+    /**
+     * Number of lookups served from the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Number of lookups of cacheable geometries that required encoding
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Empties the cache
+     */
+    public void clear() {
+        synchronized (expressions) {
+            expressions.clear();
+            characters = 0;
+        }
+    }
+
+    /**
+     * Identity of a geometry plus the srid it is encoded with
+     */
+    static class Key {
+        final Geometry geometry;
+        final String srid;
+
+        Key(Geometry geometry, String srid) {
+            this.geometry = geometry;
+            this.srid = srid;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return geometry == other.geometry
+                    && (srid == null ? other.srid == null : srid.equals(other.srid));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(geometry) + (srid == null ? 0 : srid.hashCode());
+        }
+    }
+}
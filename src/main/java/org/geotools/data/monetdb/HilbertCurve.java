@@ -0,0 +1,250 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2008, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.monetdb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Hilbert curve over the extent of a layer, used to give every feature a key such
+ * that features close to each other in space tend to have keys close to each other.
+ * <p>
+ * The extent is divided in a grid of <code>2^order</code> by <code>2^order</code>
+ * cells, a feature gets the key of the cell holding the center of its bounding box.
+ * Together with the largest width and height of the feature bounding boxes, the curve
+ * tells which key ranges may hold the features intersecting an envelope.
+ *
+ * @author Dennis Pallett
+ *
+ * @source $URL$
+ */
+public class HilbertCurve {
+
+    /** default order of the curve, keys then fit in 32 bits */
+    public static final int DEFAULT_ORDER = 16;
+
+    final int order;
+
+    final Envelope extent;
+
+    final double maxWidth;
+
+    final double maxHeight;
+
+    public HilbertCurve(int order, Envelope extent, double maxWidth, double maxHeight) {
+        this.order = order;
+        this.extent = extent;
+        this.maxWidth = maxWidth;
+        this.maxHeight = maxHeight;
+    }
+
+    public int getOrder() {
+        return order;
+    }
+
+    public Envelope getExtent() {
+        return extent;
+    }
+
+    public double getMaxWidth() {
+        return maxWidth;
+    }
+
+    public double getMaxHeight() {
+        return maxHeight;
+    }
+
+    /**
+     * Returns the parameters of the curve as text, as stored in the catalog
+     */
+    public String toText() {
+        return "hilbert " + order + " " + extent.getMinX() + " " + extent.getMinY() + " "
+                + extent.getMaxX() + " " + extent.getMaxY() + " " + maxWidth + " " + maxHeight;
+    }
+
+    /**
+     * Parses the text returned by {@link #toText()}, returns null if the text does not
+     * describe a curve
+     */
+    public static HilbertCurve fromText(String text) {
+        String[] parts = text == null ? new String[0] : text.trim().split("\\s+");
+        if (parts.length != 8 || !"hilbert".equals(parts[0])) {
+            return null;
+        }
+        try {
+            return new HilbertCurve(Integer.parseInt(parts[1]), new Envelope(
+                    Double.parseDouble(parts[2]), Double.parseDouble(parts[4]),
+                    Double.parseDouble(parts[3]), Double.parseDouble(parts[5])),
+                    Double.parseDouble(parts[6]), Double.parseDouble(parts[7]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the key of a bounding box
+     */
+    public long key(Envelope envelope) {
+        return key(envelope.centre().x, envelope.centre().y);
+    }
+
+    /**
+     * Returns the key of a point, points outside of the extent get the key of the
+     * closest cell
+     */
+    public long key(double x, double y) {
+        return encode(order, cell(x, extent.getMinX(), extent.getWidth()),
+                cell(y, extent.getMinY(), extent.getHeight()));
+    }
+
+    long cell(double value, double min, double size) {
+        long cells = 1L << order;
+        if (size <= 0) {
+            return 0;
+        }
+        long cell = (long) Math.floor((value - min) / size * cells);
+        return Math.max(0, Math.min(cells - 1, cell));
+    }
+
+    /**
+     * Returns sorted, disjoint key ranges (first and last key, inclusive) holding the
+     * keys of all features whose bounding box intersects the envelope, at most
+     * <code>maxRanges</code> of them. Fewer ranges cover more keys that do not match.
+     */
+    public List<long[]> ranges(Envelope envelope, int maxRanges) {
+        // the center of an intersecting box is at most half its size away
+        Envelope search = new Envelope(envelope);
+        search.expandBy(maxWidth / 2, maxHeight / 2);
+
+        long x0 = cell(search.getMinX(), extent.getMinX(), extent.getWidth());
+        long x1 = cell(search.getMaxX(), extent.getMinX(), extent.getWidth());
+        long y0 = cell(search.getMinY(), extent.getMinY(), extent.getHeight());
+        long y1 = cell(search.getMaxY(), extent.getMinY(), extent.getHeight());
+        return ranges(order, x0, y0, x1, y1, maxRanges);
+    }
+
+    /**
+     * Returns the key ranges covering the cells from (x0, y0) to (x1, y1). The grid is
+     * divided as a quadtree, every quadrant holding a contiguous range of keys, and
+     * quadrants partially covered are split level by level as long as the ranges do
+     * not get too many.
+     */
+    static List<long[]> ranges(int order, long x0, long y0, long x1, long y1, int maxRanges) {
+        List<long[]> done = new ArrayList<long[]>();
+        // quadrants as x, y, size in cells
+        List<long[]> partial = new ArrayList<long[]>();
+        partial.add(new long[] { 0, 0, 1L << order });
+
+        int budget = Math.max(1, maxRanges) * 4;
+        while (!partial.isEmpty() && partial.get(0)[2] > 1) {
+            List<long[]> split = new ArrayList<long[]>();
+            List<long[]> covered = new ArrayList<long[]>();
+            for (long[] q : partial) {
+                long half = q[2] / 2;
+                for (int i = 0; i < 4; i++) {
+                    long qx = q[0] + (i & 1) * half;
+                    long qy = q[1] + (i >> 1) * half;
+                    if (qx > x1 || qx + half - 1 < x0 || qy > y1 || qy + half - 1 < y0) {
+                        continue;
+                    }
+                    if (qx >= x0 && qx + half - 1 <= x1 && qy >= y0 && qy + half - 1 <= y1) {
+                        covered.add(new long[] { qx, qy, half });
+                    } else {
+                        split.add(new long[] { qx, qy, half });
+                    }
+                }
+            }
+            if (done.size() + covered.size() + split.size() > budget) {
+                break;
+            }
+            done.addAll(covered);
+            partial = split;
+        }
+        done.addAll(partial);
+
+        List<long[]> ranges = new ArrayList<long[]>();
+        for (long[] q : done) {
+            long length = q[2] * q[2];
+            long first = encode(order, q[0], q[1]) / length * length;
+            ranges.add(new long[] { first, first + length - 1 });
+        }
+        return merge(ranges, maxRanges);
+    }
+
+    /**
+     * Sorts the ranges and merges the adjacent ones, then the ones with the smallest
+     * gaps between them until there are no more than <code>maxRanges</code>
+     */
+    static List<long[]> merge(List<long[]> ranges, int maxRanges) {
+        Collections.sort(ranges, new Comparator<long[]>() {
+            public int compare(long[] r1, long[] r2) {
+                return r1[0] < r2[0] ? -1 : (r1[0] == r2[0] ? 0 : 1);
+            }
+        });
+
+        List<long[]> merged = new ArrayList<long[]>();
+        for (long[] r : ranges) {
+            long[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && r[0] <= last[1] + 1) {
+                last[1] = Math.max(last[1], r[1]);
+            } else {
+                merged.add(new long[] { r[0], r[1] });
+            }
+        }
+
+        while (merged.size() > Math.max(1, maxRanges)) {
+            int smallest = 0;
+            for (int i = 1; i < merged.size() - 1; i++) {
+                if (merged.get(i + 1)[0] - merged.get(i)[1]
+                        < merged.get(smallest + 1)[0] - merged.get(smallest)[1]) {
+                    smallest = i;
+                }
+            }
+            merged.get(smallest)[1] = merged.get(smallest + 1)[1];
+            merged.remove(smallest + 1);
+        }
+        return merged;
+    }
+
+    /**
+     * Returns the position of cell (x, y) along the Hilbert curve of the specified
+     * order
+     */
+    static long encode(int order, long x, long y) {
+        long d = 0;
+        for (long s = 1L << (order - 1); s > 0; s >>= 1) {
+            long rx = (x & s) > 0 ? 1 : 0;
+            long ry = (y & s) > 0 ? 1 : 0;
+            d += s * s * ((3 * rx) ^ ry);
+            // rotate the quadrant
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = s - 1 - x;
+                    y = s - 1 - y;
+                }
+                long t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2008, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.monetdb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.geotools.factory.CommonFactoryFinder;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.filter.And;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.FilterVisitor;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.filter.spatial.BinarySpatialOperator;
+import org.opengis.filter.spatial.Contains;
+import org.opengis.filter.spatial.Crosses;
+import org.opengis.filter.spatial.Equals;
+import org.opengis.filter.spatial.Intersects;
+import org.opengis.filter.spatial.Overlaps;
+import org.opengis.filter.spatial.Touches;
+import org.opengis.filter.spatial.Within;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+
+/**
+ * Exact spatial predicate evaluated on the client against a prepared version of the
+ * literal geometry, for layers filtered in hybrid mode: the server only checks
+ * whether the bounding boxes overlap, the candidates are then tested locally.
+ * <p>
+ * {@link #split(Filter[], SimpleFeatureType)} rewrites the pre filter of a query
+ * accordingly. Only predicates the whole filter depends on (the filter itself or
+ * one of the terms of its top level AND) are rewritten, a bounding box test in an
+ * OR or under a NOT would change the result of the query.
+ *
+ * @author Dennis Pallett
+ *
+ * @source $URL$
+ */
+public class HybridSpatialFilter implements Filter {
+
+    static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2(null);
+
+    /**
+     * User data of the geometries of the bounding box tests left to the server, the
+     * SQL encoder writes nothing but the bounding box overlap for them
+     */
+    static final Object MBR_ONLY = new Object();
+
+    final BinarySpatialOperator original;
+
+    final Expression property;
+
+    final PreparedGeometry prepared;
+
+    /** whether the literal is the first operand */
+    final boolean swapped;
+
+    HybridSpatialFilter(BinarySpatialOperator original, Expression property,
+            Geometry geometry, boolean swapped) {
+        this.original = original;
+        this.property = property;
+        this.prepared = PreparedGeometryFactory.prepare(geometry);
+        this.swapped = swapped;
+    }
+
+    /**
+     * Returns the original filter, evaluated on the client as well
+     */
+    public BinarySpatialOperator getOriginal() {
+        return original;
+    }
+
+    public boolean evaluate(Object object) {
+        Geometry g = property.evaluate(object, Geometry.class);
+        if (g == null) {
+            return false;
+        }
+        if (original instanceof Intersects) {
+            return prepared.intersects(g);
+        } else if (original instanceof Contains) {
+            return swapped ? prepared.contains(g) : prepared.within(g);
+        } else if (original instanceof Within) {
+            return swapped ? prepared.within(g) : prepared.contains(g);
+        } else if (original instanceof Overlaps) {
+            return prepared.overlaps(g);
+        } else if (original instanceof Crosses) {
+            return prepared.crosses(g);
+        } else if (original instanceof Touches) {
+            return prepared.touches(g);
+        } else if (original instanceof Equals) {
+            return prepared.getGeometry().equalsTopo(g);
+        }
+        return original.evaluate(object);
+    }
+
+    public Object accept(FilterVisitor visitor, Object extraData) {
+        // visitors (looking for the attributes to read, for one) see the original
+        return original.accept(visitor, extraData);
+    }
+
+    @Override
+    public String toString() {
+        return "[hybrid " + original + "]";
+    }
+
+    /**
+     * Rewrites a pre/post filter pair so the exact spatial predicates of the pre filter
+     * become bounding box tests, the predicates themselves moving to the post filter
+     */
+    static Filter[] split(Filter[] split, SimpleFeatureType schema) {
+        Filter pre = split[0];
+        List<Filter> terms = new ArrayList<Filter>();
+        if (pre instanceof And) {
+            terms.addAll(((And) pre).getChildren());
+        } else {
+            terms.add(pre);
+        }
+
+        List<Filter> loose = new ArrayList<Filter>();
+        List<Filter> exact = new ArrayList<Filter>();
+        for (Filter term : terms) {
+            HybridSpatialFilter hybrid = create(term, schema);
+            if (hybrid == null) {
+                loose.add(term);
+            } else {
+                loose.add(hybrid.getBoundingBoxFilter());
+                exact.add(hybrid);
+            }
+        }
+        if (exact.isEmpty()) {
+            return split;
+        }
+
+        Filter post = split[1];
+        if (post != null && post != Filter.INCLUDE) {
+            exact.add(post);
+        }
+        return new Filter[] { loose.size() == 1 ? loose.get(0) : FF.and(loose),
+                exact.size() == 1 ? exact.get(0) : FF.and(exact) };
+    }
+
+    /**
+     * Returns the client side version of a spatial predicate between a geometry
+     * property and a literal, null for other filters
+     */
+    static HybridSpatialFilter create(Filter filter, SimpleFeatureType schema) {
+        if (!(filter instanceof Intersects || filter instanceof Contains
+                || filter instanceof Within || filter instanceof Overlaps
+                || filter instanceof Crosses || filter instanceof Touches
+                || filter instanceof Equals)) {
+            return null;
+        }
+
+        BinarySpatialOperator op = (BinarySpatialOperator) filter;
+        Expression e1 = op.getExpression1();
+        Expression e2 = op.getExpression2();
+        boolean swapped = e1 instanceof Literal && e2 instanceof PropertyName;
+        if (!swapped && !(e1 instanceof PropertyName && e2 instanceof Literal)) {
+            return null;
+        }
+        PropertyName property = (PropertyName) (swapped ? e2 : e1);
+        Literal literal = (Literal) (swapped ? e1 : e2);
+
+        AttributeDescriptor att = (AttributeDescriptor) property.evaluate(schema);
+        Geometry geometry = literal.evaluate(null, Geometry.class);
+        if (!(att instanceof GeometryDescriptor) || geometry == null || geometry.isEmpty()) {
+            return null;
+        }
+        return new HybridSpatialFilter(op, property, geometry, swapped);
+    }
+
+    /**
+     * Returns the filter the server evaluates instead: any of the predicates requires
+     * the bounding boxes to overlap
+     */
+    Filter getBoundingBoxFilter() {
+        Geometry geometry = prepared.getGeometry();
+        GeometryFactory gf = geometry.getFactory();
+        Geometry box = gf.toGeometry(geometry.getEnvelopeInternal());
+        box.setUserData(MBR_ONLY);
+        return FF.intersects(property, FF.literal(box));
+    }
+
+    /**
+     * Returns true if the literal is the geometry of a bounding box test built by
+     * {@link #getBoundingBoxFilter()}
+     */
+    static boolean isMBROnly(Literal literal) {
+        Object value = literal.getValue();
+        return value instanceof Geometry && ((Geometry) value).getUserData() == MBR_ONLY;
+    }
+}
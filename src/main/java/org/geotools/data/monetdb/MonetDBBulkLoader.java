@@ -0,0 +1,467 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2008, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.monetdb;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.data.Transaction;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.data.store.ContentFeatureSource;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.AttributeTypeBuilder;
+import org.geotools.jdbc.JDBCDataStore;
+import org.geotools.jdbc.JDBCFeatureSource;
+import org.geotools.jdbc.JDBCFeatureStore;
+import org.geotools.jdbc.NullPrimaryKey;
+import org.geotools.jdbc.PrimaryKey;
+import org.geotools.jdbc.PrimaryKeyColumn;
+import org.geotools.jdbc.SQLDialect;
+import org.geotools.jdbc.SequencedPrimaryKeyColumn;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.filter.FilterFactory;
+import org.opengis.filter.identity.FeatureId;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LinearRing;
+
+/**
+ * Appends features to a MonetDB table in bulk, as an alternative to
+ * <code>FeatureStore.addFeatures</code> which runs one INSERT per feature.
+ * <p>
+ * Outside of a transaction the features are streamed as delimited records in 
+ * <code>COPY INTO ... FROM STDIN</code> statements, the records following the statement
+ * in the same query text, a batch of records per statement 
+ * (see {@link MonetDBDialect#setBulkLoadBatchSize(int)}). Inside a user transaction
+ * they are inserted with a single prepared <code>INSERT ... VALUES (?,...)</code>
+ * statement executed in JDBC batches instead (see
+ * {@link MonetDBDialect#setInsertBatchSize(int)}), which behave like the regular
+ * inserts towards the rest of the transaction. The feature stores of
+ * {@link MonetDBDataStore} insert through the same batches.
+ * <p>
+ * The primary key values of a batch are fetched from the sequence of the table in
+ * one query before it is sent, so the ids of the new features are known without a
+ * round trip per feature.
+ * <p>
+ * Only tables with a sequence backed primary key (as created by the datastore) or
+ * without primary key can be loaded this way.
+ *
+ * @author Dennis Pallett
+ *
+ * @source $URL$
+ */
+public class MonetDBBulkLoader {
+
+    static final Logger LOGGER = Logging.getLogger(MonetDBBulkLoader.class);
+
+    /** default number of records per COPY INTO statement */
+    public static final int DEFAULT_BATCH_SIZE = 10000;
+
+    /** default number of rows per batch of inserts */
+    public static final int DEFAULT_INSERT_BATCH_SIZE = 500;
+
+    static final FilterFactory FF = CommonFactoryFinder.getFilterFactory(null);
+
+    final JDBCDataStore dataStore;
+
+    final MonetDBDialect dialect;
+
+    /** binds the values of the inserts, whatever the mode of the datastore */
+    final MonetDBPSDialect psDialect;
+
+    public MonetDBBulkLoader(JDBCDataStore dataStore) {
+        this.dataStore = dataStore;
+        this.dialect = getDialect(dataStore);
+        this.psDialect = dataStore.getSQLDialect() instanceof MonetDBPSDialect 
+                ? (MonetDBPSDialect) dataStore.getSQLDialect() 
+                : new MonetDBPSDialect(dataStore, dialect);
+    }
+
+    /**
+     * Returns the basic MonetDB dialect of a datastore, whether or not it uses
+     * prepared statements
+     */
+    static MonetDBDialect getDialect(JDBCDataStore dataStore) {
+        SQLDialect dialect = dataStore.getSQLDialect();
+        if (dialect instanceof MonetDBPSDialect) {
+            return ((MonetDBPSDialect) dialect).getDelegate();
+        }
+        return (MonetDBDialect) dialect;
+    }
+
+    /**
+     * Appends the features to the table of the specified feature type.
+     * <p>
+     * With {@link Transaction#AUTO_COMMIT} the features are copied and every batch is
+     * committed on its own, otherwise they are inserted and become visible when the
+     * transaction is committed.
+     *
+     * @return the ids of the new features, in the order of the collection
+     */
+    public List<FeatureId> addFeatures(String typeName, SimpleFeatureCollection features,
+            Transaction tx) throws IOException {
+        return load(typeName, features, tx, tx == Transaction.AUTO_COMMIT);
+    }
+
+    /**
+     * Returns whether features can be loaded into a table with the specified key
+     */
+    static boolean canLoad(PrimaryKey key) {
+        if (key == null || key instanceof NullPrimaryKey) {
+            return true;
+        }
+        List<PrimaryKeyColumn> columns = key.getColumns();
+        return columns.size() == 1 && columns.get(0) instanceof SequencedPrimaryKeyColumn;
+    }
+
+    /**
+     * Appends the features with COPY INTO statements or batches of prepared inserts
+     */
+    List<FeatureId> load(String typeName, SimpleFeatureCollection features, Transaction tx,
+            boolean copy) throws IOException {
+        SimpleFeatureType featureType = dataStore.getSchema(typeName);
+        PrimaryKey key = getPrimaryKey(typeName);
+        if (!canLoad(key)) {
+            throw new IOException("Bulk loading " + typeName
+                    + " requires a single column primary key backed by a sequence");
+        }
+
+        String sequence = null;
+        String keyColumn = null;
+        if (key != null && !(key instanceof NullPrimaryKey)) {
+            keyColumn = key.getColumns().get(0).getName();
+            sequence = ((SequencedPrimaryKeyColumn) key.getColumns().get(0)).getSequenceName();
+        }
+
+        List<AttributeDescriptor> attributes = getAttributes(featureType, keyColumn);
+
+        int batchSize = Math.max(1, copy ? dialect.getBulkLoadBatchSize() 
+                : dialect.getInsertBatchSize());
+        List<FeatureId> ids = new ArrayList<FeatureId>();
+        Connection cx = dataStore.getConnection(tx);
+        PreparedStatement insert = null;
+        SimpleFeatureIterator it = features.features();
+        try {
+            if (!copy) {
+                String sql = insertSQL(featureType, attributes, keyColumn);
+                LOGGER.fine(sql);
+                insert = cx.prepareStatement(sql);
+            }
+            List<SimpleFeature> batch = new ArrayList<SimpleFeature>(Math.min(batchSize, 1024));
+            while (it.hasNext()) {
+                batch.add(it.next());
+                if (batch.size() == batchSize) {
+                    write(insert, featureType, attributes, keyColumn, sequence, batch, ids, cx);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                write(insert, featureType, attributes, keyColumn, sequence, batch, ids, cx);
+            }
+        } catch (SQLException e) {
+            throw (IOException) new IOException("Bulk loading " + typeName + " failed").initCause(e);
+        } finally {
+            it.close();
+            dataStore.closeSafe(insert);
+            if (tx == Transaction.AUTO_COMMIT) {
+                dataStore.closeSafe(cx);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the columns we send: the attributes but the key, which is generated, and
+     * the bounding box columns of the geometries, which the feature type leaves out
+     */
+    static List<AttributeDescriptor> getAttributes(SimpleFeatureType featureType,
+            String keyColumn) {
+        List<AttributeDescriptor> attributes = new ArrayList<AttributeDescriptor>();
+        List<AttributeDescriptor> boxes = new ArrayList<AttributeDescriptor>();
+        for (AttributeDescriptor att : featureType.getAttributeDescriptors()) {
+            if (att.getLocalName().equals(keyColumn)) {
+                continue;
+            }
+            attributes.add(att);
+            if (att instanceof GeometryDescriptor) {
+                String[] columns = MonetDBDialect.getMBRColumns((GeometryDescriptor) att);
+                for (int i = 0; columns != null && i < columns.length; i++) {
+                    AttributeTypeBuilder ab = new AttributeTypeBuilder();
+                    ab.setBinding(Double.class);
+                    boxes.add(ab.buildDescriptor(columns[i]));
+                }
+            }
+        }
+        attributes.addAll(boxes);
+        return attributes;
+    }
+
+    PrimaryKey getPrimaryKey(String typeName) throws IOException {
+        ContentFeatureSource source = dataStore.getFeatureSource(typeName);
+        if (source instanceof JDBCFeatureStore) {
+            return ((JDBCFeatureStore) source).getPrimaryKey();
+        } else if (source instanceof JDBCFeatureSource) {
+            return ((JDBCFeatureSource) source).getPrimaryKey();
+        }
+        return null;
+    }
+
+    /**
+     * Sends a batch of features, with the prepared insert if there is one or else
+     * with a COPY INTO statement
+     */
+    void write(PreparedStatement insert, SimpleFeatureType featureType,
+            List<AttributeDescriptor> attributes, String keyColumn, String sequence,
+            List<SimpleFeature> batch, List<FeatureId> ids, Connection cx)
+            throws SQLException, IOException {
+        String schema = dataStore.getDatabaseSchema();
+        List<Object> keys = sequence == null ? Collections.nCopies(batch.size(), null)
+                : dialect.getNextSequenceValues(schema, sequence, batch.size(), cx);
+
+        if (insert != null) {
+            for (int i = 0; i < batch.size(); i++) {
+                setValues(attributes, keyColumn, batch.get(i), keys.get(i), insert, cx);
+                insert.addBatch();
+            }
+            LOGGER.fine("Inserting a batch of " + batch.size() + " rows");
+            insert.executeBatch();
+        } else {
+            StringBuffer sql = new StringBuffer("COPY ").append(batch.size())
+                .append(" RECORDS INTO ");
+            encodeTable(featureType, attributes, keyColumn, sql);
+            sql.append(" FROM STDIN USING DELIMITERS '|','\\n','\"' NULL AS '';\n");
+            encodeRecords(attributes, keyColumn, batch, keys, sql);
+
+            Statement st = cx.createStatement();
+            try {
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.fine(sql.substring(0, sql.indexOf("\n")) + " (" + batch.size() 
+                            + " rows)");
+                }
+                st.execute(sql.toString());
+            } finally {
+                dataStore.closeSafe(st);
+            }
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            Object key = keys.get(i);
+            ids.add(FF.featureId(key != null ? featureType.getTypeName() + "." + key 
+                    : batch.get(i).getID()));
+        }
+    }
+
+    /**
+     * Writes the qualified table name followed by the list of columns
+     */
+    void encodeTable(SimpleFeatureType featureType, List<AttributeDescriptor> attributes,
+            String keyColumn, StringBuffer sql) {
+        String schema = dataStore.getDatabaseSchema();
+        if (schema != null && schema.length() > 0) {
+            sql.append(MonetDBDialect.quoteIdentifier(schema)).append(".");
+        }
+        sql.append(MonetDBDialect.quoteIdentifier(featureType.getTypeName())).append(" (");
+        if (keyColumn != null) {
+            sql.append(MonetDBDialect.quoteIdentifier(keyColumn));
+        }
+        for (int i = 0; i < attributes.size(); i++) {
+            if (i > 0 || keyColumn != null) {
+                sql.append(",");
+            }
+            sql.append(MonetDBDialect.quoteIdentifier(attributes.get(i).getLocalName()));
+        }
+        sql.append(")");
+    }
+
+    /**
+     * Builds the insert statement of the table, its SQL only depends on the columns
+     * so it is prepared once for all the batches
+     */
+    String insertSQL(SimpleFeatureType featureType, List<AttributeDescriptor> attributes,
+            String keyColumn) {
+        StringBuffer sql = new StringBuffer("INSERT INTO ");
+        encodeTable(featureType, attributes, keyColumn, sql);
+        sql.append(" VALUES (");
+        if (keyColumn != null) {
+            sql.append("?");
+        }
+        for (int i = 0; i < attributes.size(); i++) {
+            if (i > 0 || keyColumn != null) {
+                sql.append(",");
+            }
+            AttributeDescriptor att = attributes.get(i);
+            if (att instanceof GeometryDescriptor) {
+                // null geometries are bound as a null text
+                sql.append("GeomFromText(?, ").append(getSRID(att)).append(")");
+            } else {
+                sql.append("?");
+            }
+        }
+        return sql.append(")").toString();
+    }
+
+    void setValues(List<AttributeDescriptor> attributes, String keyColumn,
+            SimpleFeature feature, Object key, PreparedStatement ps, Connection cx)
+            throws SQLException {
+        int column = 1;
+        if (keyColumn != null) {
+            ps.setObject(column++, key);
+        }
+        for (AttributeDescriptor att : attributes) {
+            Object value = getValue(feature, att);
+            if (att instanceof GeometryDescriptor) {
+                psDialect.setGeometryValue((Geometry) value, getSRID(att), 
+                        att.getType().getBinding(), ps, column++);
+            } else {
+                psDialect.setValue(value, att.getType().getBinding(), ps, column++, cx);
+            }
+        }
+    }
+
+    static int getSRID(AttributeDescriptor att) {
+        Integer srid = (Integer) att.getUserData().get(JDBCDataStore.JDBC_NATIVE_SRID);
+        return srid == null ? 0 : srid;
+    }
+
+    void encodeRecords(List<AttributeDescriptor> attributes, String keyColumn,
+            List<SimpleFeature> batch, List<Object> keys, StringBuffer sql) {
+        for (int i = 0; i < batch.size(); i++) {
+            SimpleFeature feature = batch.get(i);
+            if (keyColumn != null) {
+                sql.append(keys.get(i));
+            }
+            for (int j = 0; j < attributes.size(); j++) {
+                if (j > 0 || keyColumn != null) {
+                    sql.append('|');
+                }
+                AttributeDescriptor att = attributes.get(j);
+                encodeRecordValue(getValue(feature, att), att instanceof GeometryDescriptor, sql);
+            }
+            sql.append('\n');
+        }
+    }
+
+    /**
+     * Returns the value of the attribute, computing the columns persisting the bounding
+     * box of a geometry (see {@link MonetDBDialect#getMBRColumns(String)}) from the 
+     * geometry itself
+     */
+    static Object getValue(SimpleFeature feature, AttributeDescriptor att) {
+        String name = att.getLocalName();
+        for (int i = 0; i < MonetDBDialect.MBR_SUFFIXES.length; i++) {
+            String suffix = MonetDBDialect.MBR_SUFFIXES[i];
+            if (!name.endsWith(suffix)) {
+                continue;
+            }
+            String geometryName = name.substring(0, name.length() - suffix.length());
+            if (!(feature.getFeatureType().getDescriptor(geometryName) instanceof GeometryDescriptor)) {
+                continue;
+            }
+            return getMBRValue((Geometry) feature.getAttribute(geometryName), i);
+        }
+        return feature.getAttribute(name);
+    }
+
+    /**
+     * Returns the minx, miny, maxx or maxy (in the order of
+     * {@link MonetDBDialect#MBR_SUFFIXES}) of the geometry, null if it has no bounding box
+     */
+    static Double getMBRValue(Geometry g, int index) {
+        if (g == null || g.isEmpty()) {
+            return null;
+        }
+        Envelope e = g.getEnvelopeInternal();
+        switch (index) {
+        case 0:
+            return e.getMinX();
+        case 1:
+            return e.getMinY();
+        case 2:
+            return e.getMaxX();
+        default:
+            return e.getMaxY();
+        }
+    }
+
+    /**
+     * Writes a value as a field of a COPY INTO record, nulls are written as an empty
+     * field and text is quoted
+     */
+    static void encodeRecordValue(Object value, boolean geometry, StringBuffer sb) {
+        if (value == null) {
+            return;
+        }
+        if (geometry || value instanceof Geometry) {
+            Geometry g = (Geometry) value;
+            if (g.isEmpty()) {
+                return;
+            }
+            if (g instanceof LinearRing) {
+                // monetdb does not handle linear rings, convert to just a line string
+                g = g.getFactory().createLineString(((LinearRing) g).getCoordinateSequence());
+            }
+            sb.append('"').append(g.toText()).append('"');
+        } else if (value instanceof Number || value instanceof Boolean) {
+            sb.append(value);
+        } else if (value instanceof java.sql.Date || value instanceof java.sql.Time
+                || value instanceof Timestamp) {
+            sb.append('"').append(value).append('"');
+        } else if (value instanceof Date) {
+            sb.append('"').append(new Timestamp(((Date) value).getTime())).append('"');
+        } else {
+            sb.append('"');
+            String s = value.toString();
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                case '"':
+                case '\\':
+                    sb.append('\\').append(c);
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    sb.append(c);
+                }
+            }
+            sb.append('"');
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2008, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.monetdb;
+
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.geotools.data.Query;
+import org.geotools.data.Transaction;
+import org.geotools.data.store.ContentEntry;
+import org.geotools.data.store.ContentFeatureSource;
+import org.geotools.data.store.ContentState;
+import org.geotools.feature.AttributeTypeBuilder;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.jdbc.JDBCDataStore;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.filter.Filter;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * JDBC datastore for MonetDB. Releases what the dialect holds on to (per thread
+ * decoders, caches) when disposed, whatever kind of data source it runs on, adds
+ * features in batches (see {@link MonetDBFeatureStore}) and estimates counts when
+ * enabled (see {@link EstimatedCounts}). Its feature types leave out the columns the
+ * datastore maintains itself (see {@link MonetDBFeatureSource}), which it writes along
+ * with the geometries on insert and update.
+ * <p>
+ * The stock factory builds a plain {@link JDBCDataStore}, {@link MonetDBDataStoreFactory}
+ * takes its configuration over and binds the dialect to this store instead.
+ *
+ * @author Dennis Pallett
+ *
+ * @source $URL$
+ */
+public class MonetDBDataStore extends JDBCDataStore {
+
+    /**
+     * Creates a datastore configured like the one built by the factory: every property
+     * of the template with a getter and a setter is copied, along with its connection
+     * listeners, and the dialect is bound to the new store
+     */
+    MonetDBDataStore(JDBCDataStore template) {
+        try {
+            for (PropertyDescriptor property : Introspector.getBeanInfo(JDBCDataStore.class)
+                    .getPropertyDescriptors()) {
+                Method getter = property.getReadMethod();
+                Method setter = property.getWriteMethod();
+                if (getter != null && setter != null) {
+                    setter.invoke(this, getter.invoke(template));
+                }
+            }
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Could not copy the configuration of "
+                    + template, e);
+        }
+        getConnectionLifecycleListeners().addAll(template.getConnectionLifecycleListeners());
+        if (getSQLDialect() instanceof MonetDBPSDialect) {
+            ((MonetDBPSDialect) getSQLDialect()).setDataStore(this);
+        } else {
+            getMonetDBDialect().setDataStore(this);
+        }
+    }
+
+    /**
+     * Returns the basic dialect, the delegate of the prepared statement one in prepared
+     * statement mode
+     */
+    public MonetDBDialect getMonetDBDialect() {
+        return MonetDBBulkLoader.getDialect(this);
+    }
+
+    /**
+     * Returns a {@link MonetDBFeatureStore}, or a read only {@link MonetDBFeatureSource}
+     * for the feature types JDBCDataStore marks as such (no primary key, virtual tables)
+     */
+    @Override
+    protected ContentFeatureSource createFeatureSource(ContentEntry entry) throws IOException {
+        ContentState state = entry.getState(Transaction.AUTO_COMMIT);
+        SimpleFeatureType schema = state.getFeatureType();
+        if (schema == null) {
+            // the read only flag is set while building the feature type
+            schema = new MonetDBFeatureSource(entry, null).buildFeatureType();
+            state.setFeatureType(schema);
+        }
+        if (Boolean.TRUE.equals(schema.getUserData().get(JDBC_READ_ONLY))) {
+            return new MonetDBFeatureSource(entry, null);
+        }
+        // adds features in batches
+        return new MonetDBFeatureStore(entry, null);
+    }
+
+    /**
+     * Answers the count from the catalog when estimated counts are enabled and the query
+     * can be estimated (see {@link EstimatedCounts}), runs a <code>COUNT(*)</code>
+     * otherwise
+     */
+    @Override
+    protected int getCount(SimpleFeatureType featureType, Query query, Connection cx)
+            throws IOException {
+        EstimatedCounts estimated = getMonetDBDialect().getEstimatedCounts();
+        if (estimated != null) {
+            int count = estimated.getCount(featureType, query, cx);
+            if (count >= 0) {
+                return count;
+            }
+        }
+        return super.getCount(featureType, query, cx);
+    }
+
+    @Override
+    protected void insert(SimpleFeature feature, SimpleFeatureType featureType, Connection cx)
+            throws IOException {
+        insert(Collections.singletonList(feature), featureType, cx);
+    }
+
+    /**
+     * Inserts the features along with the bounding box of their geometries (see
+     * {@link MonetDBDialect#getMBRColumns(String)}). Their Hilbert key stays empty until
+     * the table is clustered again.
+     */
+    @Override
+    protected void insert(Collection features, SimpleFeatureType featureType, Connection cx)
+            throws IOException {
+        SimpleFeatureType rowType = getRowType(featureType);
+        if (rowType == featureType) {
+            super.insert(features, featureType, cx);
+            return;
+        }
+
+        List<SimpleFeature> rows = new ArrayList<SimpleFeature>();
+        for (Object feature : features) {
+            rows.add(getRow((SimpleFeature) feature, rowType));
+        }
+        super.insert(rows, rowType, cx);
+
+        // the generated ids are reported as user data
+        Iterator<SimpleFeature> it = rows.iterator();
+        for (Object feature : features) {
+            ((SimpleFeature) feature).getUserData().putAll(it.next().getUserData());
+        }
+    }
+
+    /**
+     * Updates the bounding box of the geometries along with them, and empties the 
+     * Hilbert key of the rows whose geometry changed
+     */
+    @Override
+    protected void update(SimpleFeatureType featureType, AttributeDescriptor[] attributes,
+            Object[] values, Filter filter, Connection cx) throws IOException, SQLException {
+        List<AttributeDescriptor> columns = new ArrayList<AttributeDescriptor>(
+                Arrays.asList(attributes));
+        List<Object> columnValues = new ArrayList<Object>(Arrays.asList(values));
+        addAccessColumns(featureType, attributes, values, columns, columnValues);
+        super.update(featureType, columns.toArray(new AttributeDescriptor[columns.size()]),
+                columnValues.toArray(), filter, cx);
+    }
+
+    /**
+     * Returns the feature type with the bounding box columns of its geometries, the
+     * feature type itself if its table has none
+     */
+    static SimpleFeatureType getRowType(SimpleFeatureType featureType) {
+        List<AttributeDescriptor> attributes = MonetDBBulkLoader.getAttributes(featureType,
+                null);
+        if (attributes.size() == featureType.getAttributeCount()) {
+            return featureType;
+        }
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.init(featureType);
+        tb.setAttributes(attributes);
+        SimpleFeatureType rowType = tb.buildFeatureType();
+        rowType.getUserData().putAll(featureType.getUserData());
+        return rowType;
+    }
+
+    /**
+     * Returns the feature as a row of {@link #getRowType(SimpleFeatureType)}, computing
+     * the bounding box columns from the geometries
+     */
+    static SimpleFeature getRow(SimpleFeature feature, SimpleFeatureType rowType) {
+        Object[] values = new Object[rowType.getAttributeCount()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = MonetDBBulkLoader.getValue(feature, rowType.getDescriptor(i));
+        }
+        SimpleFeature row = SimpleFeatureBuilder.build(rowType, values, feature.getID());
+        row.getUserData().putAll(feature.getUserData());
+        return row;
+    }
+
+    /**
+     * Adds the bounding box columns of the updated geometries with their new values, and
+     * their Hilbert key column with no value
+     */
+    static void addAccessColumns(SimpleFeatureType featureType,
+            AttributeDescriptor[] attributes, Object[] values,
+            List<AttributeDescriptor> columns, List<Object> columnValues) {
+        for (int i = 0; i < attributes.length; i++) {
+            // the marks are on the descriptors of the feature type
+            AttributeDescriptor att = featureType.getDescriptor(attributes[i].getLocalName());
+            if (!(att instanceof GeometryDescriptor)) {
+                continue;
+            }
+            String[] mbr = MonetDBDialect.getMBRColumns((GeometryDescriptor) att);
+            for (int j = 0; mbr != null && j < mbr.length; j++) {
+                columns.add(buildColumn(mbr[j], Double.class));
+                columnValues.add(MonetDBBulkLoader.getMBRValue((Geometry) values[i], j));
+            }
+            String hilbert = MonetDBDialect.getHilbertColumn((GeometryDescriptor) att);
+            if (hilbert != null) {
+                columns.add(buildColumn(hilbert, Long.class));
+                columnValues.add(null);
+            }
+        }
+    }
+
+    static AttributeDescriptor buildColumn(String name, Class<?> binding) {
+        AttributeTypeBuilder ab = new AttributeTypeBuilder();
+        ab.setBinding(binding);
+        return ab.buildDescriptor(name);
+    }
+
+    @Override
+    public void dispose() {
+        try {
+            super.dispose();
+        } finally {
+            getMonetDBDialect().dispose();
+        }
+    }
+}
@@ -19,7 +19,9 @@ package org.geotools.data.monetdb;
 import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import javax.sql.DataSource;
 
@@ -66,6 +68,86 @@ public class MonetDBDataStoreFactory extends JDBCDataStoreFactory {
     /** parameter for database schema */
     public static final Param SCHEMA = new Param(JDBCDataStoreFactory.SCHEMA.key, String.class, "Schema", false, "sys");
 
+    /** parameter that enables the use of prepared statements */
+    public static final Param PREPARED_STATEMENTS = new Param("preparedStatements", Boolean.class, 
+            "Use prepared statements", false, Boolean.FALSE);
+    
+    /** parameter that enables the transfer of geometries as WKB */
+    public static final Param WKB_ENABLED = new Param("Binary geometries", Boolean.class, 
+            "Transfer geometries as WKB instead of WKT when the server supports it", false, Boolean.TRUE);
+    
+    /** parameter that enables picking the fetch size from the row width of each table */
+    public static final Param ADAPTIVE_FETCH_SIZE = new Param("Adaptive fetch size", Boolean.class, 
+            "Pick the number of rows fetched per round trip from the average row width of each table", 
+            false, Boolean.FALSE);
+    
+    /** parameter for the amount of data fetched per round trip in adaptive mode */
+    public static final Param FETCH_BUFFER_SIZE = new Param("Fetch buffer size", Integer.class, 
+            "Approximate number of bytes fetched per round trip when the fetch size is adaptive", 
+            false, AdaptiveFetchSize.DEFAULT_BUFFER_SIZE);
+    
+    /** parameter for the number of records per COPY INTO statement of the bulk loader */
+    public static final Param BULK_LOAD_BATCH_SIZE = new Param("Bulk load batch size", Integer.class, 
+            "Number of features sent per COPY INTO statement when bulk loading", 
+            false, MonetDBBulkLoader.DEFAULT_BATCH_SIZE);
+    
+    /** parameter for the number of rows per INSERT statement when loading inside a transaction */
+    public static final Param INSERT_BATCH_SIZE = new Param("Insert batch size", Integer.class, 
+            "Number of features inserted per JDBC batch when adding features inside a transaction", 
+            false, MonetDBBulkLoader.DEFAULT_INSERT_BATCH_SIZE);
+    
+    /** parameter for the number of primary key values reserved at once */
+    public static final Param SEQUENCE_BLOCK_SIZE = new Param("Sequence block size", Integer.class, 
+            "Number of primary key values reserved per round trip, 1 (the default) to fetch them one at a time", 
+            false, SequenceAllocator.DEFAULT_BLOCK_SIZE);
+    
+    /** parameter for how long catalog information is cached */
+    public static final Param METADATA_CACHE_TTL = new Param("Metadata cache TTL", Integer.class, 
+            "Number of seconds column types and geometry srids of a schema are cached, 0 to disable the cache", 
+            false, (int) (CatalogCache.DEFAULT_TTL / 1000));
+    
+    /** parameter that enables estimating counts from the catalog */
+    public static final Param ESTIMATED_COUNTS = new Param("Estimated counts", Boolean.class, 
+            "Answer counts of unfiltered and layer covering BBOX queries from the row counts in the catalog", 
+            false, Boolean.FALSE);
+    
+    /** parameter that makes new tables persist the bounding box of their geometries */
+    public static final Param MBR_COLUMNS = new Param("MBR columns", Boolean.class, 
+            "Add minx/miny/maxx/maxy columns to new tables and filter bounding boxes on them", 
+            false, Boolean.FALSE);
+    
+    /** parameter that enables simplification of geometries by the server */
+    public static final Param SIMPLIFY = new Param("Support on the fly geometry simplification", Boolean.class, 
+            "When enabled, operations such as map rendering will pass a hint that will enable the usage of a simplification function", 
+            false, Boolean.TRUE);
+    
+    /** parameter that enables decimation of geometries while decoding them */
+    public static final Param CLIENT_DECIMATION = new Param("Decimate geometries", Boolean.class, 
+            "Drop vertices closer than the simplification distance of the query while decoding, when the server cannot simplify", 
+            false, Boolean.TRUE);
+    
+    /** parameter for the number of decimals of filter geometries */
+    public static final Param LITERAL_PRECISION = new Param("Filter geometry precision", Integer.class, 
+            "Number of decimals the coordinates of filter geometries are written with, should match the data, -1 for full precision", 
+            false, -1);
+
+    
+    /** parameter for the size from which filter geometries go through a temporary table */
+    public static final Param STAGED_GEOMETRY_THRESHOLD = new Param("Staged geometry threshold", Integer.class, 
+            "Number of points from which filter geometries of prepared statements are uploaded to a temporary table instead of inlined in the query, 0 (the default) to disable", 
+            false, StagedGeometries.DEFAULT_THRESHOLD);
+
+    
+    /** parameter listing the layers whose exact spatial predicates are evaluated by the client */
+    public static final Param HYBRID_FILTERING = new Param("Hybrid filtering layers", String.class, 
+            "Comma separated layers, or * for all, whose spatial filters only test bounding boxes on the server and are evaluated exactly by the client", 
+            false);
+
+    
+    /** parameter for BBOX filters comparing bounding boxes only */
+    public static final Param LOOSE_BBOX = new Param("Loose bbox", Boolean.class, 
+            "Perform only primary filter on bbox", false, Boolean.FALSE);
+
    
     protected void setupParameters(Map parameters) {
     	// NOTE: when adding parameters here remember to add them to MonetDBJNDIDataStoreFactory
@@ -78,7 +160,23 @@ public class MonetDBDataStoreFactory extends JDBCDataStoreFactory {
         parameters.remove(JDBCDataStoreFactory.SCHEMA.key);
         parameters.put(SCHEMA.key, SCHEMA);
         
-        parameters.remove(JDBCDataStoreFactory.FETCHSIZE.key);
+        parameters.put(PREPARED_STATEMENTS.key, PREPARED_STATEMENTS);
+        parameters.put(MAX_OPEN_PREPARED_STATEMENTS.key, MAX_OPEN_PREPARED_STATEMENTS);
+        parameters.put(WKB_ENABLED.key, WKB_ENABLED);
+        parameters.put(ADAPTIVE_FETCH_SIZE.key, ADAPTIVE_FETCH_SIZE);
+        parameters.put(FETCH_BUFFER_SIZE.key, FETCH_BUFFER_SIZE);
+        parameters.put(BULK_LOAD_BATCH_SIZE.key, BULK_LOAD_BATCH_SIZE);
+        parameters.put(INSERT_BATCH_SIZE.key, INSERT_BATCH_SIZE);
+        parameters.put(SEQUENCE_BLOCK_SIZE.key, SEQUENCE_BLOCK_SIZE);
+        parameters.put(METADATA_CACHE_TTL.key, METADATA_CACHE_TTL);
+        parameters.put(ESTIMATED_COUNTS.key, ESTIMATED_COUNTS);
+        parameters.put(MBR_COLUMNS.key, MBR_COLUMNS);
+        parameters.put(SIMPLIFY.key, SIMPLIFY);
+        parameters.put(CLIENT_DECIMATION.key, CLIENT_DECIMATION);
+        parameters.put(LITERAL_PRECISION.key, LITERAL_PRECISION);
+        parameters.put(STAGED_GEOMETRY_THRESHOLD.key, STAGED_GEOMETRY_THRESHOLD);
+        parameters.put(HYBRID_FILTERING.key, HYBRID_FILTERING);
+        parameters.put(LOOSE_BBOX.key, LOOSE_BBOX);
     }
 
     public String getDisplayName() {
@@ -104,13 +202,135 @@ public class MonetDBDataStoreFactory extends JDBCDataStoreFactory {
     @Override
     protected JDBCDataStore createDataStoreInternal(JDBCDataStore dataStore, Map params)
             throws IOException {
-    		// disable fetch size
-    		// not fully supported by MonetDB 	
-    		dataStore.setFetchSize(0);
+    		// our datastore releases what the dialect holds on to when disposed, 
+    		// whatever the data source (pooled, JNDI) is, and estimates counts
+    		MonetDBDataStore monetStore = new MonetDBDataStore(dataStore);
+    		MonetDBDialect dialect = monetStore.getMonetDBDialect();
+    		
+    		// the fetch size parameter sets the reply size of the MonetDB driver, the
+    		// adaptive mode overrides it per table based on the width of its rows.
+    		// Without either the fetch size stays disabled, it is not fully supported
+    		// by MonetDB
+    		Boolean adaptive = (Boolean) ADAPTIVE_FETCH_SIZE.lookUp(params);
+    		if (!Boolean.TRUE.equals(adaptive) && FETCHSIZE.lookUp(params) == null) {
+    			monetStore.setFetchSize(0);
+    		}
+    		if (Boolean.TRUE.equals(adaptive)) {
+    			Integer bufferSize = (Integer) FETCH_BUFFER_SIZE.lookUp(params);
+    			dialect.setAdaptiveFetchSize(new AdaptiveFetchSize(bufferSize == null 
+    					? AdaptiveFetchSize.DEFAULT_BUFFER_SIZE : bufferSize));
+    		}
+    		
+    		// binary geometry transfer, falls back on WKT if the server can't do it
+    		Boolean wkb = (Boolean) WKB_ENABLED.lookUp(params);
+    		dialect.setWkbEnabled(wkb == null || wkb);
+    		
+    		Integer bulkBatchSize = (Integer) BULK_LOAD_BATCH_SIZE.lookUp(params);
+    		if (bulkBatchSize != null && bulkBatchSize > 0) {
+    			dialect.setBulkLoadBatchSize(bulkBatchSize);
+    		}
+    		Integer insertBatchSize = (Integer) INSERT_BATCH_SIZE.lookUp(params);
+    		if (insertBatchSize != null && insertBatchSize > 0) {
+    			dialect.setInsertBatchSize(insertBatchSize);
+    		}
+    		
+    		// reserve primary key values in blocks
+    		Integer blockSize = (Integer) SEQUENCE_BLOCK_SIZE.lookUp(params);
+    		if (blockSize == null) {
+    			blockSize = SequenceAllocator.DEFAULT_BLOCK_SIZE;
+    		}
+    		if (blockSize > 1) {
+    			dialect.setSequenceAllocator(new SequenceAllocator(dialect, blockSize));
+    		}
+    		
+    		// cache the catalog information used to build feature types
+    		Integer metadataTTL = (Integer) METADATA_CACHE_TTL.lookUp(params);
+    		if (metadataTTL == null) {
+    			metadataTTL = (Integer) METADATA_CACHE_TTL.sample;
+    		}
+    		if (metadataTTL > 0) {
+    			dialect.setCatalogCache(new CatalogCache(metadataTTL * 1000L));
+    		}
+    		
+    		// estimated counts, opt in since they might be slightly off
+    		Boolean estimatedCounts = (Boolean) ESTIMATED_COUNTS.lookUp(params);
+    		if (Boolean.TRUE.equals(estimatedCounts)) {
+    			dialect.setEstimatedCounts(new EstimatedCounts(dialect));
+    		}
+    		
+    		// bounding box columns for new tables
+    		dialect.setMbrColumnsEnabled(Boolean.TRUE.equals(MBR_COLUMNS.lookUp(params)));
+    		
+    		// simplification by the server, if it has a function for it
+    		Boolean simplify = (Boolean) SIMPLIFY.lookUp(params);
+    		dialect.setSimplifyEnabled(simplify == null || simplify);
+    		Boolean decimate = (Boolean) CLIENT_DECIMATION.lookUp(params);
+    		dialect.setClientDecimationEnabled(decimate == null || decimate);
+    		
+    		// shorter filter geometries, the ones used over and over are cached anyway
+    		Integer literalPrecision = (Integer) LITERAL_PRECISION.lookUp(params);
+    		if (literalPrecision != null) {
+    			dialect.setLiteralPrecision(literalPrecision);
+    		}
+    		Integer stagedThreshold = (Integer) STAGED_GEOMETRY_THRESHOLD.lookUp(params);
+    		if (stagedThreshold == null) {
+    			stagedThreshold = StagedGeometries.DEFAULT_THRESHOLD;
+    		}
+    		if (stagedThreshold > 0) {
+    			dialect.setStagedGeometries(new StagedGeometries(dialect, stagedThreshold));
+    		}
+    		
+    		// bounding box precision is enough for rendering
+    		dialect.setLooseBBOXEnabled(Boolean.TRUE.equals(LOOSE_BBOX.lookUp(params)));
+    		
+    		// layers whose complex geometries are cheaper to test on the client
+    		String hybridLayers = (String) HYBRID_FILTERING.lookUp(params);
+    		if (hybridLayers != null) {
+    			Set<String> layers = new HashSet<String>();
+    			for (String layer : hybridLayers.split(",")) {
+    				if (layer.trim().length() > 0) {
+    					layers.add(layer.trim());
+    				}
+    			}
+    			dialect.setHybridFilteringLayers(layers);
+    		}
+    		
+    		// switch to prepared statements if requested, the pool created by
+    		// createDataSource caches them per connection (see MAX_OPEN_PREPARED_STATEMENTS)
+    		Boolean usePs = (Boolean) PREPARED_STATEMENTS.lookUp(params);
+    		if (Boolean.TRUE.equals(usePs)) {
+    			monetStore.setSQLDialect(new MonetDBPSDialect(monetStore, dialect));
+    		}
     	
-            return dataStore;
+            return monetStore;
         }
 
+    @Override
+    protected DataSource createDataSource(Map params, SQLDialect dialect) throws IOException {
+        BasicDataSource dataSource = createDataSource(params);
+        configurePreparedStatementPool(dataSource, params);
+        return new DBCPDataSource(dataSource);
+    }
+
+    /**
+     * Has the pool cache the statements of each connection in prepared statement mode.
+     * The stock data source only does so when the dialect is a prepared statement one
+     * already, ours is swapped in later by {@link #createDataStoreInternal}.
+     */
+    static void configurePreparedStatementPool(BasicDataSource dataSource, Map params)
+            throws IOException {
+        if (!Boolean.TRUE.equals(PREPARED_STATEMENTS.lookUp(params))) {
+            return;
+        }
+        Integer maxStatements = (Integer) MAX_OPEN_PREPARED_STATEMENTS.lookUp(params);
+        if (maxStatements == null || maxStatements >= 0) {
+            dataSource.setPoolPreparedStatements(true);
+            if (maxStatements != null && maxStatements > 0) {
+                dataSource.setMaxOpenPreparedStatements(maxStatements);
+            }
+        }
+    }
+
      @Override
     protected String getValidationQuery() {
     	return "select now()";
@@ -18,27 +18,40 @@ package org.geotools.data.monetdb;
 
 import java.io.IOException;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Time;
 import java.sql.Timestamp;
 import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.geotools.data.jdbc.FilterToSQL;
 import org.geotools.factory.Hints;
+import org.geotools.feature.visitor.AverageVisitor;
+import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.jdbc.BasicSQLDialect;
 import org.geotools.jdbc.ColumnMetadata;
 import org.geotools.jdbc.JDBCDataStore;
 import org.geotools.referencing.CRS;
+import org.opengis.feature.FeatureVisitor;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.AttributeDescriptor;
 import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.filter.Filter;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
@@ -51,8 +64,6 @@ import com.vividsolutions.jts.geom.MultiPoint;
 import com.vividsolutions.jts.geom.MultiPolygon;
 import com.vividsolutions.jts.geom.Point;
 import com.vividsolutions.jts.geom.Polygon;
-import com.vividsolutions.jts.io.ParseException;
-import com.vividsolutions.jts.io.WKTReader;
 
 /**
  * 
@@ -86,6 +97,135 @@ public class MonetDBDialect extends BasicSQLDialect {
 		return ident;
 	}
 
+    /**
+     * Sequence referenced by the default value of a serial column
+     */
+    static final Pattern SEQUENCE_DEFAULT = Pattern.compile("\"seq_(.*?)\"");
+    
+    /**
+     * Marks columns without sequence in the sequence cache 
+     */
+    static final String NO_SEQUENCE = new String();
+    
+    /**
+     * Suffixes of the columns persisting the bounding box of a geometry column, and the
+     * functions computing them
+     */
+    static final String[] MBR_SUFFIXES = { "_minx", "_miny", "_maxx", "_maxy" };
+    static final String[] MBR_FUNCTIONS = { "ST_XMin", "ST_YMin", "ST_XMax", "ST_YMax" };
+    
+    /** suffix of the column holding the Hilbert key of a geometry column */
+    static final String HILBERT_SUFFIX = "_hilbert";
+    
+    /**
+     * User data key of the geometry descriptors whose table has bounding box columns,
+     * the names of the columns
+     */
+    static final String MBR_COLUMNS_KEY = "monetdb.mbrColumns";
+    
+    /**
+     * User data key of the geometry descriptors whose table has a Hilbert key column, 
+     * the name of the column
+     */
+    static final String HILBERT_COLUMN_KEY = "monetdb.hilbertColumn";
+
+    /**
+     * Whether geometries should be transferred as WKB when the server supports it
+     */
+    boolean wkbEnabled = true;
+    
+    /**
+     * Whether the server is able to produce WKB, null until it has been checked 
+     */
+    Boolean wkbSupported;
+    
+    /**
+     * Whether BBOX filters only compare bounding boxes
+     */
+    boolean looseBBOXEnabled = false;
+    
+    /**
+     * Whether the server has ST_MakeEnvelope, null until it has been checked
+     */
+    Boolean envelopeSupported;
+    
+    /**
+     * Whether geometries are simplified by the server when the query asks for it
+     */
+    boolean simplifyEnabled = true;
+    
+    /**
+     * Whether geometries are decimated while decoding when the server cannot simplify
+     */
+    boolean clientDecimationEnabled = true;
+    
+    /**
+     * The simplification function of the server, empty if it has none, null until it
+     * has been checked
+     */
+    String simplifyFunction;
+    
+    /**
+     * Simplification functions we look for, in order of preference: the first keeps
+     * polygons valid, the second may collapse them
+     */
+    static final String[] SIMPLIFY_FUNCTIONS = { "ST_SimplifyPreserveTopology", "ST_Simplify" };
+    
+    /**
+     * Picks the fetch size of selects from the row width of the table, null when disabled
+     */
+    AdaptiveFetchSize adaptiveFetchSize;
+    
+    /**
+     * Number of records sent per COPY INTO statement by the bulk loader
+     */
+    int bulkLoadBatchSize = MonetDBBulkLoader.DEFAULT_BATCH_SIZE;
+    
+    /**
+     * Number of rows per batch of prepared inserts when adding features
+     */
+    int insertBatchSize = MonetDBBulkLoader.DEFAULT_INSERT_BATCH_SIZE;
+    
+    /**
+     * Hands out sequence values from reserved blocks, null to fetch them one at a time
+     */
+    SequenceAllocator sequenceAllocator;
+    
+    /**
+     * Cached column types and geometry srids, null to look them up column by column
+     */
+    CatalogCache catalogCache;
+    
+    /**
+     * Estimates counts from the catalog, null to always count exactly
+     */
+    EstimatedCounts estimatedCounts;
+    
+    /**
+     * Uploads huge filter geometries to a temporary table, null to always inline them
+     */
+    StagedGeometries stagedGeometries;
+    
+    /**
+     * Layers whose exact spatial predicates are evaluated by the client, "*" for all
+     */
+    Set<String> hybridFilteringLayers = Collections.emptySet();
+    
+    /**
+     * Whether new tables get columns persisting the bounding box of their geometries
+     */
+    boolean mbrColumnsEnabled = false;
+    
+    /**
+     * Hilbert curves of clustered geometry columns by schema.table.column
+     */
+    final Map<String, CachedCurve> hilbertCurves = new ConcurrentHashMap<String, CachedCurve>();
+    
+    /**
+     * Sequence behind each schema.table.column, {@link #NO_SEQUENCE} if there is none
+     */
+    final Map<String, String> sequences = new ConcurrentHashMap<String, String>();
+
     public MonetDBDialect(JDBCDataStore dataStore) {
         super(dataStore);
     }
@@ -93,6 +233,185 @@ public class MonetDBDialect extends BasicSQLDialect {
     @Override
     public void initializeConnection(Connection cx) throws SQLException {
         super.initializeConnection(cx);
+        
+        if (wkbEnabled && wkbSupported == null) {
+            wkbSupported = checkWKBSupport(cx);
+        }
+        if (simplifyEnabled && simplifyFunction == null) {
+            simplifyFunction = checkSimplifySupport(cx);
+        }
+        if (envelopeSupported == null) {
+            envelopeSupported = checkEnvelopeSupport(cx);
+        }
+    }
+    
+    /**
+     * Checks whether the server can build a box geometry out of four doubles, so BBOX
+     * filters need not be written as WKT polygons
+     */
+    boolean checkEnvelopeSupport(Connection cx) throws SQLException {
+        String sql = "SELECT mbroverlaps(mbr(ST_MakeEnvelope(0, 0, 2, 2, 0)), "
+                + "mbr(ST_MakeEnvelope(1, 1, 3, 3, 0)))";
+        LOGGER.fine(sql);
+        
+        Statement st = cx.createStatement();
+        try {
+            ResultSet rs = st.executeQuery(sql);
+            try {
+                return rs.next() && rs.getBoolean(1);
+            } finally {
+                dataStore.closeSafe(rs);
+            }
+        } catch (SQLException e) {
+            LOGGER.log(Level.FINE, "Server cannot build envelopes, BBOX filters will be "
+                    + "sent as polygons", e);
+            if (!cx.getAutoCommit()) {
+                cx.rollback();
+            }
+        } finally {
+            dataStore.closeSafe(st);
+        }
+        return false;
+    }
+    
+    public boolean isLooseBBOXEnabled() {
+        return looseBBOXEnabled;
+    }
+    
+    /**
+     * Makes BBOX filters compare the bounding boxes of the geometries only, skipping the
+     * exact intersection test: good enough for map rendering, and much cheaper on large
+     * polygons
+     */
+    public void setLooseBBOXEnabled(boolean looseBBOXEnabled) {
+        this.looseBBOXEnabled = looseBBOXEnabled;
+    }
+    
+    /**
+     * Returns true if BBOX filters can be written with ST_MakeEnvelope
+     */
+    boolean isEnvelopeSupported() {
+        return Boolean.TRUE.equals(envelopeSupported);
+    }
+    
+    /**
+     * Looks for the first simplification function the server knows of
+     */
+    String checkSimplifySupport(Connection cx) throws SQLException {
+        for (String function : SIMPLIFY_FUNCTIONS) {
+            String sql = "SELECT ST_AsText(" + function 
+                    + "(GeomFromText('LINESTRING(0 0, 1 0.1, 2 0)', 0), 0.5))";
+            LOGGER.fine(sql);
+            
+            Statement st = cx.createStatement();
+            try {
+                ResultSet rs = st.executeQuery(sql);
+                try {
+                    if (rs.next()) {
+                        return function;
+                    }
+                } finally {
+                    dataStore.closeSafe(rs);
+                }
+            } catch (SQLException e) {
+                LOGGER.log(Level.FINE, "Server does not support " + function, e);
+                if (!cx.getAutoCommit()) {
+                    cx.rollback();
+                }
+            } finally {
+                dataStore.closeSafe(st);
+            }
+        }
+        LOGGER.info("Server cannot simplify geometries, they will be transferred as is");
+        return "";
+    }
+    
+    /**
+     * Returns the simplification function to use, null if geometries are not simplified
+     */
+    String getSimplifyFunction() {
+        String function = simplifyFunction;
+        return simplifyEnabled && function != null && function.length() > 0 ? function : null;
+    }
+    
+    public boolean isClientDecimationEnabled() {
+        return clientDecimationEnabled;
+    }
+    
+    /**
+     * Makes the decoder drop vertices closer than the {@link Hints#GEOMETRY_SIMPLIFICATION}
+     * distance of the query, when the server does not simplify the geometries itself.
+     * The geometries of such queries are selected as WKT, which is decimated while it
+     * is parsed.
+     */
+    public void setClientDecimationEnabled(boolean clientDecimationEnabled) {
+        this.clientDecimationEnabled = clientDecimationEnabled;
+    }
+    
+    public boolean isSimplifyEnabled() {
+        return simplifyEnabled;
+    }
+    
+    /**
+     * Enables simplification of the geometries by the server, when the query carries 
+     * a {@link Hints#GEOMETRY_SIMPLIFICATION} distance and the server has a function for it
+     */
+    public void setSimplifyEnabled(boolean simplifyEnabled) {
+        this.simplifyEnabled = simplifyEnabled;
+    }
+    
+    @Override
+    public void addSupportedHints(Set<Hints.Key> hints) {
+        // the server has not been checked before the first connection, in the meantime 
+        // assume it can simplify, unsimplified geometries are fine anyway
+        if ((simplifyEnabled && !"".equals(simplifyFunction)) || clientDecimationEnabled) {
+            hints.add(Hints.GEOMETRY_SIMPLIFICATION);
+        }
+    }
+    
+    /**
+     * Checks whether the server can encode geometries as WKB and whether the
+     * result can be read back, otherwise we'll have to stick to WKT
+     */
+    boolean checkWKBSupport(Connection cx) throws SQLException {
+        String sql = "SELECT ST_AsBinary(GeomFromText('POINT(0 0)', 0))";
+        LOGGER.fine(sql);
+        
+        Statement st = cx.createStatement();
+        try {
+            ResultSet rs = st.executeQuery(sql);
+            try {
+                if (rs.next()) {
+                    return new WKTAttributeIO().readBinary(rs, 1) != null;
+                }
+            } finally {
+                dataStore.closeSafe(rs);
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.INFO, "Server cannot produce WKB geometries, " 
+                    + "falling back on WKT", e);
+            if (!cx.getAutoCommit()) {
+                cx.rollback();
+            }
+        } finally {
+            dataStore.closeSafe(st);
+        }
+        return false;
+    }
+    
+    /**
+     * Returns true if geometries are selected as WKB
+     */
+    boolean isWKBActive() {
+        return wkbEnabled && Boolean.TRUE.equals(wkbSupported);
+    }
+    
+    public boolean isWkbEnabled() {
+        return wkbEnabled;
+    }
+    
+    public void setWkbEnabled(boolean wkbEnabled) {
+        this.wkbEnabled = wkbEnabled;
     }
 
     @Override
@@ -111,13 +430,20 @@ public class MonetDBDialect extends BasicSQLDialect {
         return true;
     }
 
-    ThreadLocal<WKTAttributeIO> wktReader = new ThreadLocal<WKTAttributeIO>();
+    /**
+     * Per thread geometry decoders, keyed by geometry factory
+     */
+    GeometryDecoderCache decoders = new GeometryDecoderCache();
 
     @Override
     public Geometry decodeGeometryValue(GeometryDescriptor descriptor,
             ResultSet rs, String column, GeometryFactory factory, Connection cx)
             throws IOException, SQLException {
-    	WKTAttributeIO reader = getWKTReader(factory);
+    	double distance = DecimatingGeometryFactory.getDistance(factory);
+    	WKTAttributeIO reader = getWKTReader(factory, distance);
+    	if (isWKBActive() && distance == 0) {
+    	    return (Geometry) reader.readBinary(rs, column);
+    	}
     	return (Geometry) reader.read(rs, column);
     }
     
@@ -125,20 +451,462 @@ public class MonetDBDialect extends BasicSQLDialect {
     public Geometry decodeGeometryValue(GeometryDescriptor descriptor,
             ResultSet rs, int column, GeometryFactory factory, Connection cx)
             throws IOException, SQLException {
-    	WKTAttributeIO reader = getWKTReader(factory);        
+    	double distance = DecimatingGeometryFactory.getDistance(factory);
+    	WKTAttributeIO reader = getWKTReader(factory, distance);
+    	if (isWKBActive() && distance == 0) {
+    	    return (Geometry) reader.readBinary(rs, column);
+    	}
     	return (Geometry) reader.read(rs, column);
     }
     
-    private WKTAttributeIO getWKTReader (GeometryFactory factory) {
-    	WKTAttributeIO reader = wktReader.get();
-    	if(reader == null) {
-            reader = new WKTAttributeIO(factory);
-            wktReader.set(reader);
-        }  else {
-            reader.setGeometryFactory(factory);
+    /**
+     * Returns the distance the geometries of a query with these hints are to be 
+     * decimated by while decoding, null if the server simplifies them or they are not
+     * simplified at all. {@link MonetDBFeatureSource} binds it to the query with a
+     * {@link DecimatingGeometryFactory}.
+     */
+    Double getClientDecimationDistance(Hints hints) {
+        Double distance = hints == null ? null : (Double) hints.get(Hints.GEOMETRY_SIMPLIFICATION);
+        if (!clientDecimationEnabled || getSimplifyFunction() != null || distance == null
+                || distance <= 0) {
+            return null;
         }
+        return distance;
+    }
+    
+    /**
+     * Returns the decoder of the current thread, set up to decimate the geometries by
+     * the distance
+     */
+    private WKTAttributeIO getWKTReader (GeometryFactory factory, double distance) {
+        WKTAttributeIO reader = decoders.getDecoder(factory);
+        reader.setDecimationDistance(distance);
         return reader;
     }
+    
+    /**
+     * Returns the cache of geometry decoders, mostly to look at its hit and rebuild counters
+     */
+    public GeometryDecoderCache getDecoderCache() {
+        return decoders;
+    }
+    
+    /**
+     * Encoded geometry literals of filters
+     */
+    GeometryEncoderCache literalEncoders = new GeometryEncoderCache();
+    
+    /**
+     * Returns the cache of encoded filter geometries
+     */
+    public GeometryEncoderCache getLiteralEncoderCache() {
+        return literalEncoders;
+    }
+    
+    public StagedGeometries getStagedGeometries() {
+        return stagedGeometries;
+    }
+    
+    /**
+     * Sets the object uploading huge filter geometries to a temporary table, null to
+     * write them inline. Only prepared statements stage geometries.
+     */
+    public void setStagedGeometries(StagedGeometries stagedGeometries) {
+        this.stagedGeometries = stagedGeometries;
+    }
+    
+    public int getLiteralPrecision() {
+        return literalEncoders.getPrecision();
+    }
+    
+    /**
+     * Sets the number of decimals the coordinates of filter geometries are rounded to,
+     * which should match the precision of the data; negative to keep full precision
+     */
+    public void setLiteralPrecision(int literalPrecision) {
+        literalEncoders.setPrecision(literalPrecision);
+    }
+    
+    /**
+     * Releases the resources held by the dialect, called when the datastore is disposed
+     */
+    public void dispose() {
+        decoders.dispose();
+        literalEncoders.clear();
+        if (adaptiveFetchSize != null) {
+            adaptiveFetchSize.dispose();
+        }
+        if (sequenceAllocator != null) {
+            sequenceAllocator.dispose();
+        }
+        if (catalogCache != null) {
+            catalogCache.dispose();
+        }
+        if (estimatedCounts != null) {
+            estimatedCounts.dispose();
+        }
+        if (stagedGeometries != null) {
+            stagedGeometries.dispose();
+        }
+        sequences.clear();
+        hilbertCurves.clear();
+    }
+    
+    @Override
+    public void onSelect(Statement select, Connection cx, SimpleFeatureType featureType)
+            throws SQLException {
+        if (adaptiveFetchSize != null) {
+            int fetchSize = adaptiveFetchSize.getFetchSize(dataStore.getDatabaseSchema(),
+                    featureType.getTypeName(), cx);
+            if (fetchSize > 0) {
+                select.setFetchSize(fetchSize);
+            }
+        }
+    }
+    
+    public int getBulkLoadBatchSize() {
+        return bulkLoadBatchSize;
+    }
+    
+    /**
+     * Sets the number of records {@link MonetDBBulkLoader} sends per COPY INTO statement
+     */
+    public void setBulkLoadBatchSize(int bulkLoadBatchSize) {
+        this.bulkLoadBatchSize = bulkLoadBatchSize;
+    }
+    
+    public EstimatedCounts getEstimatedCounts() {
+        return estimatedCounts;
+    }
+    
+    /**
+     * Enables estimated counts in {@link MonetDBDataStore}, or disables them when null
+     */
+    public void setEstimatedCounts(EstimatedCounts estimatedCounts) {
+        this.estimatedCounts = estimatedCounts;
+    }
+    
+    public Set<String> getHybridFilteringLayers() {
+        return hybridFilteringLayers;
+    }
+    
+    /**
+     * Sets the layers filtered in hybrid mode, "*" standing for all of them: the server
+     * only tests whether bounding boxes overlap, the exact spatial predicates are
+     * evaluated by the client against a prepared geometry
+     */
+    public void setHybridFilteringLayers(Set<String> hybridFilteringLayers) {
+        this.hybridFilteringLayers = hybridFilteringLayers == null ? Collections
+                .<String> emptySet() : new HashSet<String>(hybridFilteringLayers);
+    }
+    
+    /**
+     * Returns true if the layer is filtered in hybrid mode
+     */
+    public boolean isHybridFiltering(String typeName) {
+        Set<String> layers = hybridFilteringLayers;
+        return !layers.isEmpty() && (layers.contains("*") || layers.contains(typeName));
+    }
+    
+    @Override
+    public Filter[] splitFilter(Filter filter, SimpleFeatureType schema) {
+        return splitHybrid(super.splitFilter(filter, schema), schema);
+    }
+    
+    /**
+     * Moves the exact spatial predicates of the pre filter to the post filter on layers
+     * filtered in hybrid mode
+     */
+    Filter[] splitHybrid(Filter[] split, SimpleFeatureType schema) {
+        if (!isHybridFiltering(schema.getTypeName())) {
+            return split;
+        }
+        return HybridSpatialFilter.split(split, schema);
+    }
+    
+    public boolean isMbrColumnsEnabled() {
+        return mbrColumnsEnabled;
+    }
+    
+    /**
+     * Makes {@link #postCreateTable(String, SimpleFeatureType, Connection)} add columns
+     * persisting the bounding box of each geometry, which allows filters to test 
+     * bounding boxes with plain numeric comparisons
+     */
+    public void setMbrColumnsEnabled(boolean mbrColumnsEnabled) {
+        this.mbrColumnsEnabled = mbrColumnsEnabled;
+    }
+    
+    /**
+     * Returns the names of the minx, miny, maxx and maxy columns persisting the 
+     * bounding box of a geometry column
+     */
+    public static String[] getMBRColumns(String geometryColumn) {
+        String[] columns = new String[MBR_SUFFIXES.length];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = geometryColumn + MBR_SUFFIXES[i];
+        }
+        return columns;
+    }
+    
+    /**
+     * Returns the bounding box columns of the table of a geometry attribute, null if the
+     * table does not have them
+     */
+    public static String[] getMBRColumns(GeometryDescriptor geometry) {
+        return (String[]) geometry.getUserData().get(MBR_COLUMNS_KEY);
+    }
+    
+    /**
+     * Returns the Hilbert key column of the table of a geometry attribute, null if the
+     * table does not have one
+     */
+    public static String getHilbertColumn(GeometryDescriptor geometry) {
+        return (String) geometry.getUserData().get(HILBERT_COLUMN_KEY);
+    }
+    
+    /**
+     * Marks the geometry attributes of a feature type built from the catalog with the 
+     * bounding box and Hilbert key columns their table has, see 
+     * {@link MonetDBFeatureSource#hideAccessColumns(SimpleFeatureType)}
+     */
+    static void markAccessColumns(SimpleFeatureType featureType) {
+        for (AttributeDescriptor att : featureType.getAttributeDescriptors()) {
+            if (!(att instanceof GeometryDescriptor)) {
+                continue;
+            }
+            String[] columns = getMBRColumns(att.getLocalName());
+            boolean complete = true;
+            for (String column : columns) {
+                complete &= featureType.getDescriptor(column) != null;
+            }
+            if (complete) {
+                att.getUserData().put(MBR_COLUMNS_KEY, columns);
+            }
+            String hilbert = getHilbertColumn(att.getLocalName());
+            if (featureType.getDescriptor(hilbert) != null) {
+                att.getUserData().put(HILBERT_COLUMN_KEY, hilbert);
+            }
+        }
+    }
+    
+    /**
+     * Adds the bounding box columns of a geometry column to the table and fills them.
+     * {@link MonetDBDataStore} and {@link MonetDBBulkLoader} write them along with the
+     * geometry afterwards.
+     */
+    void createMBRColumns(String schemaName, String tableName, String geometryColumn,
+            Statement st) throws SQLException {
+        String table = "\"" + schemaName + "\".\"" + tableName + "\"";
+        for (String column : getMBRColumns(geometryColumn)) {
+            String sql = "ALTER TABLE " + table + " ADD COLUMN \"" + column + "\" DOUBLE";
+            LOGGER.fine(sql);
+            st.execute(sql);
+        }
+        
+        // fill the columns for rows that are already there
+        String[] refresh = getMBRRefresh(table, geometryColumn);
+        String sql = refresh[0] + " WHERE " + refresh[1];
+        LOGGER.fine(sql);
+        st.execute(sql);
+    }
+    
+    /**
+     * Returns the UPDATE computing the bounding box columns of a geometry column and 
+     * the condition matching the rows whose columns are out of date, such as rows 
+     * written by other clients
+     */
+    static String[] getMBRRefresh(String table, String geometryColumn) {
+        String geometry = "\"" + geometryColumn + "\"";
+        String[] columns = getMBRColumns(geometryColumn);
+        
+        StringBuffer refresh = new StringBuffer("UPDATE " + table + " SET ");
+        StringBuffer outdated = new StringBuffer("(" + geometry + " IS NULL AND \"" 
+                + columns[0] + "\" IS NOT NULL) OR (" + geometry + " IS NOT NULL AND (\"" 
+                + columns[0] + "\" IS NULL");
+        for (int i = 0; i < columns.length; i++) {
+            String computed = MBR_FUNCTIONS[i] + "(" + geometry + ")";
+            refresh.append(i > 0 ? ", " : "").append("\"" + columns[i] + "\" = " + computed);
+            outdated.append(" OR \"" + columns[i] + "\" <> " + computed);
+        }
+        outdated.append("))");
+        return new String[] { refresh.toString(), outdated.toString() };
+    }
+    
+    /**
+     * Returns the primary key column of the table, null if the table does not have a 
+     * single column primary key
+     */
+    String getSingleKeyColumn(String schemaName, String tableName, Connection cx) 
+            throws SQLException {
+        String key = null;
+        ResultSet pk = cx.getMetaData().getPrimaryKeys(null, schemaName, tableName);
+        try {
+            if (pk.next()) {
+                key = pk.getString("COLUMN_NAME");
+                if (pk.next()) {
+                    key = null;
+                }
+            }
+        } finally {
+            dataStore.closeSafe(pk);
+        }
+        return key;
+    }
+    
+    /**
+     * Returns the name of the column holding the Hilbert key of a geometry column
+     */
+    public static String getHilbertColumn(String geometryColumn) {
+        return geometryColumn + HILBERT_SUFFIX;
+    }
+    
+    /**
+     * Returns the Hilbert curve the table has been clustered on, null if the geometry
+     * column has no Hilbert key. The curve is stored as the comment of the key column.
+     */
+    public HilbertCurve getHilbertCurve(SimpleFeatureType featureType, String geometryColumn) {
+        String schema = dataStore == null || dataStore.getDatabaseSchema() == null ? "sys" 
+                : dataStore.getDatabaseSchema();
+        String key = schema + "." + featureType.getTypeName() + "." + geometryColumn;
+        
+        long now = System.currentTimeMillis();
+        CachedCurve cached = hilbertCurves.get(key);
+        if (cached != null && (dataStore == null || now - cached.time < CatalogCache.DEFAULT_TTL)) {
+            return cached.curve;
+        }
+        if (dataStore == null) {
+            return null;
+        }
+        
+        HilbertCurve curve = null;
+        Connection cx = null;
+        Statement st = null;
+        ResultSet rs = null;
+        try {
+            cx = dataStore.getDataSource().getConnection();
+            st = cx.createStatement();
+            String sql = "SELECT rem.remark FROM sys.comments rem"
+                    + " INNER JOIN sys._columns c ON rem.id = c.id"
+                    + " INNER JOIN sys._tables t ON c.table_id = t.id"
+                    + " INNER JOIN sys.schemas s ON t.schema_id = s.id"
+                    + " WHERE s.name = " + quoteValue(schema)
+                    + " AND t.name = " + quoteValue(featureType.getTypeName())
+                    + " AND c.name = " + quoteValue(getHilbertColumn(geometryColumn));
+            LOGGER.fine(sql);
+            rs = st.executeQuery(sql);
+            if (rs.next()) {
+                curve = HilbertCurve.fromText(rs.getString(1));
+            }
+        } catch (SQLException e) {
+            LOGGER.log(Level.FINE, "Could not read the Hilbert curve of " + key, e);
+        } finally {
+            dataStore.closeSafe(rs);
+            dataStore.closeSafe(st);
+            dataStore.closeSafe(cx);
+        }
+        hilbertCurves.put(key, new CachedCurve(curve, now));
+        return curve;
+    }
+    
+    void putHilbertCurve(String schemaName, String tableName, String geometryColumn,
+            HilbertCurve curve) {
+        hilbertCurves.put(schemaName + "." + tableName + "." + geometryColumn, 
+                new CachedCurve(curve, System.currentTimeMillis()));
+    }
+    
+    static class CachedCurve {
+        final HilbertCurve curve;
+        final long time;
+        
+        CachedCurve(HilbertCurve curve, long time) {
+            this.curve = curve;
+            this.time = time;
+        }
+    }
+    
+    /**
+     * Creates imprints on the bounding box columns of a geometry column, which let 
+     * MonetDB skip the blocks of the columns that cannot match a range predicate. 
+     * Geometry values themselves cannot be indexed by MonetDB.
+     */
+    void createMBRIndexes(String schemaName, String tableName, String geometryColumn,
+            Statement st) throws SQLException {
+        for (String column : getMBRColumns(geometryColumn)) {
+            createMBRIndex(schemaName, tableName, column, st);
+        }
+    }
+    
+    void createMBRIndex(String schemaName, String tableName, String column, Statement st)
+            throws SQLException {
+        String sql = "CREATE IMPRINTS INDEX \"" + getMBRIndexName(tableName, column) 
+                + "\" ON \"" + schemaName + "\".\"" + tableName + "\" (\"" + column + "\")";
+        LOGGER.fine(sql);
+        st.execute(sql);
+    }
+    
+    static String getMBRIndexName(String tableName, String column) {
+        return "imprints_" + tableName + "_" + column.toLowerCase();
+    }
+    
+    public CatalogCache getCatalogCache() {
+        return catalogCache;
+    }
+    
+    /**
+     * Makes the dialect take column types and geometry srids from the cache, or look
+     * them up column by column when null
+     */
+    public void setCatalogCache(CatalogCache catalogCache) {
+        this.catalogCache = catalogCache;
+    }
+    
+    public SequenceAllocator getSequenceAllocator() {
+        return sequenceAllocator;
+    }
+    
+    /**
+     * Makes the dialect hand out primary key values from blocks reserved by the
+     * allocator, or one at a time when null
+     */
+    public void setSequenceAllocator(SequenceAllocator sequenceAllocator) {
+        this.sequenceAllocator = sequenceAllocator;
+    }
+    
+    JDBCDataStore getDataStore() {
+        return dataStore;
+    }
+
+    /**
+     * Binds the dialect to the datastore that replaced the one it was created for
+     */
+    void setDataStore(JDBCDataStore dataStore) {
+        this.dataStore = dataStore;
+    }
+    
+    public int getInsertBatchSize() {
+        return insertBatchSize;
+    }
+    
+    /**
+     * Sets the number of rows {@link MonetDBBulkLoader} and {@link MonetDBFeatureStore}
+     * insert per JDBC batch
+     */
+    public void setInsertBatchSize(int insertBatchSize) {
+        this.insertBatchSize = insertBatchSize;
+    }
+    
+    public AdaptiveFetchSize getAdaptiveFetchSize() {
+        return adaptiveFetchSize;
+    }
+    
+    /**
+     * Enables the adaptive fetch size, overriding the fetch size of the datastore for
+     * tables whose row width is known, or disables it when null 
+     */
+    public void setAdaptiveFetchSize(AdaptiveFetchSize adaptiveFetchSize) {
+        this.adaptiveFetchSize = adaptiveFetchSize;
+    }
 
     @Override
     public void encodeGeometryColumn(GeometryDescriptor gatt, String prefix, int srid,
@@ -149,29 +917,136 @@ public class MonetDBDialect extends BasicSQLDialect {
     @Override
     public void encodeGeometryColumn(GeometryDescriptor gatt, String prefix, int srid, Hints hints, 
         StringBuffer sql) {
-        encodeColumnName(prefix, gatt.getLocalName(), sql);  
+        StringBuffer column = new StringBuffer();
+        encodeSimplifiedColumn(gatt, prefix, hints, column);
+        // decimated geometries are selected as WKT, the parser drops the vertices before
+        // building them while the WKB reader would build them all first
+        Object factory = hints == null ? null : hints.get(Hints.JTS_GEOMETRY_FACTORY);
+        if (isWKBActive() && DecimatingGeometryFactory.getDistance(factory) == 0) {
+            sql.append("ST_AsBinary(").append(column).append(")");
+        } else {
+            sql.append(column);
+        }
+    }
+    
+    /**
+     * Encodes the geometry column, wrapped in the simplification function of the server
+     * if the hints ask for a simplification distance. Points are never simplified.
+     */
+    void encodeSimplifiedColumn(GeometryDescriptor gatt, String prefix, Hints hints,
+            StringBuffer sql) {
+        Double distance = hints == null ? null : (Double) hints.get(Hints.GEOMETRY_SIMPLIFICATION);
+        String function = getSimplifyFunction();
+        Class<?> binding = gatt.getType().getBinding();
+        
+        if (distance == null || distance <= 0 || function == null 
+                || Point.class.isAssignableFrom(binding) 
+                || MultiPoint.class.isAssignableFrom(binding)) {
+            encodeColumnName(prefix, gatt.getLocalName(), sql);
+            return;
+        }
+        
+        sql.append(function).append("(");
+        encodeColumnName(prefix, gatt.getLocalName(), sql);
+        sql.append(", ").append(distance).append(")");
     }
 
     @Override
     public void encodeGeometryEnvelope(String tableName, String geometryColumn,
             StringBuffer sql) {
-        sql.append("Envelope(\"" + geometryColumn + "\")");
+        String column = "\"" + geometryColumn + "\"";
+        StringBuffer envelope = new StringBuffer();
+        if (Boolean.FALSE.equals(envelopeSupported)) {
+            // an envelope per feature, merged by the datastore
+            envelope.append("Envelope(").append(column).append(")");
+        } else {
+            // aggregated to a single box, so the bounds come back as one row
+            envelope.append("ST_MakeEnvelope(MIN(ST_XMin(").append(column).append(")), ");
+            envelope.append("MIN(ST_YMin(").append(column).append(")), ");
+            envelope.append("MAX(ST_XMax(").append(column).append(")), ");
+            envelope.append("MAX(ST_YMax(").append(column).append(")), 0)");
+        }
+        
+        // transferred and decoded like any geometry column
+        if (isWKBActive()) {
+            sql.append("ST_AsBinary(").append(envelope).append(")");
+        } else {
+            sql.append(envelope);
+        }
     }
 
     @Override
     public Envelope decodeGeometryEnvelope(ResultSet rs, int column,
             Connection cx) throws SQLException, IOException {
+        GeometryFactory factory = dataStore == null || dataStore.getGeometryFactory() == null 
+                ? new GeometryFactory() : dataStore.getGeometryFactory();
+        Geometry envelope = decodeGeometryValue(null, rs, column, factory, cx);
+        if (envelope == null) {
+            // empty one
+            return new Envelope();
+        }
+        return envelope.getEnvelopeInternal();
+    }
+    
+    /**
+     * Computes the bounds of all geometry columns of the table in a single aggregate
+     * query over the minimum and maximum coordinates of the geometries
+     */
+    @Override
+    public List<ReferencedEnvelope> getOptimizedBounds(String schema,
+            SimpleFeatureType featureType, Connection cx) throws SQLException, IOException {
+        if (featureType.getUserData().get(JDBCDataStore.JDBC_VIRTUAL_TABLE) != null) {
+            return null;
+        }
+        
+        List<GeometryDescriptor> geometries = new ArrayList<GeometryDescriptor>();
+        StringBuffer sql = new StringBuffer("SELECT ");
+        for (AttributeDescriptor att : featureType.getAttributeDescriptors()) {
+            if (att instanceof GeometryDescriptor) {
+                String column = quoteIdentifier(att.getLocalName());
+                if (!geometries.isEmpty()) {
+                    sql.append(", ");
+                }
+                sql.append("MIN(ST_XMin(").append(column).append(")), ");
+                sql.append("MIN(ST_YMin(").append(column).append(")), ");
+                sql.append("MAX(ST_XMax(").append(column).append(")), ");
+                sql.append("MAX(ST_YMax(").append(column).append("))");
+                geometries.add((GeometryDescriptor) att);
+            }
+        }
+        if (geometries.isEmpty()) {
+            return null;
+        }
+        sql.append(" FROM ");
+        if (schema != null && schema.length() > 0) {
+            sql.append(quoteIdentifier(schema)).append(".");
+        }
+        sql.append(quoteIdentifier(featureType.getTypeName()));
+        
+        List<ReferencedEnvelope> result = new ArrayList<ReferencedEnvelope>();
+        Statement st = cx.createStatement();
+        ResultSet rs = null;
         try {
-            String envelope = rs.getString(column);
-            if (envelope != null)
-                return new WKTReader().read(envelope).getEnvelopeInternal();
-            else
-                // empty one
-                return new Envelope();
-        } catch (ParseException e) {
-            throw (IOException) new IOException(
-                    "Error occurred parsing the bounds WKT").initCause(e);
+            LOGGER.fine(sql.toString());
+            rs = st.executeQuery(sql.toString());
+            if (rs.next()) {
+                for (int i = 0; i < geometries.size(); i++) {
+                    CoordinateReferenceSystem crs = geometries.get(i).getCoordinateReferenceSystem();
+                    double minx = rs.getDouble(i * 4 + 1);
+                    if (rs.wasNull()) {
+                        // no geometries in this column
+                        result.add(new ReferencedEnvelope(crs));
+                        continue;
+                    }
+                    result.add(new ReferencedEnvelope(minx, rs.getDouble(i * 4 + 3),
+                            rs.getDouble(i * 4 + 2), rs.getDouble(i * 4 + 4), crs));
+                }
+            }
+        } finally {
+            dataStore.closeSafe(rs);
+            dataStore.closeSafe(st);
         }
+        return result;
     }
 
     @Override
@@ -182,6 +1057,16 @@ public class MonetDBDialect extends BasicSQLDialect {
         String columnName = columnMetaData.getString("COLUMN_NAME");
         String schemaName = columnMetaData.getString("TABLE_SCHEM");
         
+        if (catalogCache != null && catalogCache.isAvailable()) {
+            String typeName = catalogCache.getTypeName(schemaName, tableName, columnName, cx);
+            if (catalogCache.isAvailable()) {
+                if (typeName != null) {
+                    metadata.setTypeName(typeName);
+                }
+                return;
+            }
+        }
+        
         String sql = "SELECT udt_name FROM information_schema.columns " + 
         " WHERE table_schema = '"+schemaName+"' " + 
         "   AND table_name = '"+tableName+"' " + 
@@ -216,27 +1101,36 @@ public class MonetDBDialect extends BasicSQLDialect {
         try {
             if (schemaName == null)
                 schemaName = "sys";
+            
+            // try the cached geometry_columns first
+            boolean cached = false;
+            if (catalogCache != null && catalogCache.isAvailable()) {
+                srid = catalogCache.getSRID(schemaName, tableName, columnName, cx);
+                cached = catalogCache.isAvailable();
+            }
           
             // try geometry_columns
-            try {
-                String sqlStatement = "SELECT srid FROM geometry_columns WHERE " //
-                        + "f_table_schema = '" + schemaName + "' " //
-                        + "AND f_table_name = '" + tableName + "' " //
-                        + "AND f_geometry_column = '" + columnName + "'";
+            if (!cached) {
+                try {
+                    String sqlStatement = "SELECT srid FROM geometry_columns WHERE " //
+                            + "f_table_schema = '" + schemaName + "' " //
+                            + "AND f_table_name = '" + tableName + "' " //
+                            + "AND f_geometry_column = '" + columnName + "'";
     
-                LOGGER.log(Level.FINE, "Geometry srid check; {0} ", sqlStatement);
-                statement = cx.createStatement();
-                result = statement.executeQuery(sqlStatement);
+                    LOGGER.log(Level.FINE, "Geometry srid check; {0} ", sqlStatement);
+                    statement = cx.createStatement();
+                    result = statement.executeQuery(sqlStatement);
     
-                if (result.next()) {
-                    srid = result.getInt(1);
+                    if (result.next()) {
+                        srid = result.getInt(1);
+                    }
+                } catch(SQLException e) {
+                    LOGGER.log(Level.WARNING, "Failed to retrieve information about " 
+                            + schemaName + "." + tableName + "."  + columnName 
+                            + " from the geometry_columns table, checking the first geometry instead", e);
+                } finally {
+                    dataStore.closeSafe(result);
                 }
-            } catch(SQLException e) {
-                LOGGER.log(Level.WARNING, "Failed to retrieve information about " 
-                        + schemaName + "." + tableName + "."  + columnName 
-                        + " from the geometry_columns table, checking the first geometry instead", e);
-            } finally {
-                dataStore.closeSafe(result);
             }
             
             // fall back on inspection of the first geometry, assuming uniform srid (fair assumption
@@ -247,6 +1141,9 @@ public class MonetDBDialect extends BasicSQLDialect {
                                "FROM \"" + schemaName + "\".\"" + tableName + "\" " +
                                "WHERE \"" + columnName + "\" IS NOT NULL " +
                                "LIMIT 1";
+                if (statement == null) {
+                    statement = cx.createStatement();
+                }
                 result = statement.executeQuery(sqlStatement);
                 if (result.next()) {
                     srid = result.getInt(1);
@@ -263,6 +1160,17 @@ public class MonetDBDialect extends BasicSQLDialect {
     @Override
     public String getSequenceForColumn(String schemaName, String tableName,
             String columnName, Connection cx) throws SQLException {
+        String key = schemaName + "." + tableName + "." + columnName;
+        String sequence = sequences.get(key);
+        if (sequence == null) {
+            sequence = lookupSequenceForColumn(schemaName, tableName, columnName, cx);
+            sequences.put(key, sequence == null ? NO_SEQUENCE : sequence);
+        }
+        return sequence == NO_SEQUENCE ? null : sequence;
+    }
+    
+    String lookupSequenceForColumn(String schemaName, String tableName,
+            String columnName, Connection cx) throws SQLException {
         Statement st = cx.createStatement();
         try {
         	String sql = "SELECT " + quoteIdentifier("default") + " FROM \"sys\".\"_columns\" AS columns" +	
@@ -285,8 +1193,7 @@ public class MonetDBDialect extends BasicSQLDialect {
                 	String defaultValue = rs.getString(1);
                         
                         if (defaultValue != null) {                	
-                            Pattern regex = Pattern.compile("\"seq_(.*?)\"");
-                            Matcher m = regex.matcher(defaultValue);
+                            Matcher m = SEQUENCE_DEFAULT.matcher(defaultValue);
 
                             String seqName = null;
                             while(m.find()) {
@@ -309,6 +1216,14 @@ public class MonetDBDialect extends BasicSQLDialect {
     @Override
     public Object getNextSequenceValue(String schemaName, String sequenceName,
             Connection cx) throws SQLException {
+        if (sequenceAllocator != null) {
+            return sequenceAllocator.next(schemaName, sequenceName, cx);
+        }
+        return fetchSequenceValue(schemaName, sequenceName, cx);
+    }
+    
+    Object fetchSequenceValue(String schemaName, String sequenceName,
+            Connection cx) throws SQLException {
         Statement st = cx.createStatement();
         try {
             String sql = "SELECT nextval('" + sequenceName + "')";
@@ -329,6 +1244,78 @@ public class MonetDBDialect extends BasicSQLDialect {
         return null;
     }
 
+    /**
+     * Returns the next <code>count</code> values of a sequence, taken from the reserved
+     * blocks when the sequence allocator is enabled
+     */
+    public List<Object> getNextSequenceValues(String schemaName, String sequenceName,
+            int count, Connection cx) throws SQLException {
+        if (sequenceAllocator != null) {
+            return sequenceAllocator.next(schemaName, sequenceName, count, cx);
+        }
+        return fetchSequenceValues(schemaName, sequenceName, count, cx);
+    }
+    
+    /**
+     * Fetches the next <code>count</code> values of a sequence in a single query. 
+     * Falls back on fetching the values one by one if the server does not hand them 
+     * out that way.
+     */
+    List<Object> fetchSequenceValues(String schemaName, String sequenceName,
+            int count, Connection cx) throws SQLException {
+        List<Object> values = new ArrayList<Object>(count);
+        if (count <= 0) {
+            return values;
+        }
+        
+        if (count > 1) {
+            String sequence = sequenceName.startsWith("\"") ? sequenceName : quoteIdentifier(sequenceName);
+            if (schemaName != null && schemaName.length() > 0) {
+                sequence = quoteIdentifier(schemaName) + "." + sequence;
+            }
+            String sql = "SELECT NEXT VALUE FOR " + sequence 
+                    + " FROM sys.generate_series(0, " + count + ")";
+            
+            Statement st = null;
+            ResultSet rs = null;
+            try {
+                st = cx.createStatement();
+                dataStore.getLogger().fine(sql);
+                rs = st.executeQuery(sql);
+                Set<Object> distinct = new HashSet<Object>();
+                while (rs.next()) {
+                    Object value = rs.getLong(1);
+                    if (!distinct.add(value)) {
+                        // evaluated once for the whole query, values are not usable
+                        values.clear();
+                        break;
+                    }
+                    values.add(value);
+                }
+            } catch (SQLException e) {
+                LOGGER.log(Level.FINE, "Could not fetch sequence values in bulk", e);
+                values.clear();
+                if (!cx.getAutoCommit()) {
+                    // the failed query aborted the transaction, nothing else will work 
+                    throw e;
+                }
+            } finally {
+                dataStore.closeSafe(rs);
+                dataStore.closeSafe(st);
+            }
+            
+            if (values.size() == count) {
+                return values;
+            }
+        }
+        
+        // one at a time then, on top of what we already got
+        while (values.size() < count) {
+            values.add(fetchSequenceValue(schemaName, sequenceName, cx));
+        }
+        return values;
+    }
+
     @Override
     public boolean lookupGeneratedValuesPostInsert() {
         return true;
@@ -405,6 +1392,15 @@ public class MonetDBDialect extends BasicSQLDialect {
         overrides.put(Types.BOOLEAN, "BOOL");
     }
 
+    @Override
+    public void registerAggregateFunctions(
+            Map<Class<? extends FeatureVisitor>, String> aggregates) {
+        // count, min, max, sum and unique
+        super.registerAggregateFunctions(aggregates);
+        
+        aggregates.put(AverageVisitor.class, "avg");
+    }
+
     @Override
     public String getGeometryTypeName(Integer type) {
         return "geometry";
@@ -486,6 +1482,9 @@ public class MonetDBDialect extends BasicSQLDialect {
                     LOGGER.fine( sql );
                     st.execute( sql );
                     
+                    if (catalogCache != null) {
+                        catalogCache.putSRID(schemaName, tableName, gd.getLocalName(), srid);
+                    }
 
                     // add srid checks
                     if (srid > -1) {
@@ -531,19 +1530,14 @@ public class MonetDBDialect extends BasicSQLDialect {
                         st.execute(sql);
                     }
                     
-                    // add the spatial index
-                    sql = 
-                    "CREATE INDEX \"spatial_" + tableName // 
-                            + "_" + gd.getLocalName().toLowerCase() + "\""// 
-                            + " ON " //
-                            + "\"" + schemaName + "\"" // 
-                            + "." //
-                            + "\"" + tableName + "\"" //
-                            + " USING GIST (" //
-                            + "\"" + gd.getLocalName() + "\"" //
-                            + ")";
-                    LOGGER.fine(sql);
-                    st.execute(sql);
+                    // persist the bounding box and index it, MonetDB has no index type
+                    // for the geometry itself (MonetDBLayerOptimizer does the same for 
+                    // tables created without the columns)
+                    if (mbrColumnsEnabled) {
+                        createMBRColumns(schemaName, tableName, gd.getLocalName(), st);
+                        createMBRIndexes(schemaName, tableName, gd.getLocalName(), st);
+                    }
+                    
                 }
             }
             if (!cx.getAutoCommit()) {
@@ -552,6 +1546,11 @@ public class MonetDBDialect extends BasicSQLDialect {
          } finally {
             dataStore.closeSafe(st);
         }
+        
+        // the columns of the new table are not known to the cache yet
+        if (catalogCache != null) {
+            catalogCache.invalidate(schemaName);
+        }
     }
 
     @Override
@@ -573,6 +1572,29 @@ public class MonetDBDialect extends BasicSQLDialect {
         finally {
             dataStore.closeSafe(st);
         }
+        
+        if (adaptiveFetchSize != null) {
+            adaptiveFetchSize.invalidate(schemaName, tableName);
+        }
+        
+        if (catalogCache != null) {
+            catalogCache.invalidate(schemaName, tableName);
+        }
+        if (estimatedCounts != null) {
+            estimatedCounts.invalidate(schemaName, tableName);
+        }
+        
+        String prefix = schemaName + "." + tableName + ".";
+        for (Iterator<String> it = sequences.keySet().iterator(); it.hasNext();) {
+            if (it.next().startsWith(prefix)) {
+                it.remove();
+            }
+        }
+        for (Iterator<String> it = hilbertCurves.keySet().iterator(); it.hasNext();) {
+            if (it.next().startsWith(prefix)) {
+                it.remove();
+            }
+        }
     }
 
     @Override
@@ -598,8 +1620,7 @@ public class MonetDBDialect extends BasicSQLDialect {
     
     @Override
     public boolean isLimitOffsetSupported() {
-    	return false;
-        //return true;
+        return true;
     }
     
     @Override
@@ -614,17 +1635,28 @@ public class MonetDBDialect extends BasicSQLDialect {
         }
     }
     
+    @Override
+    public void postCreateFeatureType(SimpleFeatureType featureType, DatabaseMetaData metadata,
+            String schemaName, Connection cx) throws SQLException {
+        markAccessColumns(featureType);
+    }
+    
     @Override
     public void encodeValue(Object value, Class type, StringBuffer sql) {
-        // TODO: implement this method
+        if (value instanceof byte[]) {
+            encodeByteArrayAsHex((byte[]) value, sql);
+        } else {
+            super.encodeValue(value, type, sql);
+        }
     }
 
     void encodeByteArrayAsHex(byte[] input, StringBuffer sql) {
-        StringBuffer sb = new StringBuffer("\\x");
+        // monetdb blob literals are plain hex strings
+        sql.append("BLOB '");
         for (int i = 0; i < input.length; i++) {
-            sb.append(String.format("%02x", input[i]));
+            sql.append(String.format("%02x", input[i]));
         }
-        super.encodeValue(sb.toString(), String.class, sql);
+        sql.append("'");
     }
 
     void encodeByteArrayAsEscape(byte[] input, StringBuffer sql) {
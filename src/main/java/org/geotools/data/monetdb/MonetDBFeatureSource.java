@@ -0,0 +1,128 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2008, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.monetdb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.geotools.data.FeatureReader;
+import org.geotools.data.Query;
+import org.geotools.data.store.ContentEntry;
+import org.geotools.factory.Hints;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.jdbc.JDBCDataStore;
+import org.geotools.jdbc.JDBCFeatureSource;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+
+import com.vividsolutions.jts.geom.CoordinateSequenceFactory;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+/**
+ * Read only feature source of {@link MonetDBDataStore}, whose feature type leaves out
+ * the bounding box and Hilbert key columns of the table. Queries whose geometries are
+ * decimated while decoding carry a {@link DecimatingGeometryFactory} to the reader.
+ *
+ * @author Dennis Pallett
+ *
+ * @source $URL$
+ */
+public class MonetDBFeatureSource extends JDBCFeatureSource {
+
+    public MonetDBFeatureSource(ContentEntry entry, Query query) throws IOException {
+        super(entry, query);
+    }
+
+    @Override
+    protected SimpleFeatureType buildFeatureType() throws IOException {
+        return hideAccessColumns(super.buildFeatureType());
+    }
+
+    @Override
+    protected FeatureReader<SimpleFeatureType, SimpleFeature> getReaderInternal(Query query)
+            throws IOException {
+        return super.getReaderInternal(bindDecimation(query, getDataStore()));
+    }
+
+    /**
+     * Returns a copy of the query whose hints hold a {@link DecimatingGeometryFactory}
+     * if its geometries are to be decimated while decoding, the query itself otherwise
+     */
+    static Query bindDecimation(Query query, JDBCDataStore dataStore) {
+        MonetDBDialect dialect = MonetDBBulkLoader.getDialect(dataStore);
+        Double distance = dialect.getClientDecimationDistance(query.getHints());
+        if (distance == null) {
+            return query;
+        }
+
+        // the factory the reader would have used otherwise
+        Hints hints = new Hints();
+        if (query.getHints() != null) {
+            hints.add(query.getHints());
+        }
+        GeometryFactory factory = (GeometryFactory) hints.get(Hints.JTS_GEOMETRY_FACTORY);
+        if (factory == null) {
+            CoordinateSequenceFactory csFactory = (CoordinateSequenceFactory) hints
+                    .get(Hints.JTS_COORDINATE_SEQUENCE_FACTORY);
+            factory = csFactory != null ? new GeometryFactory(csFactory) : dataStore
+                    .getGeometryFactory();
+        }
+        hints.put(Hints.JTS_GEOMETRY_FACTORY, new DecimatingGeometryFactory(factory, distance));
+
+        Query decimated = new Query(query);
+        decimated.setHints(hints);
+        return decimated;
+    }
+
+    /**
+     * Removes the bounding box and Hilbert key columns marked on the geometry attributes
+     * (see {@link MonetDBDialect#markAccessColumns(SimpleFeatureType)}) from the feature
+     * type. They are maintained by the datastore and the database, clients should
+     * neither see nor write them.
+     */
+    static SimpleFeatureType hideAccessColumns(SimpleFeatureType featureType) {
+        List<String> hidden = new ArrayList<String>();
+        for (AttributeDescriptor att : featureType.getAttributeDescriptors()) {
+            if (att instanceof GeometryDescriptor) {
+                String[] mbr = MonetDBDialect.getMBRColumns((GeometryDescriptor) att);
+                if (mbr != null) {
+                    hidden.addAll(Arrays.asList(mbr));
+                }
+                String hilbert = MonetDBDialect.getHilbertColumn((GeometryDescriptor) att);
+                if (hilbert != null) {
+                    hidden.add(hilbert);
+                }
+            }
+        }
+        if (hidden.isEmpty()) {
+            return featureType;
+        }
+
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.init(featureType);
+        for (String column : hidden) {
+            tb.remove(column);
+        }
+        SimpleFeatureType result = tb.buildFeatureType();
+        result.getUserData().putAll(featureType.getUserData());
+        return result;
+    }
+}
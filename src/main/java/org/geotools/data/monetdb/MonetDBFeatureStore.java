@@ -0,0 +1,109 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2008, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.monetdb;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.geotools.data.DataUtilities;
+import org.geotools.data.FeatureReader;
+import org.geotools.data.Query;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.data.store.ContentEntry;
+import org.geotools.factory.Hints;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.jdbc.JDBCFeatureStore;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.identity.FeatureId;
+
+/**
+ * Feature store adding features in batches of prepared inserts (see
+ * {@link MonetDBBulkLoader}) instead of one insert per feature, the path taken by
+ * WFS-T inserts among others.
+ * <p>
+ * Tables whose key is not backed by a sequence, and features asking to keep their
+ * own id, are added the regular way.
+ * <p>
+ * Like {@link MonetDBFeatureSource} the feature type leaves out the bounding box and
+ * Hilbert key columns of the table.
+ *
+ * @author Dennis Pallett
+ *
+ * @source $URL$
+ */
+public class MonetDBFeatureStore extends JDBCFeatureStore {
+
+    public MonetDBFeatureStore(ContentEntry entry, Query query) throws IOException {
+        super(entry, query);
+    }
+
+    @Override
+    protected SimpleFeatureType buildFeatureType() throws IOException {
+        return MonetDBFeatureSource.hideAccessColumns(super.buildFeatureType());
+    }
+
+    @Override
+    protected FeatureReader<SimpleFeatureType, SimpleFeature> getReaderInternal(Query query)
+            throws IOException {
+        return super.getReaderInternal(MonetDBFeatureSource.bindDecimation(query,
+                getDataStore()));
+    }
+
+    @Override
+    public List<FeatureId> addFeatures(
+            FeatureCollection<SimpleFeatureType, SimpleFeature> featureCollection)
+            throws IOException {
+        SimpleFeatureCollection features = DataUtilities.simple(featureCollection);
+        if (!MonetDBBulkLoader.canLoad(getPrimaryKey()) || usesProvidedFIDs(features)) {
+            return super.addFeatures(featureCollection);
+        }
+
+        String typeName = getSchema().getTypeName();
+        List<FeatureId> ids = new MonetDBBulkLoader(getDataStore()).load(typeName, features,
+                getTransaction(), false);
+
+        // the regular writer notifies the listeners of every feature it adds
+        SimpleFeatureIterator it = features.features();
+        try {
+            for (int i = 0; it.hasNext(); i++) {
+                SimpleFeature feature = it.next();
+                getState().fireFeatureAdded(this, SimpleFeatureBuilder.build(
+                        feature.getFeatureType(), feature.getAttributes(), ids.get(i).getID()));
+            }
+        } finally {
+            it.close();
+        }
+        return ids;
+    }
+
+    static boolean usesProvidedFIDs(SimpleFeatureCollection features) {
+        SimpleFeatureIterator it = features.features();
+        try {
+            while (it.hasNext()) {
+                if (Boolean.TRUE.equals(it.next().getUserData().get(Hints.USE_PROVIDED_FID))) {
+                    return true;
+                }
+            }
+        } finally {
+            it.close();
+        }
+        return false;
+    }
+}
@@ -19,9 +19,13 @@ package org.geotools.data.monetdb;
 import java.io.IOException;
 
 import org.geotools.data.jdbc.FilterToSQL;
+import org.geotools.data.jdbc.FilterToSQLException;
 import org.geotools.filter.FilterCapabilities;
 import org.geotools.jdbc.JDBCDataStore;
+import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.filter.Filter;
+import org.opengis.filter.Or;
 import org.opengis.filter.expression.Expression;
 import org.opengis.filter.expression.Function;
 import org.opengis.filter.expression.Literal;
@@ -29,7 +33,6 @@ import org.opengis.filter.expression.PropertyName;
 import org.opengis.filter.spatial.BinarySpatialOperator;
 
 import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.geom.LinearRing;
 
 /**
  * 
@@ -43,6 +46,8 @@ public class MonetDBFilterToSQL extends FilterToSQL {
 
     public MonetDBFilterToSQL(MonetDBDialect dialect) {
         helper = new FilterToSqlHelper(this);
+        helper.dialect = dialect;
+        helper.looseBBOXEnabled = dialect.isLooseBBOXEnabled();
     }
 
     @Override
@@ -50,22 +55,18 @@ public class MonetDBFilterToSQL extends FilterToSQL {
         // evaluate the literal and store it for later
         Geometry geom  = (Geometry) evaluateLiteral(expression, Geometry.class);
         
-        if ( geom instanceof LinearRing ) {
-            //postgis does not handle linear rings, convert to just a line string
-            geom = geom.getFactory().createLineString(((LinearRing) geom).getCoordinateSequence());
-        }
-                
-        out.write("GeomFromText('");
-        out.write(geom.toText());
+        String srid;
         if(currentSRID == null && currentGeometry  != null) {
             // if we don't know at all, use the srid of the geometry we're comparing against
             // (much slower since that has to be extracted record by record as opposed to 
             // being a constant)
-            out.write("', SRID(\"" + currentGeometry.getLocalName() + "\"))");
+            srid = "SRID(\"" + currentGeometry.getLocalName() + "\")";
         } else {
-            out.write("', " + currentSRID + ")");
+            srid = String.valueOf(currentSRID);
         }
         
+        // linear rings are written as line strings, large geometries come from the cache
+        out.write(helper.dialect.literalEncoders.encode(geom, srid));
     }
 
     @Override
@@ -91,7 +92,36 @@ public class MonetDBFilterToSQL extends FilterToSQL {
         return currentGeometry;
     }
 
+    Integer getCurrentSRID() {
+        return currentSRID;
+    }
+
+    SimpleFeatureType getFeatureType() {
+        return featureType;
+    }
+
+
+
+    /**
+     * Encodes the filter once {@link FilterOptimizer} has simplified it
+     */
+    @Override
+    public void encode(Filter filter) throws FilterToSQLException {
+        super.encode(FilterOptimizer.optimize(filter));
+    }
 
+    @Override
+    public Object visit(Or filter, Object extraData) {
+        helper.out = out;
+        try {
+            if (helper.encodeIn(filter, extraData)) {
+                return extraData;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return super.visit(filter, extraData);
+    }
 
     @Override
     public Object visit(Function function, Object extraData) throws RuntimeException {
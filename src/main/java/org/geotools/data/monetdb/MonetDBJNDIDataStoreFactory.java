@@ -16,6 +16,8 @@
  */
 package org.geotools.data.monetdb;
 
+import java.util.Map;
+
 import org.geotools.jdbc.JDBCJNDIDataStoreFactory;
 
 /**
@@ -33,6 +35,45 @@ public class MonetDBJNDIDataStoreFactory extends JDBCJNDIDataStoreFactory {
     public MonetDBJNDIDataStoreFactory() {
         super(new MonetDBDataStoreFactory());
     }
+    
+    @Override
+    protected void setupParameters(Map parameters) {
+        super.setupParameters(parameters);
+        
+        parameters.put(FETCHSIZE.key, FETCHSIZE);
+        parameters.put(MonetDBDataStoreFactory.PREPARED_STATEMENTS.key, 
+                MonetDBDataStoreFactory.PREPARED_STATEMENTS);
+        parameters.put(MonetDBDataStoreFactory.WKB_ENABLED.key, 
+                MonetDBDataStoreFactory.WKB_ENABLED);
+        parameters.put(MonetDBDataStoreFactory.ADAPTIVE_FETCH_SIZE.key, 
+                MonetDBDataStoreFactory.ADAPTIVE_FETCH_SIZE);
+        parameters.put(MonetDBDataStoreFactory.FETCH_BUFFER_SIZE.key, 
+                MonetDBDataStoreFactory.FETCH_BUFFER_SIZE);
+        parameters.put(MonetDBDataStoreFactory.BULK_LOAD_BATCH_SIZE.key, 
+                MonetDBDataStoreFactory.BULK_LOAD_BATCH_SIZE);
+        parameters.put(MonetDBDataStoreFactory.INSERT_BATCH_SIZE.key, 
+                MonetDBDataStoreFactory.INSERT_BATCH_SIZE);
+        parameters.put(MonetDBDataStoreFactory.SEQUENCE_BLOCK_SIZE.key, 
+                MonetDBDataStoreFactory.SEQUENCE_BLOCK_SIZE);
+        parameters.put(MonetDBDataStoreFactory.METADATA_CACHE_TTL.key, 
+                MonetDBDataStoreFactory.METADATA_CACHE_TTL);
+        parameters.put(MonetDBDataStoreFactory.ESTIMATED_COUNTS.key, 
+                MonetDBDataStoreFactory.ESTIMATED_COUNTS);
+        parameters.put(MonetDBDataStoreFactory.MBR_COLUMNS.key, 
+                MonetDBDataStoreFactory.MBR_COLUMNS);
+        parameters.put(MonetDBDataStoreFactory.SIMPLIFY.key, 
+                MonetDBDataStoreFactory.SIMPLIFY);
+        parameters.put(MonetDBDataStoreFactory.CLIENT_DECIMATION.key, 
+                MonetDBDataStoreFactory.CLIENT_DECIMATION);
+        parameters.put(MonetDBDataStoreFactory.LITERAL_PRECISION.key, 
+                MonetDBDataStoreFactory.LITERAL_PRECISION);
+        parameters.put(MonetDBDataStoreFactory.STAGED_GEOMETRY_THRESHOLD.key, 
+                MonetDBDataStoreFactory.STAGED_GEOMETRY_THRESHOLD);
+        parameters.put(MonetDBDataStoreFactory.HYBRID_FILTERING.key, 
+                MonetDBDataStoreFactory.HYBRID_FILTERING);
+        parameters.put(MonetDBDataStoreFactory.LOOSE_BBOX.key, 
+                MonetDBDataStoreFactory.LOOSE_BBOX);
+    }
  
    
 }
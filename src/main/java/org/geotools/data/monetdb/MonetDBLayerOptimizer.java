@@ -0,0 +1,308 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2008, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.monetdb;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.data.Transaction;
+import org.geotools.jdbc.JDBCDataStore;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Sets up the access structures MonetDB benefits from on an existing feature table,
+ * the same ones the dialect creates for new tables when the bounding box columns are
+ * enabled (see {@link MonetDBDialect#setMbrColumnsEnabled(boolean)}):
+ * <ul>
+ * <li>the bounding box columns of every geometry column, added and filled if the
+ * table does not have them yet, refreshed on the rows other clients wrote otherwise
+ * <li>imprints on these columns, which let range predicates on them skip blocks of
+ * rows that cannot match
+ * </ul>
+ * Optionally the table is also rewritten in the order of a Hilbert curve through
+ * the centers of its bounding boxes, so that rows close to each other in space are
+ * close to each other on disk as well and the imprints can skip more.
+ * <p>
+ * The table is locked by the changes for as long as they take, which is the time of
+ * a full rewrite when clustering.
+ *
+ * @author Dennis Pallett
+ *
+ * @source $URL$
+ */
+public class MonetDBLayerOptimizer {
+
+    static final Logger LOGGER = Logging.getLogger(MonetDBLayerOptimizer.class);
+
+    /** number of keys inserted per batch while clustering */
+    static final int BATCH_SIZE = 10000;
+
+    final JDBCDataStore dataStore;
+
+    final MonetDBDialect dialect;
+
+    public MonetDBLayerOptimizer(JDBCDataStore dataStore) {
+        this.dataStore = dataStore;
+        this.dialect = MonetDBBulkLoader.getDialect(dataStore);
+    }
+
+    /**
+     * Adds the bounding box columns and their imprints to the table of the feature
+     * type, where missing
+     */
+    public void optimize(String typeName) throws IOException {
+        optimize(typeName, false);
+    }
+
+    /**
+     * Adds the bounding box columns and their imprints to the table of the feature
+     * type where missing, and if requested clusters the table in the Hilbert order 
+     * of the bounding boxes of its first geometry column.
+     * <p>
+     * Clustering requires a single column primary key. The key of every row is kept
+     * in a column next to the bounding box (see 
+     * {@link MonetDBDialect#getHilbertColumn(String)}) and lets BBOX filters skip the
+     * rows outside of the key ranges the filter can match. Rows inserted or updated
+     * afterwards lose their key until the table is clustered again.
+     */
+    public void optimize(String typeName, boolean cluster) throws IOException {
+        SimpleFeatureType featureType = dataStore.getSchema(typeName);
+        if (featureType.getUserData().get(JDBCDataStore.JDBC_VIRTUAL_TABLE) != null) {
+            throw new IOException(typeName + " is a virtual table, it cannot be optimized");
+        }
+        String schema = dataStore.getDatabaseSchema() == null ? "sys" : dataStore
+                .getDatabaseSchema();
+        String table = featureType.getTypeName();
+
+        Connection cx = dataStore.getConnection(Transaction.AUTO_COMMIT);
+        Statement st = null;
+        try {
+            cx.setAutoCommit(false);
+            st = cx.createStatement();
+
+            Set<String> indexes = getIndexNames(schema, table, st);
+            String first = null;
+            for (AttributeDescriptor att : featureType.getAttributeDescriptors()) {
+                if (!(att instanceof GeometryDescriptor)) {
+                    continue;
+                }
+                String geometry = att.getLocalName();
+                String[] columns = MonetDBDialect.getMBRColumns(geometry);
+                if (first == null) {
+                    first = geometry;
+                }
+
+                if (MonetDBDialect.getMBRColumns((GeometryDescriptor) att) == null) {
+                    dialect.createMBRColumns(schema, table, geometry, st);
+                } else {
+                    // only the datastore writes the columns along with the geometry
+                    String[] refresh = MonetDBDialect.getMBRRefresh("\"" + schema + "\".\""
+                            + table + "\"", geometry);
+                    execute(refresh[0] + " WHERE " + refresh[1], st);
+                }
+                for (String column : columns) {
+                    if (!indexes.contains(MonetDBDialect.getMBRIndexName(table, column))) {
+                        dialect.createMBRIndex(schema, table, column, st);
+                    }
+                }
+            }
+
+            HilbertCurve curve = null;
+            if (cluster && first != null) {
+                curve = cluster(schema, featureType, first, st, cx);
+            }
+            cx.commit();
+            if (curve != null) {
+                dialect.putHilbertCurve(schema, table, first, curve);
+            }
+        } catch (SQLException e) {
+            try {
+                cx.rollback();
+            } catch (SQLException e1) {
+                LOGGER.log(Level.FINE, "Rollback failed", e1);
+            }
+            throw (IOException) new IOException("Could not optimize " + typeName).initCause(e);
+        } finally {
+            dataStore.closeSafe(st);
+            try {
+                cx.setAutoCommit(true);
+            } catch (SQLException e) {
+                LOGGER.log(Level.FINE, "Could not restore auto commit", e);
+            }
+            dataStore.closeSafe(cx);
+        }
+
+        // the geometries may have gained bounding box or key columns
+        dataStore.getFeatureSource(typeName).getState().flush();
+        if (dialect.getCatalogCache() != null) {
+            dialect.getCatalogCache().invalidate(schema);
+        }
+    }
+
+    /**
+     * Computes the Hilbert key of every row from the bounding box of the geometry
+     * column, then rewrites the table with its rows sorted on the key.
+     * 
+     * @return the curve the keys are computed on
+     */
+    HilbertCurve cluster(String schema, SimpleFeatureType featureType, String geometry,
+            Statement st, Connection cx) throws SQLException {
+        String tableName = featureType.getTypeName();
+        String table = "\"" + schema + "\".\"" + tableName + "\"";
+        String key = dialect.getSingleKeyColumn(schema, tableName, cx);
+        if (key == null) {
+            throw new SQLException("Clustering " + table
+                    + " requires a single column primary key");
+        }
+        String[] mbr = MonetDBDialect.getMBRColumns(geometry);
+        String hilbert = MonetDBDialect.getHilbertColumn(geometry);
+
+        if (MonetDBDialect.getHilbertColumn((GeometryDescriptor) featureType
+                .getDescriptor(geometry)) == null) {
+            execute("ALTER TABLE " + table + " ADD COLUMN \"" + hilbert + "\" BIGINT", st);
+        }
+
+        HilbertCurve curve = createCurve(table, mbr, st);
+        computeKeys(schema, tableName, key, mbr, hilbert, curve, st, cx);
+        execute("COMMENT ON COLUMN " + table + ".\"" + hilbert + "\" IS "
+                + MonetDBDialect.quoteValue(curve.toText()), st);
+
+        // MonetDB notices the key column is sorted after the rewrite, and answers range
+        // predicates on it with a binary search
+        String copy = "cluster_" + tableName;
+        execute("CREATE LOCAL TEMPORARY TABLE \"" + copy + "\" AS SELECT * FROM " + table
+                + " WITH DATA ON COMMIT PRESERVE ROWS", st);
+        execute("DELETE FROM " + table, st);
+        execute("INSERT INTO " + table + " SELECT * FROM \"tmp\".\"" + copy + "\" ORDER BY \""
+                + hilbert + "\"", st);
+        execute("DROP TABLE \"tmp\".\"" + copy + "\"", st);
+        return curve;
+    }
+
+    /**
+     * Creates a curve over the extent of the bounding boxes in the table
+     */
+    HilbertCurve createCurve(String table, String[] mbr, Statement st) throws SQLException {
+        String sql = "SELECT MIN(\"" + mbr[0] + "\"), MIN(\"" + mbr[1] + "\"), MAX(\"" + mbr[2]
+                + "\"), MAX(\"" + mbr[3] + "\"), MAX(\"" + mbr[2] + "\" - \"" + mbr[0]
+                + "\"), MAX(\"" + mbr[3] + "\" - \"" + mbr[1] + "\") FROM " + table;
+        LOGGER.fine(sql);
+        ResultSet rs = st.executeQuery(sql);
+        try {
+            rs.next();
+            Envelope extent = new Envelope(rs.getDouble(1), rs.getDouble(3), rs.getDouble(2),
+                    rs.getDouble(4));
+            // all zeros for an empty table, rows added later have no key anyway
+            return new HilbertCurve(HilbertCurve.DEFAULT_ORDER, extent, rs.getDouble(5),
+                    rs.getDouble(6));
+        } finally {
+            dataStore.closeSafe(rs);
+        }
+    }
+
+    /**
+     * Computes the keys client side, as MonetDB has no Hilbert curve function, stores
+     * them in a temporary table in batches and updates the table from it in one go
+     */
+    void computeKeys(String schema, String tableName, String key, String[] mbr,
+            String hilbert, HilbertCurve curve, Statement st, Connection cx)
+            throws SQLException {
+        String table = "\"" + schema + "\".\"" + tableName + "\"";
+        String keys = "\"tmp\".\"hilbert_keys\"";
+        execute("CREATE LOCAL TEMPORARY TABLE \"hilbert_keys\" AS SELECT \"" + key + "\", \""
+                + hilbert + "\" FROM " + table + " WITH NO DATA ON COMMIT PRESERVE ROWS", st);
+
+        String sql = "SELECT \"" + key + "\", \"" + mbr[0] + "\", \"" + mbr[1] + "\", \""
+                + mbr[2] + "\", \"" + mbr[3] + "\" FROM " + table + " WHERE \"" + mbr[0]
+                + "\" IS NOT NULL";
+        LOGGER.fine(sql);
+        Statement select = cx.createStatement();
+        PreparedStatement insert = cx.prepareStatement("INSERT INTO " + keys + " VALUES (?, ?)");
+        ResultSet rs = null;
+        try {
+            select.setFetchSize(BATCH_SIZE);
+            rs = select.executeQuery(sql);
+            int batched = 0;
+            while (rs.next()) {
+                insert.setObject(1, rs.getObject(1));
+                insert.setLong(2, curve.key((rs.getDouble(2) + rs.getDouble(4)) / 2,
+                        (rs.getDouble(3) + rs.getDouble(5)) / 2));
+                insert.addBatch();
+                if (++batched == BATCH_SIZE) {
+                    insert.executeBatch();
+                    batched = 0;
+                }
+            }
+            if (batched > 0) {
+                insert.executeBatch();
+            }
+        } finally {
+            dataStore.closeSafe(rs);
+            dataStore.closeSafe(select);
+            dataStore.closeSafe(insert);
+        }
+
+        execute("UPDATE " + table + " SET \"" + hilbert + "\" = (SELECT k.\"" + hilbert
+                + "\" FROM " + keys + " k WHERE k.\"" + key + "\" = \"" + tableName + "\".\""
+                + key + "\")", st);
+        execute("DROP TABLE " + keys, st);
+    }
+
+    void execute(String sql, Statement st) throws SQLException {
+        LOGGER.fine(sql);
+        st.execute(sql);
+    }
+
+    Set<String> getIndexNames(String schema, String table, Statement st) throws SQLException {
+        return new HashSet<String>(readNames("SELECT i.name FROM sys.idxs i", schema, table,
+                "i", st));
+    }
+
+    List<String> readNames(String select, String schema, String table, String alias,
+            Statement st) throws SQLException {
+        String sql = select + " INNER JOIN sys._tables t ON " + alias + ".table_id = t.id"
+                + " INNER JOIN sys.schemas s ON t.schema_id = s.id"
+                + " WHERE s.name = " + MonetDBDialect.quoteValue(schema)
+                + " AND t.name = " + MonetDBDialect.quoteValue(table);
+        LOGGER.fine(sql);
+        List<String> names = new ArrayList<String>();
+        ResultSet rs = st.executeQuery(sql);
+        try {
+            while (rs.next()) {
+                names.add(rs.getString(1));
+            }
+        } finally {
+            dataStore.closeSafe(rs);
+        }
+        return names;
+    }
+}
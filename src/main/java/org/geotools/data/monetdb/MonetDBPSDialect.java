@@ -0,0 +1,299 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2008, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.monetdb;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.geotools.factory.Hints;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.jdbc.ColumnMetadata;
+import org.geotools.jdbc.JDBCDataStore;
+import org.geotools.jdbc.PreparedFilterToSQL;
+import org.geotools.jdbc.PreparedStatementSQLDialect;
+import org.opengis.feature.FeatureVisitor;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.filter.Filter;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LinearRing;
+
+/**
+ * Prepared statement flavour of the MonetDB dialect. Values and geometries are bound
+ * as statement parameters, so the SQL text of a query only depends on its shape and
+ * MonetDB can reuse the plan of statements kept open by the connection pool.
+ * <p>
+ * Everything that is not related to parameter binding is delegated to a
+ * {@link MonetDBDialect}.
+ *
+ * @author Dennis Pallett
+ *
+ * @source $URL$
+ */
+public class MonetDBPSDialect extends PreparedStatementSQLDialect {
+
+    private MonetDBDialect delegate;
+
+    public MonetDBPSDialect(JDBCDataStore store, MonetDBDialect delegate) {
+        super(store);
+        this.delegate = delegate;
+    }
+
+    /**
+     * Returns the basic dialect all non parameter related work is delegated to
+     */
+    public MonetDBDialect getDelegate() {
+        return delegate;
+    }
+
+    JDBCDataStore getDataStore() {
+        return dataStore;
+    }
+
+    /**
+     * Binds the dialect and its delegate to the datastore that replaced the one they
+     * were created for
+     */
+    void setDataStore(JDBCDataStore dataStore) {
+        this.dataStore = dataStore;
+        delegate.setDataStore(dataStore);
+    }
+
+    @Override
+    public void initializeConnection(Connection cx) throws SQLException {
+        delegate.initializeConnection(cx);
+    }
+
+    @Override
+    public boolean includeTable(String schemaName, String tableName, Connection cx)
+            throws SQLException {
+        return delegate.includeTable(schemaName, tableName, cx);
+    }
+
+    @Override
+    public Geometry decodeGeometryValue(GeometryDescriptor descriptor, ResultSet rs,
+            String column, GeometryFactory factory, Connection cx) throws IOException,
+            SQLException {
+        return delegate.decodeGeometryValue(descriptor, rs, column, factory, cx);
+    }
+
+    @Override
+    public Geometry decodeGeometryValue(GeometryDescriptor descriptor, ResultSet rs,
+            int column, GeometryFactory factory, Connection cx) throws IOException,
+            SQLException {
+        return delegate.decodeGeometryValue(descriptor, rs, column, factory, cx);
+    }
+
+    @Override
+    public void encodeGeometryColumn(GeometryDescriptor gatt, String prefix, int srid,
+            StringBuffer sql) {
+        delegate.encodeGeometryColumn(gatt, prefix, srid, sql);
+    }
+
+    @Override
+    public void encodeGeometryColumn(GeometryDescriptor gatt, String prefix, int srid,
+            Hints hints, StringBuffer sql) {
+        delegate.encodeGeometryColumn(gatt, prefix, srid, hints, sql);
+    }
+
+    @Override
+    public void encodeGeometryEnvelope(String tableName, String geometryColumn,
+            StringBuffer sql) {
+        delegate.encodeGeometryEnvelope(tableName, geometryColumn, sql);
+    }
+
+    @Override
+    public Envelope decodeGeometryEnvelope(ResultSet rs, int column, Connection cx)
+            throws SQLException, IOException {
+        return delegate.decodeGeometryEnvelope(rs, column, cx);
+    }
+
+    @Override
+    public List<ReferencedEnvelope> getOptimizedBounds(String schema,
+            SimpleFeatureType featureType, Connection cx) throws SQLException, IOException {
+        return delegate.getOptimizedBounds(schema, featureType, cx);
+    }
+
+    @Override
+    public void handleUserDefinedType(ResultSet columnMetaData, ColumnMetadata metadata,
+            Connection cx) throws SQLException {
+        delegate.handleUserDefinedType(columnMetaData, metadata, cx);
+    }
+
+    @Override
+    public Integer getGeometrySRID(String schemaName, String tableName, String columnName,
+            Connection cx) throws SQLException {
+        return delegate.getGeometrySRID(schemaName, tableName, columnName, cx);
+    }
+
+    @Override
+    public String getSequenceForColumn(String schemaName, String tableName,
+            String columnName, Connection cx) throws SQLException {
+        return delegate.getSequenceForColumn(schemaName, tableName, columnName, cx);
+    }
+
+    @Override
+    public Object getNextSequenceValue(String schemaName, String sequenceName,
+            Connection cx) throws SQLException {
+        return delegate.getNextSequenceValue(schemaName, sequenceName, cx);
+    }
+
+    @Override
+    public boolean lookupGeneratedValuesPostInsert() {
+        return delegate.lookupGeneratedValuesPostInsert();
+    }
+
+    @Override
+    public Object getLastAutoGeneratedValue(String schemaName, String tableName,
+            String columnName, Connection cx) throws SQLException {
+        return delegate.getLastAutoGeneratedValue(schemaName, tableName, columnName, cx);
+    }
+
+    @Override
+    public void registerClassToSqlMappings(Map<Class<?>, Integer> mappings) {
+        delegate.registerClassToSqlMappings(mappings);
+    }
+
+    @Override
+    public void registerSqlTypeNameToClassMappings(Map<String, Class<?>> mappings) {
+        delegate.registerSqlTypeNameToClassMappings(mappings);
+    }
+
+    @Override
+    public void registerSqlTypeToSqlTypeNameOverrides(Map<Integer, String> overrides) {
+        delegate.registerSqlTypeToSqlTypeNameOverrides(overrides);
+    }
+
+    @Override
+    public void addSupportedHints(Set<Hints.Key> hints) {
+        delegate.addSupportedHints(hints);
+    }
+
+    @Override
+    public void registerAggregateFunctions(
+            Map<Class<? extends FeatureVisitor>, String> aggregates) {
+        delegate.registerAggregateFunctions(aggregates);
+    }
+
+    @Override
+    public String getGeometryTypeName(Integer type) {
+        return delegate.getGeometryTypeName(type);
+    }
+
+    @Override
+    public void encodePrimaryKey(String column, StringBuffer sql) {
+        delegate.encodePrimaryKey(column, sql);
+    }
+
+    @Override
+    public void postCreateTable(String schemaName, SimpleFeatureType featureType,
+            Connection cx) throws SQLException {
+        delegate.postCreateTable(schemaName, featureType, cx);
+    }
+
+    @Override
+    public void postCreateFeatureType(SimpleFeatureType featureType, DatabaseMetaData metadata,
+            String schemaName, Connection cx) throws SQLException {
+        delegate.postCreateFeatureType(featureType, metadata, schemaName, cx);
+    }
+
+    @Override
+    public void postDropTable(String schemaName, SimpleFeatureType featureType,
+            Connection cx) throws SQLException {
+        delegate.postDropTable(schemaName, featureType, cx);
+    }
+
+    @Override
+    public void onSelect(PreparedStatement select, Connection cx,
+            SimpleFeatureType featureType) throws SQLException {
+        delegate.onSelect(select, cx, featureType);
+    }
+
+    @Override
+    public Filter[] splitFilter(Filter filter, SimpleFeatureType schema) {
+        return delegate.splitHybrid(super.splitFilter(filter, schema), schema);
+    }
+
+    @Override
+    public boolean isLimitOffsetSupported() {
+        return delegate.isLimitOffsetSupported();
+    }
+
+    @Override
+    public void applyLimitOffset(StringBuffer sql, int limit, int offset) {
+        delegate.applyLimitOffset(sql, limit, offset);
+    }
+
+    @Override
+    public int getDefaultVarcharSize() {
+        return delegate.getDefaultVarcharSize();
+    }
+
+    @Override
+    public void prepareGeometryValue(Geometry g, int srid, Class binding, StringBuffer sql) {
+        if (g != null) {
+            sql.append("GeomFromText(?, " + srid + ")");
+        } else {
+            sql.append("?");
+        }
+    }
+
+    @Override
+    public void setGeometryValue(Geometry g, int srid, Class binding, PreparedStatement ps,
+            int column) throws SQLException {
+        if (g != null && !g.isEmpty()) {
+            if (g instanceof LinearRing) {
+                // monetdb does not handle linear rings, convert to just a line string
+                g = g.getFactory().createLineString(((LinearRing) g).getCoordinateSequence());
+            }
+            ps.setString(column, g.toText());
+        } else {
+            ps.setNull(column, Types.VARCHAR);
+        }
+    }
+
+    @Override
+    public void setValue(Object value, Class binding, PreparedStatement ps, int column,
+            Connection cx) throws SQLException {
+        if (value instanceof StagedGeometries.Staged) {
+            // a huge filter geometry, uploaded to the connection of the statement reading it
+            StagedGeometries.Staged staged = (StagedGeometries.Staged) value;
+            delegate.getStagedGeometries().upload(staged, cx);
+            ps.setInt(column, staged.id);
+        } else {
+            super.setValue(value, binding, ps, column, cx);
+        }
+    }
+
+    @Override
+    public PreparedFilterToSQL createPreparedFilterToSQL() {
+        MonetDBPSFilterToSQL fts = new MonetDBPSFilterToSQL(this);
+        return fts;
+    }
+
+}
@@ -0,0 +1,161 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2009, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.monetdb;
+
+import java.io.IOException;
+
+import org.geotools.data.jdbc.FilterToSQLException;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.filter.FilterCapabilities;
+import org.geotools.jdbc.PreparedFilterToSQL;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.filter.Filter;
+import org.opengis.filter.Or;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.Function;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.filter.spatial.BinarySpatialOperator;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Prepared statement version of {@link MonetDBFilterToSQL}, literal values and
+ * geometries are written out as parameters and bound by {@link MonetDBPSDialect}
+ *
+ * @source $URL$
+ */
+public class MonetDBPSFilterToSQL extends PreparedFilterToSQL {
+
+    FilterToSqlHelper helper;
+    private boolean functionEncodingEnabled;
+
+    public MonetDBPSFilterToSQL(MonetDBPSDialect dialect) {
+        super(dialect);
+        helper = new FilterToSqlHelper(this);
+        helper.dialect = dialect.getDelegate();
+        helper.looseBBOXEnabled = dialect.getDelegate().isLooseBBOXEnabled();
+    }
+
+    @Override
+    protected FilterCapabilities createFilterCapabilities() {
+        return helper.createFilterCapabilities(functionEncodingEnabled);
+    }
+
+    protected Object visitBinarySpatialOperator(BinarySpatialOperator filter,
+            PropertyName property, Literal geometry, boolean swapped,
+            Object extraData) {
+        helper.out = out;
+        return helper.visitBinarySpatialOperator(filter, property, geometry,
+                swapped, extraData);
+    }
+
+    protected Object visitBinarySpatialOperator(BinarySpatialOperator filter, Expression e1,
+            Expression e2, Object extraData) {
+        helper.out = out;
+        return helper.visitBinarySpatialOperator(filter, e1, e2, extraData);
+    }
+
+    GeometryDescriptor getCurrentGeometry() {
+        return currentGeometry;
+    }
+
+    Integer getCurrentSRID() {
+        return currentSRID;
+    }
+
+    SimpleFeatureType getFeatureType() {
+        return featureType;
+    }
+
+    /**
+     * Encodes the filter once {@link FilterOptimizer} has simplified it
+     */
+    @Override
+    public void encode(Filter filter) throws FilterToSQLException {
+        super.encode(FilterOptimizer.optimize(filter));
+    }
+
+    @Override
+    public Object visit(Literal expression, Object context) throws RuntimeException {
+        // huge geometries are read from a temporary table, the dialect uploads them
+        // while binding their id
+        StagedGeometries staging = helper.dialect.getStagedGeometries();
+        Object value = expression.getValue();
+        if (staging != null && currentSRID != null && value instanceof Geometry) {
+            StagedGeometries.Staged staged = staging.stage((Geometry) value, currentSRID);
+            if (staged != null) {
+                try {
+                    out.write("(SELECT \"geom\" FROM \"tmp\".\"" + StagedGeometries.TABLE
+                            + "\" WHERE \"id\" = ");
+                    super.visit(CommonFactoryFinder.getFilterFactory(null).literal(staged), null);
+                    out.write(")");
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                return context;
+            }
+        }
+        return super.visit(expression, context);
+    }
+
+    @Override
+    public Object visit(Or filter, Object extraData) {
+        helper.out = out;
+        try {
+            if (helper.encodeIn(filter, extraData)) {
+                return extraData;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return super.visit(filter, extraData);
+    }
+
+    @Override
+    public Object visit(Function function, Object extraData) throws RuntimeException {
+        helper.out = out;
+        try {
+            encodingFunction = true;
+            boolean encoded = helper.visitFunction(function, extraData);
+            encodingFunction = false;
+
+            if (encoded) {
+                return extraData;
+            } else {
+                return super.visit(function, extraData);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    protected String getFunctionName(Function function) {
+        return helper.getFunctionName(function);
+    }
+
+    @Override
+    protected String cast(String encodedProperty, Class target) throws IOException {
+        return helper.cast(encodedProperty, target);
+    }
+
+    public void setFunctionEncodingEnabled(boolean functionEncodingEnabled) {
+        this.functionEncodingEnabled = functionEncodingEnabled;
+    }
+}
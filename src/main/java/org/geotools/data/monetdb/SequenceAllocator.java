@@ -0,0 +1,206 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2008, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.monetdb;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.geotools.jdbc.JDBCDataStore;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Hands out sequence values from blocks reserved in a single query, so that
+ * inserting features does not take a round trip per feature to obtain its key.
+ * <p>
+ * Blocks are reserved on a connection that commits right away, so the values stay
+ * reserved whatever happens to the transaction they end up in: the connection of the
+ * caller when it is in auto commit mode, otherwise a second connection of the pool if
+ * one is idle. When the pool is saturated the values are fetched in the transaction of
+ * the caller, only as many as needed, since they might be rolled back with it. Values
+ * still in a block when the datastore goes away are lost, leaving a gap in the
+ * sequence. The allocator can be used by any number of threads, reservations are made
+ * without holding any lock.
+ * <p>
+ * Disabled by default (a block size of 1).
+ *
+ * @author Dennis Pallett
+ *
+ * @source $URL$
+ */
+public class SequenceAllocator {
+
+    static final Logger LOGGER = Logging.getLogger(SequenceAllocator.class);
+
+    /** default number of values reserved at once, 1 means no reservation */
+    public static final int DEFAULT_BLOCK_SIZE = 1;
+
+    final MonetDBDialect dialect;
+
+    final int blockSize;
+
+    final ConcurrentMap<String, Block> blocks = new ConcurrentHashMap<String, Block>();
+
+    public SequenceAllocator(MonetDBDialect dialect, int blockSize) {
+        this.dialect = dialect;
+        this.blockSize = Math.max(1, blockSize);
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Returns the next value of the sequence
+     */
+    public Object next(String schemaName, String sequenceName, Connection cx)
+            throws SQLException {
+        return next(schemaName, sequenceName, 1, cx).get(0);
+    }
+
+    /**
+     * Returns the next <code>count</code> values of the sequence
+     */
+    public List<Object> next(String schemaName, String sequenceName, int count, Connection cx)
+            throws SQLException {
+        Block block = getBlock(schemaName, sequenceName);
+        List<Object> values = new ArrayList<Object>(count);
+        block.take(values, count);
+        if (values.size() == count) {
+            return values;
+        }
+        
+        int missing = count - values.size();
+        Connection committing = getCommittingConnection(cx);
+        if (committing != null) {
+            try {
+                // reserve what is missing in one go, at least a block, and share the rest
+                List<Object> reserved = dialect.fetchSequenceValues(schemaName, sequenceName,
+                        Math.max(blockSize, missing), committing);
+                values.addAll(reserved.subList(0, missing));
+                block.add(reserved.subList(missing, reserved.size()));
+                return values;
+            } catch (SQLException e) {
+                if (committing == cx) {
+                    throw e;
+                }
+                LOGGER.log(Level.FINE, "Could not reserve sequence values on a separate "
+                        + "connection, using the one of the caller", e);
+            } finally {
+                if (committing != cx) {
+                    dialect.getDataStore().closeSafe(committing);
+                }
+            }
+        }
+        values.addAll(dialect.fetchSequenceValues(schemaName, sequenceName, missing, cx));
+        return values;
+    }
+
+    Block getBlock(String schemaName, String sequenceName) {
+        String key = schemaName + "." + sequenceName;
+        Block block = blocks.get(key);
+        if (block == null) {
+            Block created = new Block();
+            block = blocks.putIfAbsent(key, created);
+            if (block == null) {
+                block = created;
+            }
+        }
+        return block;
+    }
+
+    /**
+     * Returns a connection in auto commit mode to reserve values on: the one of the
+     * caller if it is, else a new one if the pool can hand one out without waiting, or
+     * null
+     */
+    Connection getCommittingConnection(Connection cx) throws SQLException {
+        if (cx.getAutoCommit()) {
+            return cx;
+        }
+        JDBCDataStore dataStore = dialect.getDataStore();
+        DataSource dataSource = dataStore != null ? dataStore.getDataSource() : null;
+        if (dataSource == null || isSaturated(dataSource)) {
+            return null;
+        }
+        Connection own = null;
+        try {
+            own = dataSource.getConnection();
+            own.setAutoCommit(true);
+            return own;
+        } catch (SQLException e) {
+            LOGGER.log(Level.FINE, "Could not get a separate connection to reserve "
+                    + "sequence values", e);
+            dataStore.closeSafe(own);
+            return null;
+        }
+    }
+
+    /**
+     * Returns whether borrowing a connection from the data source would wait for 
+     * another one to be returned. Pools that cannot be inspected (JNDI ones, for
+     * instance) are assumed not to be saturated.
+     */
+    static boolean isSaturated(DataSource dataSource) {
+        BasicDataSource pool = null;
+        if (dataSource instanceof BasicDataSource) {
+            pool = (BasicDataSource) dataSource;
+        } else {
+            try {
+                if (dataSource.isWrapperFor(BasicDataSource.class)) {
+                    pool = dataSource.unwrap(BasicDataSource.class);
+                }
+            } catch (SQLException e) {
+                // cannot tell
+            }
+        }
+        if (pool == null || pool.getMaxActive() < 0) {
+            return false;
+        }
+        return pool.getNumIdle() == 0 && pool.getNumActive() >= pool.getMaxActive();
+    }
+
+    /**
+     * Forgets the values reserved for all sequences
+     */
+    public void dispose() {
+        blocks.clear();
+    }
+
+    static class Block {
+        final List<Object> values = new ArrayList<Object>();
+
+        synchronized void take(List<Object> target, int count) {
+            int n = Math.min(count - target.size(), values.size());
+            List<Object> taken = values.subList(0, n);
+            target.addAll(taken);
+            taken.clear();
+        }
+
+        synchronized void add(List<Object> reserved) {
+            values.addAll(reserved);
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2008, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.monetdb;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.geotools.data.jdbc.datasource.DataSourceFinder;
+import org.geotools.data.jdbc.datasource.UnWrapper;
+import org.geotools.util.logging.Logging;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Uploads huge filter geometries into a temporary table of the connection running the
+ * query, the filter referring to them through a subselect, so the statement stays
+ * small and the server parses the geometry once per connection instead of once per
+ * query.
+ * <p>
+ * Only prepared statements stage geometries: {@link MonetDBPSFilterToSQL} writes the
+ * subselect with the id as a parameter and adds the {@link Staged} geometry to its
+ * literal values, {@link MonetDBPSDialect} uploads it to the connection of the
+ * statement while binding it. Rows uploaded in auto commit mode are remembered per
+ * physical connection, inside a transaction they are uploaded again for every query,
+ * as a rollback would take them away.
+ *
+ * @author Dennis Pallett
+ *
+ * @source $URL$
+ */
+public class StagedGeometries {
+
+    static final Logger LOGGER = Logging.getLogger(StagedGeometries.class);
+
+    /** default number of points from which geometries are staged, staging is off */
+    public static final int DEFAULT_THRESHOLD = 0;
+
+    /** name of the temporary table, MonetDB keeps those in the tmp schema */
+    static final String TABLE = "filter_geometries";
+
+    /** number of geometries we keep an id for */
+    static final int MAX_GEOMETRIES = 16;
+
+    /** number of rows a connection may collect before its table is emptied */
+    static final int MAX_ROWS = 16;
+
+    final MonetDBDialect dialect;
+
+    final int threshold;
+
+    final AtomicInteger nextId = new AtomicInteger();
+
+    /** ids of the staged geometries, by identity of the geometry and srid */
+    final Map<GeometryEncoderCache.Key, Integer> ids = new LinkedHashMap<GeometryEncoderCache.Key, Integer>(
+            16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<GeometryEncoderCache.Key, Integer> eldest) {
+            return size() > MAX_GEOMETRIES;
+        }
+    };
+
+    /**
+     * ids uploaded to each physical connection in auto commit mode, the pool hands out
+     * a new wrapper every time
+     */
+    final Map<Connection, Set<Integer>> uploaded = Collections
+            .synchronizedMap(new WeakHashMap<Connection, Set<Integer>>());
+
+    public StagedGeometries(MonetDBDialect dialect, int threshold) {
+        this.dialect = dialect;
+        this.threshold = threshold;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Returns the geometry to be read back from the temporary table, or null if the
+     * geometry is to be written inline
+     */
+    public Staged stage(Geometry geometry, int srid) {
+        if (threshold <= 0 || geometry.getNumPoints() < threshold) {
+            return null;
+        }
+
+        GeometryEncoderCache.Key key = new GeometryEncoderCache.Key(geometry,
+                String.valueOf(srid));
+        Integer id;
+        synchronized (ids) {
+            id = ids.get(key);
+            if (id == null) {
+                id = nextId.incrementAndGet();
+                ids.put(key, id);
+            }
+        }
+        return new Staged(id, geometry, srid);
+    }
+
+    /**
+     * Uploads the staged geometry into the temporary table of the connection the
+     * statement reading it runs on, unless it is there already
+     */
+    void upload(Staged staged, Connection cx) throws SQLException {
+        boolean autoCommit = cx.getAutoCommit();
+        Connection physical = autoCommit ? unwrap(cx) : null;
+        Set<Integer> done = autoCommit ? uploaded.get(physical) : null;
+        if (done == null) {
+            done = new HashSet<Integer>();
+            if (autoCommit) {
+                uploaded.put(physical, done);
+            }
+        }
+        if (done.contains(staged.id)) {
+            return;
+        }
+
+        createTable(cx);
+        if (done.size() >= MAX_ROWS) {
+            // forget about the geometries of earlier queries
+            execute(cx, "DELETE FROM \"tmp\".\"" + TABLE + "\"");
+            done.clear();
+        }
+
+        // a connection handed out again by the pool may have it already
+        PreparedStatement delete = cx.prepareStatement("DELETE FROM \"tmp\".\"" + TABLE
+                + "\" WHERE \"id\" = ?");
+        try {
+            delete.setInt(1, staged.id);
+            delete.executeUpdate();
+        } finally {
+            dialect.getDataStore().closeSafe(delete);
+        }
+
+        String sql = "INSERT INTO \"tmp\".\"" + TABLE + "\" VALUES (?, GeomFromText(?, "
+                + staged.srid + "))";
+        LOGGER.fine(sql);
+        PreparedStatement insert = cx.prepareStatement(sql);
+        try {
+            insert.setInt(1, staged.id);
+            insert.setString(2, GeometryEncoderCache.toText(staged.geometry,
+                    dialect.getLiteralPrecision()));
+            insert.executeUpdate();
+        } finally {
+            dialect.getDataStore().closeSafe(insert);
+        }
+        done.add(staged.id);
+    }
+
+    /**
+     * Returns the connection of the driver behind the one handed out by the pool, or the
+     * connection itself if it cannot be unwrapped
+     */
+    static Connection unwrap(Connection cx) {
+        UnWrapper unwrapper = DataSourceFinder.getUnWrapper(cx);
+        if (unwrapper != null) {
+            try {
+                Connection physical = unwrapper.unwrap(cx);
+                if (physical != null) {
+                    return physical;
+                }
+            } catch (IllegalArgumentException e) {
+                // the pool does not give access to it
+            }
+        }
+        return cx;
+    }
+
+    /**
+     * Creates the temporary table of the connection unless it already has it, its
+     * rows survive commits
+     */
+    void createTable(Connection cx) throws SQLException {
+        String sql = "SELECT t.id FROM sys.tables t, sys.schemas s WHERE t.schema_id = s.id"
+                + " AND s.name = 'tmp' AND t.name = '" + TABLE + "'";
+        LOGGER.fine(sql);
+        Statement st = cx.createStatement();
+        try {
+            ResultSet rs = st.executeQuery(sql);
+            try {
+                if (rs.next()) {
+                    return;
+                }
+            } finally {
+                dialect.getDataStore().closeSafe(rs);
+            }
+        } finally {
+            dialect.getDataStore().closeSafe(st);
+        }
+
+        execute(cx, "CREATE LOCAL TEMPORARY TABLE \"" + TABLE + "\" (\"id\" INT, "
+                + "\"geom\" GEOMETRY) ON COMMIT PRESERVE ROWS");
+    }
+
+    void execute(Connection cx, String sql) throws SQLException {
+        LOGGER.fine(sql);
+        Statement st = cx.createStatement();
+        try {
+            st.execute(sql);
+        } finally {
+            dialect.getDataStore().closeSafe(st);
+        }
+    }
+
+    /**
+     * Forgets about the staged geometries and the connections they were uploaded to
+     */
+    public void dispose() {
+        synchronized (ids) {
+            ids.clear();
+        }
+        uploaded.clear();
+    }
+
+    /**
+     * A geometry read from the temporary table, bound to the statement as its id
+     */
+    public static class Staged {
+        final int id;
+        final Geometry geometry;
+        final int srid;
+
+        Staged(int id, Geometry geometry, int srid) {
+            this.id = id;
+            this.geometry = geometry;
+            this.srid = srid;
+        }
+    }
+}
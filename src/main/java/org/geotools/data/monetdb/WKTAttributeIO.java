@@ -28,13 +28,13 @@ import org.geotools.data.DataSourceException;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.io.ByteArrayInStream;
+import com.vividsolutions.jts.io.WKBReader;
 import com.vividsolutions.jts.io.WKBWriter;
-import com.vividsolutions.jts.io.WKTReader;
 
 
 
 /**
- * An attribute IO implementation that can manage the WKT
+ * An attribute IO implementation that can manage the WKT and WKB
  *
  * @author Dennis Pallett
  *
@@ -42,7 +42,8 @@ import com.vividsolutions.jts.io.WKTReader;
  * @source $URL$
  */
 public class WKTAttributeIO {
-    WKTReader wktReader;
+    WKTParser wktParser;
+    WKBReader wkbReader;
     ByteArrayInStream inStream = new ByteArrayInStream(new byte[0]);
     GeometryFactory gf;
 
@@ -51,11 +52,37 @@ public class WKTAttributeIO {
     }
     
     public WKTAttributeIO(GeometryFactory gf) {
-    	wktReader = new WKTReader(gf);
+    	setGeometryFactory(gf);
     }
     
+    /**
+     * Makes the geometries be built by the factory, keeping the buffers of the parser
+     */
     public void setGeometryFactory(GeometryFactory gf) {
-    	wktReader = new WKTReader(gf);
+    	this.gf = gf;
+    	if (wktParser == null) {
+    	    wktParser = new WKTParser(gf);
+    	} else {
+    	    wktParser.setGeometryFactory(gf);
+    	}
+    	wkbReader = new WKBReader(gf);
+    }
+    
+    public GeometryFactory getGeometryFactory() {
+        return gf;
+    }
+    
+    public double getDecimationDistance() {
+        return wktParser.getDecimationDistance();
+    }
+    
+    /**
+     * Drops vertices closer than the distance to the previous one from the geometries
+     * read as WKT, while they are parsed (see {@link WKTParser#setDecimationDistance}).
+     * 0 keeps them all. WKB is decoded as is, decimated selects use WKT instead.
+     */
+    public void setDecimationDistance(double distance) {
+        wktParser.setDecimationDistance(distance);
     }
 
     /**
@@ -76,7 +103,7 @@ public class WKTAttributeIO {
         if (wkt == null)  //DJB: null value from database --> null geometry (the same behavior as WKT).  NOTE: sending back a GEOMETRYCOLLECTION(EMPTY) is also a possibility, but this is not the same as NULL
             return null;
         try {
-            return wktReader.read(wkt);
+            return wktParser.read(wkt);
         } catch (Exception e) {
             throw new DataSourceException("An exception occurred while parsing WKB data", e);
         }
@@ -112,6 +139,52 @@ public class WKTAttributeIO {
         }
     }
 
+    /**
+     * This method will convert a Well Known Binary representation to a
+     * JTS Geometry object, reusing the same reader and input stream for
+     * every row.
+     *
+     * @param wkb the wkb bytes
+     *
+     * @return a JTS Geometry object that is equivalent to the WKB
+     *         representation passed in by param wkb
+     *
+     * @throws IOException if the parser could not parse the WKB representation.
+     */
+    private Geometry wkb2Geometry(byte[] wkb)
+        throws IOException {
+        if (wkb == null)
+            return null;
+        try {
+            inStream.setBytes(wkb);
+            return wkbReader.read(inStream);
+        } catch (Exception e) {
+            throw new DataSourceException("An exception occurred while parsing WKB data", e);
+        }
+    }
+
+    /**
+     * Reads a geometry that has been selected as WKB
+     */
+    public Object readBinary(ResultSet rs, String columnName) throws IOException {
+        try {
+            return wkb2Geometry(rs.getBytes(columnName));
+        } catch (SQLException e) {
+            throw new DataSourceException("SQL exception occurred while reading the geometry.", e);
+        }
+    }
+
+    /**
+     * Reads a geometry that has been selected as WKB
+     */
+    public Object readBinary(ResultSet rs, int columnIndex) throws IOException {
+        try {
+            return wkb2Geometry(rs.getBytes(columnIndex));
+        } catch (SQLException e) {
+            throw new DataSourceException("SQL exception occurred while reading the geometry.", e);
+        }
+    }
+
     /**
      * @see org.geotools.data.jdbc.attributeio.AttributeIO#write(java.sql.PreparedStatement, int, java.lang.Object)
      * @TODO fix for wkt
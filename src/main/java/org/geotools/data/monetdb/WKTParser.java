@@ -0,0 +1,631 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2008, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+
+package org.geotools.data.monetdb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.CoordinateSequenceFactory;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.PrecisionModel;
+import com.vividsolutions.jts.io.ParseException;
+
+/**
+ * A WKT parser tuned for decoding the geometries MonetDB returns.
+ * <p>
+ * Unlike the JTS <code>WKTReader</code> it does not go through a
+ * <code>StreamTokenizer</code>: the text is scanned directly from a reusable
+ * <code>char[]</code>, numbers are parsed in place without creating substrings and
+ * ordinates are collected in a reusable buffer before being written straight into
+ * a {@link CoordinateSequence} from the factory's sequence factory, so no
+ * intermediate {@link Coordinate} objects are created.
+ * <p>
+ * The produced geometries are the same as the ones built by the JTS reader,
+ * including the application of the factory precision model. Instances are not
+ * thread safe.
+ *
+ * @author Dennis Pallett
+ *
+ * @source $URL$
+ */
+public class WKTParser {
+
+    /** Powers of ten that can be represented exactly as doubles */
+    private static final double[] POW10 = new double[23];
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+    }
+
+    /** Max number of significant digits that fit in a long mantissa */
+    private static final int MAX_MANTISSA_DIGITS = 18;
+
+    /** Max number of significant digits that can be represented exactly as a double */
+    private static final int MAX_EXACT_DIGITS = 15;
+
+    GeometryFactory factory;
+    PrecisionModel precisionModel;
+    CoordinateSequenceFactory csFactory;
+
+    /** the text being parsed */
+    char[] text = new char[256];
+    int pos;
+    int end;
+
+    /** bounds of the last word read */
+    int wordStart;
+    int wordEnd;
+
+    /** x, y, z triplets of the sequence being read */
+    double[] ordinates = new double[3 * 256];
+    int count;
+    boolean hasZ;
+
+    /** vertices closer than this to the previous one are dropped, 0 keeps them all */
+    double decimationDistance;
+
+    /** whether the last coordinate read has been dropped, it is still in the buffer */
+    boolean lastDropped;
+
+    public WKTParser() {
+        this(new GeometryFactory());
+    }
+
+    public WKTParser(GeometryFactory factory) {
+        setGeometryFactory(factory);
+    }
+
+    public void setGeometryFactory(GeometryFactory factory) {
+        this.factory = factory;
+        this.precisionModel = factory.getPrecisionModel();
+        this.csFactory = factory.getCoordinateSequenceFactory();
+    }
+
+    public GeometryFactory getGeometryFactory() {
+        return factory;
+    }
+
+    public double getDecimationDistance() {
+        return decimationDistance;
+    }
+
+    /**
+     * Makes the parser drop the vertices of lines and rings that are closer than the
+     * distance (euclidean, in the plane) to the previous vertex it kept. The first and 
+     * last vertex of every sequence are always kept, rings that would be left with less
+     * than 4 vertices are kept whole. 0 disables the decimation.
+     */
+    public void setDecimationDistance(double decimationDistance) {
+        this.decimationDistance = decimationDistance;
+    }
+
+    /**
+     * Parses a WKT string, the characters are copied into a buffer that is reused
+     * across calls
+     */
+    public Geometry read(String wkt) throws ParseException {
+        int length = wkt.length();
+        if (text.length < length) {
+            text = new char[Math.max(length, text.length * 2)];
+        }
+        wkt.getChars(0, length, text, 0);
+        return parse(text, 0, length);
+    }
+
+    /**
+     * Parses the WKT contained in the specified portion of a char array
+     */
+    public Geometry read(char[] chars, int offset, int length) throws ParseException {
+        return parse(chars, offset, offset + length);
+    }
+
+    private Geometry parse(char[] chars, int start, int end) throws ParseException {
+        char[] buffer = this.text;
+        this.text = chars;
+        this.pos = start;
+        this.end = end;
+        this.count = 0;
+        this.hasZ = false;
+        this.lastDropped = false;
+        try {
+            return readGeometryTaggedText();
+        } finally {
+            // keep the reusable buffer around, not the caller's array
+            this.text = buffer;
+        }
+    }
+
+    Geometry readGeometryTaggedText() throws ParseException {
+        readWord();
+
+        if (isWord("POINT")) {
+            return readPointText();
+        } else if (isWord("LINESTRING")) {
+            return readLineStringText();
+        } else if (isWord("LINEARRING")) {
+            return readLinearRingText();
+        } else if (isWord("POLYGON")) {
+            return readPolygonText();
+        } else if (isWord("MULTIPOINT")) {
+            return readMultiPointText();
+        } else if (isWord("MULTILINESTRING")) {
+            return readMultiLineStringText();
+        } else if (isWord("MULTIPOLYGON")) {
+            return readMultiPolygonText();
+        } else if (isWord("GEOMETRYCOLLECTION")) {
+            return readGeometryCollectionText();
+        }
+        throw parseError("Unknown geometry type: " + new String(text, wordStart, wordEnd - wordStart));
+    }
+
+    Point readPointText() throws ParseException {
+        if (readEmptyOrOpener()) {
+            return factory.createPoint((Coordinate) null);
+        }
+        readCoordinate();
+        readCloser();
+        return factory.createPoint(toSequence());
+    }
+
+    LineString readLineStringText() throws ParseException {
+        if (readEmptyOrOpener()) {
+            return factory.createLineString(new Coordinate[] {});
+        }
+        readCoordinates();
+        return factory.createLineString(toSequence());
+    }
+
+    LinearRing readLinearRingText() throws ParseException {
+        if (readEmptyOrOpener()) {
+            return factory.createLinearRing(new Coordinate[] {});
+        }
+        // read whole and decimated afterwards, a ring smaller than the distance would
+        // collapse and is kept as it is
+        double distance = decimationDistance;
+        decimationDistance = 0;
+        try {
+            readCoordinates();
+        } finally {
+            decimationDistance = distance;
+        }
+        if (distance > 0) {
+            decimateRing();
+        }
+        return factory.createLinearRing(toSequence());
+    }
+
+    /**
+     * Drops the buffered vertices closer than the decimation distance to the previous
+     * vertex kept, unless less than 4 vertices would be left. The first and last 
+     * vertex are always kept.
+     */
+    void decimateRing() {
+        double limit = decimationDistance * decimationDistance;
+        if (count < 4) {
+            return;
+        }
+        int kept = 1;
+        for (int i = 1, previous = 0; i < count - 1; i++) {
+            if (squaredDistance(i, previous) >= limit) {
+                kept++;
+                previous = i;
+            }
+        }
+        if (kept + 1 < 4) {
+            return;
+        }
+
+        int target = 1;
+        for (int i = 1; i < count - 1; i++) {
+            if (squaredDistance(i, target - 1) >= limit) {
+                copyCoordinate(i, target++);
+            }
+        }
+        copyCoordinate(count - 1, target);
+        count = target + 1;
+    }
+
+    Polygon readPolygonText() throws ParseException {
+        if (readEmptyOrOpener()) {
+            return factory.createPolygon(factory.createLinearRing(new Coordinate[] {}),
+                    new LinearRing[] {});
+        }
+        LinearRing shell = readLinearRingText();
+        List<LinearRing> holes = null;
+        while (readCloserOrComma()) {
+            if (holes == null) {
+                holes = new ArrayList<LinearRing>();
+            }
+            holes.add(readLinearRingText());
+        }
+        LinearRing[] holeArray = holes == null ? new LinearRing[0]
+                : holes.toArray(new LinearRing[holes.size()]);
+        return factory.createPolygon(shell, holeArray);
+    }
+
+    Geometry readMultiPointText() throws ParseException {
+        if (readEmptyOrOpener()) {
+            return factory.createMultiPoint(new Point[0]);
+        }
+        List<Point> points = new ArrayList<Point>();
+        skipWhitespace();
+        if (pos < end && text[pos] != '(' && !isLetter(text[pos])) {
+            // old style syntax without parentheses around the points
+            do {
+                readCoordinate();
+                points.add(factory.createPoint(toSequence()));
+            } while (readCloserOrComma());
+        } else {
+            do {
+                points.add(readPointText());
+            } while (readCloserOrComma());
+        }
+        return factory.createMultiPoint(points.toArray(new Point[points.size()]));
+    }
+
+    Geometry readMultiLineStringText() throws ParseException {
+        if (readEmptyOrOpener()) {
+            return factory.createMultiLineString(new LineString[0]);
+        }
+        List<LineString> lines = new ArrayList<LineString>();
+        do {
+            lines.add(readLineStringText());
+        } while (readCloserOrComma());
+        return factory.createMultiLineString(lines.toArray(new LineString[lines.size()]));
+    }
+
+    Geometry readMultiPolygonText() throws ParseException {
+        if (readEmptyOrOpener()) {
+            return factory.createMultiPolygon(new Polygon[0]);
+        }
+        List<Polygon> polygons = new ArrayList<Polygon>();
+        do {
+            polygons.add(readPolygonText());
+        } while (readCloserOrComma());
+        return factory.createMultiPolygon(polygons.toArray(new Polygon[polygons.size()]));
+    }
+
+    Geometry readGeometryCollectionText() throws ParseException {
+        if (readEmptyOrOpener()) {
+            return factory.createGeometryCollection(new Geometry[0]);
+        }
+        List<Geometry> geometries = new ArrayList<Geometry>();
+        do {
+            geometries.add(readGeometryTaggedText());
+        } while (readCloserOrComma());
+        return factory.createGeometryCollection(geometries.toArray(new Geometry[geometries.size()]));
+    }
+
+    /**
+     * Reads a comma separated coordinate list up to and including the closing parenthesis
+     */
+    void readCoordinates() throws ParseException {
+        do {
+            readCoordinate();
+        } while (readCloserOrComma());
+    }
+
+    /**
+     * Reads a single coordinate into the ordinate buffer, when decimating it stays
+     * past the end of the buffer if it is too close to the previous one
+     */
+    void readCoordinate() throws ParseException {
+        int offset = count * 3;
+        if (offset + 3 > ordinates.length) {
+            double[] grown = new double[ordinates.length * 2];
+            System.arraycopy(ordinates, 0, grown, 0, offset);
+            ordinates = grown;
+        }
+        ordinates[offset] = precisionModel.makePrecise(readNumber());
+        ordinates[offset + 1] = precisionModel.makePrecise(readNumber());
+
+        skipWhitespace();
+        if (pos < end && isNumberStart(text[pos])) {
+            ordinates[offset + 2] = readNumber();
+            hasZ = true;
+        } else {
+            ordinates[offset + 2] = Double.NaN;
+        }
+
+        if (decimationDistance > 0 && count > 0
+                && squaredDistance(offset) < decimationDistance * decimationDistance) {
+            lastDropped = true;
+        } else {
+            lastDropped = false;
+            count++;
+        }
+    }
+
+    /**
+     * Returns the squared distance in the plane between the coordinate at the offset
+     * and the one before it in the buffer
+     */
+    double squaredDistance(int offset) {
+        double dx = ordinates[offset] - ordinates[offset - 3];
+        double dy = ordinates[offset + 1] - ordinates[offset - 2];
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Returns the squared distance in the plane between two coordinates of the buffer
+     */
+    double squaredDistance(int i, int j) {
+        double dx = ordinates[i * 3] - ordinates[j * 3];
+        double dy = ordinates[i * 3 + 1] - ordinates[j * 3 + 1];
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Adds the last coordinate read to the buffer if it has been dropped, as the end 
+     * of a sequence is always kept
+     */
+    void keepLast() {
+        if (lastDropped) {
+            count++;
+            lastDropped = false;
+        }
+    }
+
+    void copyCoordinate(int from, int target) {
+        if (target * 3 + 3 > ordinates.length) {
+            double[] grown = new double[ordinates.length * 2];
+            System.arraycopy(ordinates, 0, grown, 0, ordinates.length);
+            ordinates = grown;
+        }
+        System.arraycopy(ordinates, from * 3, ordinates, target * 3, 3);
+    }
+
+    /**
+     * Turns the buffered ordinates into a coordinate sequence and resets the buffer
+     */
+    CoordinateSequence toSequence() {
+        keepLast();
+        int dimension = hasZ ? 3 : 2;
+        CoordinateSequence cs = csFactory.create(count, dimension);
+        boolean writeZ = hasZ && cs.getDimension() > 2;
+        for (int i = 0, offset = 0; i < count; i++, offset += 3) {
+            cs.setOrdinate(i, CoordinateSequence.X, ordinates[offset]);
+            cs.setOrdinate(i, CoordinateSequence.Y, ordinates[offset + 1]);
+            if (writeZ) {
+                cs.setOrdinate(i, CoordinateSequence.Z, ordinates[offset + 2]);
+            }
+        }
+        count = 0;
+        hasZ = false;
+        return cs;
+    }
+
+    /**
+     * Parses a number in place. Numbers with up to 15 significant digits and a small
+     * exponent, which covers the coordinates MonetDB writes, are computed directly
+     * from the digits with a single exact operation. Anything else is handed to
+     * {@link Double#parseDouble(String)}, which rounds correctly in all cases.
+     */
+    double readNumber() throws ParseException {
+        skipWhitespace();
+        int start = pos;
+
+        boolean negative = false;
+        if (pos < end && (text[pos] == '-' || text[pos] == '+')) {
+            negative = text[pos] == '-';
+            pos++;
+        }
+
+        // the mantissa is accumulated as a long
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean seenDigit = false;
+        boolean truncated = false;
+
+        // integer part
+        while (pos < end && isDigit(text[pos])) {
+            int d = text[pos++] - '0';
+            seenDigit = true;
+            if (digits < MAX_MANTISSA_DIGITS) {
+                mantissa = mantissa * 10 + d;
+                if (mantissa != 0) {
+                    digits++;
+                }
+            } else {
+                truncated = true;
+            }
+        }
+
+        // fraction
+        if (pos < end && text[pos] == '.') {
+            pos++;
+            while (pos < end && isDigit(text[pos])) {
+                int d = text[pos++] - '0';
+                seenDigit = true;
+                if (digits < MAX_MANTISSA_DIGITS) {
+                    mantissa = mantissa * 10 + d;
+                    if (mantissa != 0) {
+                        digits++;
+                    }
+                    exponent--;
+                } else {
+                    truncated = true;
+                }
+            }
+        }
+
+        if (!seenDigit) {
+            if (matchesIgnoreCase(pos, "NaN")) {
+                pos += 3;
+                return Double.NaN;
+            }
+            throw parseError("Expected number");
+        }
+
+        // exponent
+        if (pos < end && (text[pos] == 'e' || text[pos] == 'E')) {
+            pos++;
+            boolean negativeExp = false;
+            if (pos < end && (text[pos] == '-' || text[pos] == '+')) {
+                negativeExp = text[pos] == '-';
+                pos++;
+            }
+            if (pos >= end || !isDigit(text[pos])) {
+                throw parseError("Expected exponent");
+            }
+            int e = 0;
+            while (pos < end && isDigit(text[pos])) {
+                if (e < 10000) {
+                    e = e * 10 + (text[pos] - '0');
+                }
+                pos++;
+            }
+            exponent += negativeExp ? -e : e;
+        }
+
+        if (!truncated) {
+            if (mantissa == 0) {
+                return negative ? -0d : 0d;
+            }
+            if (digits <= MAX_EXACT_DIGITS && exponent >= -22 && exponent <= 22) {
+                // mantissa and power of ten are both exact, so a single operation
+                // gives the correctly rounded result
+                double value = mantissa;
+                if (exponent < 0) {
+                    value /= POW10[-exponent];
+                } else if (exponent > 0) {
+                    value *= POW10[exponent];
+                }
+                return negative ? -value : value;
+            }
+        }
+
+        try {
+            return Double.parseDouble(new String(text, start, pos - start));
+        } catch (NumberFormatException e) {
+            throw parseError("Invalid number");
+        }
+    }
+
+    /**
+     * Reads the next word, its bounds are kept in wordStart and wordEnd
+     */
+    void readWord() throws ParseException {
+        skipWhitespace();
+        int start = pos;
+        while (pos < end && isLetter(text[pos])) {
+            pos++;
+        }
+        if (start == pos) {
+            throw parseError("Expected word");
+        }
+        wordStart = start;
+        wordEnd = pos;
+    }
+
+    boolean isWord(String word) {
+        return wordEnd - wordStart == word.length() && matchesIgnoreCase(wordStart, word);
+    }
+
+    /**
+     * Consumes either the EMPTY keyword, in which case true is returned, or an
+     * opening parenthesis. An optional Z, M or ZM dimension tag is skipped.
+     */
+    boolean readEmptyOrOpener() throws ParseException {
+        skipWhitespace();
+        if (pos < end && isLetter(text[pos])) {
+            readWord();
+            if (isWord("Z") || isWord("M") || isWord("ZM")) {
+                return readEmptyOrOpener();
+            }
+            if (isWord("EMPTY")) {
+                return true;
+            }
+            throw parseError("Expected EMPTY or (");
+        }
+        if (pos < end && text[pos] == '(') {
+            pos++;
+            return false;
+        }
+        throw parseError("Expected EMPTY or (");
+    }
+
+    /**
+     * Consumes either a comma, returning true, or a closing parenthesis
+     */
+    boolean readCloserOrComma() throws ParseException {
+        skipWhitespace();
+        if (pos < end) {
+            char c = text[pos++];
+            if (c == ',') {
+                return true;
+            } else if (c == ')') {
+                return false;
+            }
+        }
+        throw parseError("Expected , or )");
+    }
+
+    void readCloser() throws ParseException {
+        skipWhitespace();
+        if (pos < end && text[pos] == ')') {
+            pos++;
+            return;
+        }
+        throw parseError("Expected )");
+    }
+
+    void skipWhitespace() {
+        while (pos < end && text[pos] <= ' ') {
+            pos++;
+        }
+    }
+
+    boolean matchesIgnoreCase(int offset, String word) {
+        if (offset + word.length() > end) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            if (Character.toUpperCase(text[offset + i]) != Character.toUpperCase(word.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    static boolean isNumberStart(char c) {
+        return isDigit(c) || c == '-' || c == '+' || c == '.' || c == 'N' || c == 'n';
+    }
+
+    ParseException parseError(String message) {
+        return new ParseException(message + " at position " + pos);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2008, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.monetdb;
+
+import java.sql.Connection;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the fetch sizes picked by {@link AdaptiveFetchSize}
+ *
+ * @source $URL$
+ */
+public class AdaptiveFetchSizeTest extends TestCase {
+
+    static final String STORAGE = "FROM sys.storage";
+
+    MockJDBC jdbc;
+    Connection cx;
+    AdaptiveFetchSize fetchSize;
+
+    @Override
+    protected void setUp() throws Exception {
+        jdbc = new MockJDBC();
+        cx = jdbc.getConnection();
+        fetchSize = new AdaptiveFetchSize(1000000);
+    }
+
+    public void testRowWidth() {
+        // 10 rows taking 1000 bytes of columns and heaps
+        jdbc.result(STORAGE, new Object[] { 1000L, 10L });
+        assertEquals(100, fetchSize.getRowWidth(null, "roads", cx));
+
+        String sql = jdbc.executed.get(0);
+        assertTrue(sql, sql.contains("SUM(\"columnsize\" + \"heapsize\"), MAX(\"count\")"));
+        assertTrue(sql, sql.contains("\"schema\" = 'sys' AND \"table\" = 'roads'"));
+    }
+
+    public void testEmptyTable() {
+        jdbc.result(STORAGE, new Object[] { 0L, 0L });
+        assertEquals(0, fetchSize.getRowWidth("geo", "roads", cx));
+        assertEquals(0, fetchSize.getFetchSize("geo", "roads", cx));
+    }
+
+    public void testFetchSize() {
+        jdbc.result(STORAGE, new Object[] { 1000L, 10L });
+        // rows take about twice their storage size on the wire
+        assertEquals(1000000 / (100 * AdaptiveFetchSize.TRANSFER_FACTOR),
+                fetchSize.getFetchSize("geo", "roads", cx));
+    }
+
+    public void testClamping() {
+        assertEquals(AdaptiveFetchSize.MAX_FETCH_SIZE, fetchSize.fetchSize(1));
+        assertEquals(AdaptiveFetchSize.MIN_FETCH_SIZE, fetchSize.fetchSize(1000000));
+        assertEquals(AdaptiveFetchSize.MIN_FETCH_SIZE, fetchSize.fetchSize(Integer.MAX_VALUE));
+    }
+
+    public void testCache() {
+        jdbc.result(STORAGE, new Object[] { 1000L, 10L });
+        fetchSize.getRowWidth("geo", "roads", cx);
+        fetchSize.getRowWidth("geo", "roads", cx);
+        assertEquals(1, jdbc.count(STORAGE));
+
+        // cached per table
+        fetchSize.getRowWidth("geo", "rivers", cx);
+        assertEquals(2, jdbc.count(STORAGE));
+
+        fetchSize.invalidate("geo", "roads");
+        fetchSize.getRowWidth("geo", "roads", cx);
+        assertEquals(3, jdbc.count(STORAGE));
+
+        // expired
+        fetchSize.widths.put("geo.roads", new AdaptiveFetchSize.RowWidth(100,
+                System.currentTimeMillis() - AdaptiveFetchSize.TTL - 1));
+        fetchSize.getRowWidth("geo", "roads", cx);
+        assertEquals(4, jdbc.count(STORAGE));
+    }
+
+    public void testNoQueryInTransaction() throws Exception {
+        cx.setAutoCommit(false);
+        assertEquals(0, fetchSize.getFetchSize("geo", "roads", cx));
+        assertEquals(0, jdbc.executed.size());
+    }
+
+    public void testStorageUnavailable() {
+        jdbc.fail(STORAGE);
+        assertEquals(0, fetchSize.getFetchSize("geo", "roads", cx));
+        assertFalse(fetchSize.available);
+
+        // not asked again
+        fetchSize.getFetchSize("geo", "rivers", cx);
+        assertEquals(1, jdbc.executed.size());
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2008, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.monetdb;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+
+import junit.framework.TestCase;
+
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.jdbc.ColumnMetadata;
+import org.geotools.jdbc.JDBCDataStore;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ * Checks when {@link CatalogCache} loads the catalog, and how the dialect keeps it up
+ * to date and does without it
+ *
+ * @source $URL$
+ */
+public class CatalogCacheTest extends TestCase {
+
+    static final String COLUMNS = "SELECT table_name, column_name, udt_name";
+
+    static final String GEOMETRY_COLUMNS = "SELECT f_table_name, f_geometry_column, srid";
+
+    MockJDBC jdbc;
+    Connection cx;
+    CatalogCache cache;
+    MonetDBDialect dialect;
+
+    @Override
+    protected void setUp() throws Exception {
+        jdbc = new MockJDBC();
+        jdbc.result(COLUMNS, new Object[] { "roads", "fid", "int" },
+                new Object[] { "roads", "geom", "geometry" });
+        jdbc.result(GEOMETRY_COLUMNS, new Object[] { "roads", "geom", 4326 });
+        cx = jdbc.getConnection();
+        cache = new CatalogCache();
+
+        JDBCDataStore store = new JDBCDataStore();
+        dialect = new MonetDBDialect(store);
+        store.setSQLDialect(dialect);
+        dialect.setCatalogCache(cache);
+    }
+
+    /**
+     * Ages the cached information of a schema
+     */
+    void age(String schema, long age) {
+        CatalogCache.SchemaInfo info = cache.schemas.get(schema);
+        CatalogCache.SchemaInfo aged = new CatalogCache.SchemaInfo(info.time - age);
+        aged.tables.addAll(info.tables);
+        aged.typeNames.putAll(info.typeNames);
+        aged.srids.putAll(info.srids);
+        cache.schemas.put(schema, aged);
+    }
+
+    public void testLoad() throws Exception {
+        assertEquals("geometry", cache.getTypeName("geo", "roads", "geom", cx));
+        assertEquals(Integer.valueOf(4326), cache.getSRID("geo", "roads", "geom", cx));
+        assertEquals("int", cache.getTypeName("geo", "roads", "fid", cx));
+        assertNull(cache.getTypeName("geo", "roads", "name", cx));
+
+        // one query per catalog table for the whole schema
+        assertEquals(1, jdbc.count(COLUMNS));
+        assertEquals(1, jdbc.count(GEOMETRY_COLUMNS));
+        assertTrue(jdbc.executed.get(0).endsWith("WHERE table_schema = 'geo'"));
+    }
+
+    public void testTimeToLive() throws Exception {
+        cache.getTypeName("geo", "roads", "geom", cx);
+        age("geo", CatalogCache.DEFAULT_TTL - 10000);
+        cache.getTypeName("geo", "roads", "geom", cx);
+        assertEquals(1, jdbc.count(COLUMNS));
+
+        age("geo", 20000);
+        cache.getTypeName("geo", "roads", "geom", cx);
+        assertEquals(2, jdbc.count(COLUMNS));
+    }
+
+    public void testUnknownTable() throws Exception {
+        cache.getTypeName("geo", "roads", "geom", cx);
+
+        // just loaded, the table does not exist
+        assertNull(cache.getTypeName("geo", "rivers", "geom", cx));
+        assertEquals(1, jdbc.count(COLUMNS));
+
+        // might have been created since
+        age("geo", CatalogCache.MIN_RELOAD_INTERVAL + 1);
+        cache.getTypeName("geo", "rivers", "geom", cx);
+        assertEquals(2, jdbc.count(COLUMNS));
+
+        // and not again within a second
+        cache.getTypeName("geo", "rivers", "geom", cx);
+        assertEquals(2, jdbc.count(COLUMNS));
+    }
+
+    public void testPostCreateTable() throws Exception {
+        cache.getTypeName("geo", "roads", "geom", cx);
+
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("rivers");
+        tb.add("name", String.class);
+        dialect.postCreateTable("geo", tb.buildFeatureType(), cx);
+        assertFalse(cache.schemas.containsKey("geo"));
+
+        cache.getTypeName("geo", "rivers", "name", cx);
+        assertEquals(2, jdbc.count(COLUMNS));
+    }
+
+    public void testPostDropTable() throws Exception {
+        cache.getTypeName("geo", "roads", "geom", cx);
+
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("roads");
+        tb.add("fid", Integer.class);
+        SimpleFeatureType roads = tb.buildFeatureType();
+        dialect.postDropTable("geo", roads, cx);
+
+        CatalogCache.SchemaInfo info = cache.schemas.get("geo");
+        assertFalse(info.tables.contains("roads"));
+        assertTrue(info.typeNames.isEmpty());
+        assertTrue(info.srids.isEmpty());
+    }
+
+    public void testPerColumnFallback() throws Exception {
+        jdbc.fail(COLUMNS);
+        jdbc.result("SELECT udt_name", new Object[] { "geometry" });
+
+        ResultSet column = jdbc.createResultSet(null, new Object[][] { { "roads", "geom",
+                "geo" } }, "TABLE_NAME", "COLUMN_NAME", "TABLE_SCHEM");
+        column.next();
+        ColumnMetadata metadata = new ColumnMetadata();
+        dialect.handleUserDefinedType(column, metadata, cx);
+
+        assertEquals("geometry", metadata.getTypeName());
+        assertFalse(cache.isAvailable());
+        String sql = jdbc.executed.get(jdbc.executed.size() - 1);
+        assertTrue(sql, sql.contains("AND column_name = 'geom'"));
+
+        // the cache is not asked again
+        dialect.handleUserDefinedType(column, metadata, cx);
+        assertEquals(1, jdbc.count(COLUMNS));
+        assertEquals(2, jdbc.count("SELECT udt_name"));
+    }
+}
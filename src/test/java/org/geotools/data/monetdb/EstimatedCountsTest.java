@@ -0,0 +1,176 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2008, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.monetdb;
+
+import java.sql.Connection;
+
+import junit.framework.TestCase;
+
+import org.geotools.data.Query;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.jdbc.JDBCDataStore;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.spatial.BBOX;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Checks which counts {@link EstimatedCounts} answers from the catalog, and how long it
+ * trusts them
+ *
+ * @source $URL$
+ */
+public class EstimatedCountsTest extends TestCase {
+
+    static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2(null);
+
+    static final String STORAGE = "FROM sys.storage";
+
+    static final String STATISTICS = "FROM sys.statistics";
+
+    static final String BOUNDS = "MIN(ST_XMin(";
+
+    MockJDBC jdbc;
+    Connection cx;
+    EstimatedCounts counts;
+    SimpleFeatureType roads;
+
+    @Override
+    protected void setUp() throws Exception {
+        jdbc = new MockJDBC();
+        jdbc.result(STORAGE, new Object[] { 42L });
+        jdbc.result(BOUNDS, new Object[] { 0d, 0d, 10d, 10d });
+        cx = jdbc.getConnection();
+
+        JDBCDataStore store = new JDBCDataStore();
+        MonetDBDialect dialect = new MonetDBDialect(store);
+        store.setSQLDialect(dialect);
+        store.setDataSource(jdbc.getDataSource());
+        store.setDatabaseSchema("geo");
+        counts = new EstimatedCounts(dialect);
+
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("roads");
+        tb.add("name", String.class);
+        tb.nillable(false);
+        tb.add("geom", Polygon.class);
+        tb.nillable(true);
+        tb.add("centroid", Polygon.class);
+        roads = tb.buildFeatureType();
+    }
+
+    Query query(BBOX filter) {
+        Query query = new Query("roads");
+        if (filter != null) {
+            query.setFilter(filter);
+        }
+        return query;
+    }
+
+    public void testUnfiltered() throws Exception {
+        assertEquals(42, counts.getCount(roads, query(null), cx));
+        String sql = jdbc.executed.get(0);
+        assertTrue(sql, sql.contains("\"schema\" = 'geo' AND \"table\" = 'roads'"));
+
+        Query query = query(null);
+        query.setStartIndex(40);
+        query.setMaxFeatures(10);
+        assertEquals(2, counts.getCount(roads, query, cx));
+    }
+
+    public void testOtherFilters() throws Exception {
+        Query query = query(null);
+        query.setFilter(FF.equals(FF.property("name"), FF.literal("main")));
+        assertEquals(-1, counts.getCount(roads, query, cx));
+        assertEquals(0, jdbc.executed.size());
+    }
+
+    public void testTimeToLive() throws Exception {
+        counts.getCount(roads, query(null), cx);
+        counts.getCount(roads, query(null), cx);
+        assertEquals(1, jdbc.count(STORAGE));
+
+        // expired
+        counts.counts.put("geo.roads", new EstimatedCounts.TableCount(42,
+                System.currentTimeMillis() - EstimatedCounts.DEFAULT_TTL - 1));
+        counts.getCount(roads, query(null), cx);
+        assertEquals(2, jdbc.count(STORAGE));
+
+        counts.invalidate("geo", "roads");
+        counts.getCount(roads, query(null), cx);
+        assertEquals(3, jdbc.count(STORAGE));
+    }
+
+    public void testStatisticsFallback() throws Exception {
+        jdbc.fail(STORAGE);
+        jdbc.result(STATISTICS, new Object[] { 7L });
+        assertEquals(7, counts.getCount(roads, query(null), cx));
+        assertEquals(1, jdbc.count(STATISTICS));
+
+        // nothing in either catalog
+        counts.dispose();
+        jdbc.results.clear();
+        assertEquals(-1, counts.getCount(roads, query(null), cx));
+    }
+
+    public void testNotInTransaction() throws Exception {
+        cx.setAutoCommit(false);
+        assertEquals(-1, counts.getCount(roads, query(null), cx));
+        assertEquals(0, jdbc.executed.size());
+    }
+
+    public void testBBOXCoveringBounds() throws Exception {
+        assertEquals(42, counts.getCount(roads, query(FF.bbox("geom", -1, -1, 11, 11, null)),
+                cx));
+        // bounds computed once
+        counts.getCount(roads, query(FF.bbox("geom", -5, -5, 15, 15, null)), cx);
+        assertEquals(1, jdbc.count(BOUNDS));
+
+        // the box has to contain the whole layer
+        assertEquals(-1, counts.getCount(roads, query(FF.bbox("geom", 1, 1, 11, 11, null)),
+                cx));
+    }
+
+    public void testBBOXNullableGeometry() throws Exception {
+        // rows without geometry would be counted
+        assertEquals(-1, counts.getCount(roads, query(FF.bbox("centroid", -1, -1, 11, 11,
+                null)), cx));
+        assertEquals(0, jdbc.executed.size());
+    }
+
+    public void testCovers() throws Exception {
+        BBOX bbox = FF.bbox("geom", 0, 0, 10, 10, null);
+        assertTrue(EstimatedCounts.covers(bbox, new Envelope(1, 9, 1, 9)));
+        assertFalse(EstimatedCounts.covers(bbox, new Envelope(1, 11, 1, 9)));
+        // an empty layer is covered by anything
+        assertTrue(EstimatedCounts.covers(bbox, new Envelope()));
+        assertFalse(EstimatedCounts.covers(bbox, null));
+
+        // not a rectangle
+        GeometryFactory gf = new GeometryFactory();
+        Polygon triangle = gf.createPolygon(gf.createLinearRing(new Coordinate[] {
+                new Coordinate(-100, -100), new Coordinate(100, -100),
+                new Coordinate(0, 100), new Coordinate(-100, -100) }), null);
+        assertFalse(EstimatedCounts.covers(FF.bbox(FF.property("geom"), FF.literal(triangle)),
+                new Envelope(1, 9, 1, 9)));
+    }
+}
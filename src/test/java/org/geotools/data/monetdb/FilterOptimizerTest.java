@@ -0,0 +1,100 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2008, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.monetdb;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.geotools.factory.CommonFactoryFinder;
+import org.opengis.filter.And;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.Or;
+import org.opengis.filter.spatial.BBOX;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Checks the rewrites of {@link FilterOptimizer}
+ *
+ * @source $URL$
+ */
+public class FilterOptimizerTest extends TestCase {
+
+    static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2(null);
+
+    Filter name(String value) {
+        return FF.equals(FF.property("name"), FF.literal(value));
+    }
+
+    Envelope envelope(Filter filter) {
+        BBOX bbox = (BBOX) filter;
+        return bbox.getExpression2().evaluate(null, Geometry.class).getEnvelopeInternal();
+    }
+
+    public void testConstants() {
+        assertEquals(name("a"), FilterOptimizer.optimize(FF.and(name("a"), Filter.INCLUDE)));
+        assertEquals(Filter.EXCLUDE, FilterOptimizer.optimize(FF.and(name("a"), Filter.EXCLUDE)));
+        assertEquals(Filter.INCLUDE, FilterOptimizer.optimize(FF.or(name("a"), Filter.INCLUDE)));
+        assertEquals(name("a"), FilterOptimizer.optimize(FF.or(name("a"), Filter.EXCLUDE)));
+    }
+
+    public void testDuplicates() {
+        Filter filter = FilterOptimizer.optimize(FF.or(name("a"), FF.or(name("b"), name("a"))));
+        assertTrue(filter instanceof Or);
+        assertEquals(Arrays.asList(name("a"), name("b")), ((Or) filter).getChildren());
+
+        assertEquals(name("a"), FilterOptimizer.optimize(FF.and(name("a"), name("a"))));
+    }
+
+    public void testContainedBoxes() {
+        Filter small = FF.bbox("geom", 2, 2, 4, 4, null);
+        Filter large = FF.bbox("geom", 0, 0, 10, 10, null);
+
+        // either box will do in an OR, the smaller one in an AND
+        assertEquals(large, FilterOptimizer.optimize(FF.or(small, large)));
+        assertEquals(small, FilterOptimizer.optimize(FF.and(large, small)));
+    }
+
+    public void testAdjacentBoxes() {
+        Filter filter = FilterOptimizer.optimize(FF.or(Arrays.asList(
+                FF.bbox("geom", 0, 0, 10, 10, null), FF.bbox("geom", 10, 0, 20, 10, null),
+                FF.bbox("geom", 0, 5, 20, 15, null))));
+        assertTrue(filter instanceof BBOX);
+        assertEquals(new Envelope(0, 20, 0, 15), envelope(filter));
+    }
+
+    public void testDisjointBoxes() {
+        // their union is not a box
+        Filter filter = FilterOptimizer.optimize(FF.or(FF.bbox("geom", 0, 0, 10, 10, null),
+                FF.bbox("geom", 5, 5, 15, 15, null)));
+        assertTrue(filter instanceof Or);
+        assertEquals(2, ((Or) filter).getChildren().size());
+
+        // different properties
+        filter = FilterOptimizer.optimize(FF.or(FF.bbox("geom", 0, 0, 10, 10, null),
+                FF.bbox("geom2", 0, 0, 20, 20, null)));
+        assertTrue(filter instanceof Or);
+
+        // the AND of overlapping boxes is left alone
+        filter = FilterOptimizer.optimize(FF.and(FF.bbox("geom", 0, 0, 10, 10, null),
+                FF.bbox("geom", 5, 5, 15, 15, null)));
+        assertTrue(filter instanceof And);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2008, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.monetdb;
+
+import junit.framework.TestCase;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.PrecisionModel;
+import com.vividsolutions.jts.geom.impl.PackedCoordinateSequenceFactory;
+
+/**
+ * Checks when {@link GeometryDecoderCache} reuses its decoders and which factory the
+ * decoded geometries come from
+ *
+ * @source $URL$
+ */
+public class GeometryDecoderCacheTest extends TestCase {
+
+    GeometryDecoderCache cache;
+
+    @Override
+    protected void setUp() throws Exception {
+        cache = new GeometryDecoderCache(2);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        cache.dispose();
+    }
+
+    Geometry read(GeometryFactory factory) throws Exception {
+        return cache.getDecoder(factory).wktParser.read("POINT (1 2)");
+    }
+
+    public void testHits() throws Exception {
+        GeometryFactory factory = new GeometryFactory();
+        WKTAttributeIO decoder = cache.getDecoder(factory);
+        assertSame(decoder, cache.getDecoder(factory));
+        assertEquals(1, cache.getRebuilds());
+        assertEquals(1, cache.getHits());
+        assertEquals(0.5, cache.getHitRate(), 0);
+    }
+
+    public void testEquivalentFactories() throws Exception {
+        GeometryFactory first = new GeometryFactory(new PrecisionModel(), 4326);
+        GeometryFactory second = new GeometryFactory(new PrecisionModel(), 4326);
+        WKTAttributeIO decoder = cache.getDecoder(first);
+        assertSame(decoder, cache.getDecoder(second));
+        assertEquals(1, cache.getRebuilds());
+
+        // shared, but the geometries come from the factory asked for
+        assertSame(second, read(second).getFactory());
+        assertSame(first, read(first).getFactory());
+        assertEquals(1, cache.getRebuilds());
+    }
+
+    public void testDifferentFactories() throws Exception {
+        GeometryFactory floating = new GeometryFactory(new PrecisionModel(), 4326);
+        cache.getDecoder(floating);
+        cache.getDecoder(new GeometryFactory(new PrecisionModel(), 3857));
+        cache.getDecoder(new GeometryFactory(new PrecisionModel(100), 4326));
+        cache.getDecoder(new GeometryFactory(new PrecisionModel(), 4326,
+                PackedCoordinateSequenceFactory.DOUBLE_FACTORY));
+        assertEquals(4, cache.getRebuilds());
+        assertEquals(0, cache.getHits());
+
+        // the least recently used ones went away
+        assertSame(floating, read(floating).getFactory());
+        assertEquals(5, cache.getRebuilds());
+    }
+
+    public void testDispose() throws Exception {
+        final GeometryFactory factory = new GeometryFactory();
+        final WKTAttributeIO[] decoders = new WKTAttributeIO[2];
+        final int[] caches = new int[1];
+        // a pooled thread, still holding its cache when the store goes away
+        Thread worker = new Thread() {
+            @Override
+            public void run() {
+                decoders[0] = cache.getDecoder(factory);
+                synchronized (decoders) {
+                    decoders.notifyAll();
+                    try {
+                        decoders.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                decoders[1] = cache.getDecoder(factory);
+                caches[0] = cache.allDecoders.size();
+            }
+        };
+        synchronized (decoders) {
+            worker.start();
+            decoders.wait();
+            cache.dispose();
+            assertTrue(cache.allDecoders.isEmpty());
+            decoders.notifyAll();
+        }
+        worker.join();
+
+        // the released cache is replaced, not filled again
+        assertNotSame(decoders[0], decoders[1]);
+        assertEquals(2, cache.getRebuilds());
+        assertEquals(1, caches[0]);
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2008, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.monetdb;
+
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ *
+ *
+ * @source $URL$
+ */
+public class HilbertCurveTest extends TestCase {
+
+    public void testEncodeVisitsNeighbours() {
+        int order = 4;
+        int n = 1 << order;
+        long[][] cells = new long[n * n][];
+        for (long x = 0; x < n; x++) {
+            for (long y = 0; y < n; y++) {
+                int d = (int) HilbertCurve.encode(order, x, y);
+                assertNull("cell visited twice", cells[d]);
+                cells[d] = new long[] { x, y };
+            }
+        }
+        for (int d = 1; d < cells.length; d++) {
+            long distance = Math.abs(cells[d][0] - cells[d - 1][0])
+                    + Math.abs(cells[d][1] - cells[d - 1][1]);
+            assertEquals("step " + d, 1, distance);
+        }
+    }
+
+    public void testRangesCoverCells() {
+        int order = 5;
+        Random random = new Random(1);
+        for (int i = 0; i < 200; i++) {
+            long x0 = random.nextInt(32), x1 = x0 + random.nextInt(32 - (int) x0);
+            long y0 = random.nextInt(32), y1 = y0 + random.nextInt(32 - (int) y0);
+            int max = 1 + random.nextInt(8);
+            List<long[]> ranges = HilbertCurve.ranges(order, x0, y0, x1, y1, max);
+            assertTrue(ranges.size() <= max);
+            for (long x = x0; x <= x1; x++) {
+                for (long y = y0; y <= y1; y++) {
+                    assertTrue(contains(ranges, HilbertCurve.encode(order, x, y)));
+                }
+            }
+        }
+    }
+
+    public void testRangesCoverIntersectingBoxes() {
+        HilbertCurve curve = new HilbertCurve(8, new Envelope(-180, 180, -90, 90), 20, 10);
+        Random random = new Random(2);
+        for (int i = 0; i < 100; i++) {
+            Envelope query = box(random, 60, 30);
+            List<long[]> ranges = curve.ranges(query, 8);
+            assertTrue(ranges.size() <= 8);
+            for (int j = 0; j < 200; j++) {
+                Envelope feature = box(random, 20, 10);
+                if (feature.intersects(query)) {
+                    assertTrue(contains(ranges, curve.key(feature)));
+                }
+            }
+        }
+    }
+
+    public void testText() {
+        HilbertCurve curve = new HilbertCurve(16, new Envelope(-180, 180, -90, 90), 1.5, 0.25);
+        HilbertCurve parsed = HilbertCurve.fromText(curve.toText());
+        assertEquals(16, parsed.getOrder());
+        assertEquals(curve.getExtent(), parsed.getExtent());
+        assertEquals(1.5, parsed.getMaxWidth());
+        assertEquals(0.25, parsed.getMaxHeight());
+        assertNull(HilbertCurve.fromText("some other comment"));
+    }
+
+    Envelope box(Random random, double maxWidth, double maxHeight) {
+        double x = -180 + random.nextDouble() * 360;
+        double y = -90 + random.nextDouble() * 180;
+        return new Envelope(x, x + random.nextDouble() * maxWidth, y, y
+                + random.nextDouble() * maxHeight);
+    }
+
+    boolean contains(List<long[]> ranges, long key) {
+        for (long[] range : ranges) {
+            if (key >= range[0] && key <= range[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
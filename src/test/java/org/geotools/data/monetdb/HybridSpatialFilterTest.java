@@ -0,0 +1,120 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2008, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.monetdb;
+
+import junit.framework.TestCase;
+
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.geometry.jts.JTS;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.And;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.spatial.BinarySpatialOperator;
+import org.opengis.filter.spatial.Intersects;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ *
+ *
+ * @source $URL$
+ */
+public class HybridSpatialFilterTest extends TestCase {
+
+    static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2(null);
+
+    SimpleFeatureType roads;
+
+    @Override
+    protected void setUp() throws Exception {
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("roads");
+        tb.add("name", String.class);
+        tb.add("geom", Polygon.class);
+        roads = tb.buildFeatureType();
+    }
+
+    public void testSplit() {
+        Geometry area = JTS.toGeometry(new Envelope(0, 10, 0, 10)).buffer(1);
+        Filter name = FF.equals(FF.property("name"), FF.literal("main"));
+        Filter intersects = FF.intersects(FF.property("geom"), FF.literal(area));
+        Filter[] split = HybridSpatialFilter.split(new Filter[] { FF.and(name, intersects),
+                Filter.INCLUDE }, roads);
+
+        // the server tests the bounding box only
+        And pre = (And) split[0];
+        assertEquals(name, pre.getChildren().get(0));
+        BinarySpatialOperator box = (BinarySpatialOperator) pre.getChildren().get(1);
+        assertTrue(box instanceof Intersects);
+        assertTrue(HybridSpatialFilter.isMBROnly(FF.literal(box.getExpression2().evaluate(null))));
+        assertEquals(area.getEnvelopeInternal(), ((Geometry) box.getExpression2().evaluate(null))
+                .getEnvelopeInternal());
+
+        // the client the exact predicate
+        assertTrue(split[1] instanceof HybridSpatialFilter);
+        assertSame(intersects, ((HybridSpatialFilter) split[1]).getOriginal());
+    }
+
+    public void testSplitKeepsNestedPredicates() {
+        Geometry area = JTS.toGeometry(new Envelope(0, 10, 0, 10));
+        Filter filter = FF.or(FF.equals(FF.property("name"), FF.literal("main")),
+                FF.intersects(FF.property("geom"), FF.literal(area)));
+        Filter[] split = new Filter[] { filter, Filter.INCLUDE };
+        assertSame(split, HybridSpatialFilter.split(split, roads));
+
+        filter = FF.not(FF.intersects(FF.property("geom"), FF.literal(area)));
+        split = new Filter[] { filter, Filter.INCLUDE };
+        assertSame(split, HybridSpatialFilter.split(split, roads));
+    }
+
+    public void testEvaluate() {
+        Geometry area = JTS.toGeometry(new Envelope(0, 10, 0, 10));
+        Geometry[] geometries = new Geometry[] {
+                JTS.toGeometry(new Envelope(2, 4, 2, 4)),
+                JTS.toGeometry(new Envelope(-5, 15, -5, 15)),
+                JTS.toGeometry(new Envelope(8, 12, 8, 12)),
+                JTS.toGeometry(new Envelope(10, 12, 0, 10)),
+                JTS.toGeometry(new Envelope(20, 22, 20, 22)) };
+        Filter[] filters = new Filter[] {
+                FF.intersects(FF.property("geom"), FF.literal(area)),
+                FF.contains(FF.property("geom"), FF.literal(area)),
+                FF.contains(FF.literal(area), FF.property("geom")),
+                FF.within(FF.property("geom"), FF.literal(area)),
+                FF.within(FF.literal(area), FF.property("geom")),
+                FF.overlaps(FF.property("geom"), FF.literal(area)),
+                FF.touches(FF.property("geom"), FF.literal(area)),
+                FF.equal(FF.property("geom"), FF.literal(area)) };
+
+        SimpleFeatureBuilder fb = new SimpleFeatureBuilder(roads);
+        for (Filter filter : filters) {
+            HybridSpatialFilter hybrid = HybridSpatialFilter.create(filter, roads);
+            assertNotNull(filter.toString(), hybrid);
+            for (Geometry geometry : geometries) {
+                fb.set("geom", geometry);
+                SimpleFeature feature = fb.buildFeature(null);
+                assertEquals(filter + " on " + geometry, filter.evaluate(feature),
+                        hybrid.evaluate(feature));
+            }
+        }
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2008, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.monetdb;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.sql.DataSource;
+
+/**
+ * Fake JDBC connections answering queries with canned rows, so the SQL the dialect runs
+ * can be checked without a database. Queries are matched on a fragment of their text,
+ * the first registered fragment found wins; queries matching nothing return no rows.
+ * Statements and parameters are recorded.
+ *
+ * @source $URL$
+ */
+class MockJDBC {
+
+    /** rows returned by the queries containing each fragment */
+    final Map<String, Object[][]> results = new LinkedHashMap<String, Object[][]>();
+
+    /** fragments of the statements that fail */
+    final List<String> failures = new ArrayList<String>();
+
+    /** text of every statement run, in order, batched ones once per batch entry */
+    final List<String> executed = new ArrayList<String>();
+
+    /** parameters of every prepared statement execution or batch entry, in order */
+    final List<List<Object>> parameters = new ArrayList<List<Object>>();
+
+    /** primary key column of each table, for DatabaseMetaData.getPrimaryKeys */
+    final Map<String, String> primaryKeys = new LinkedHashMap<String, String>();
+
+    /** number of connections handed out and not closed yet */
+    int open;
+
+    boolean autoCommit = true;
+
+    int commits;
+
+    int rollbacks;
+
+    /**
+     * Makes the queries containing the fragment return the rows
+     */
+    MockJDBC result(String fragment, Object[]... rows) {
+        results.put(fragment, rows);
+        return this;
+    }
+
+    /**
+     * Makes the statements containing the fragment throw an SQLException
+     */
+    MockJDBC fail(String fragment) {
+        failures.add(fragment);
+        return this;
+    }
+
+    /**
+     * Returns the number of statements run whose text contains the fragment
+     */
+    int count(String fragment) {
+        int count = 0;
+        for (String sql : executed) {
+            if (sql.contains(fragment)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    Connection getConnection() {
+        open++;
+        return (Connection) proxy(Connection.class, new Handler() {
+            Object invoke(String name, Object[] args) throws SQLException {
+                if (name.equals("createStatement")) {
+                    return createStatement(null);
+                } else if (name.equals("prepareStatement")) {
+                    return createStatement((String) args[0]);
+                } else if (name.equals("getAutoCommit")) {
+                    return autoCommit;
+                } else if (name.equals("setAutoCommit")) {
+                    autoCommit = (Boolean) args[0];
+                } else if (name.equals("commit")) {
+                    commits++;
+                } else if (name.equals("rollback")) {
+                    rollbacks++;
+                } else if (name.equals("close")) {
+                    open--;
+                } else if (name.equals("getMetaData")) {
+                    return getMetaData();
+                }
+                return null;
+            }
+        });
+    }
+
+    DataSource getDataSource() {
+        return (DataSource) proxy(DataSource.class, new Handler() {
+            Object invoke(String name, Object[] args) {
+                return name.equals("getConnection") ? getConnection() : null;
+            }
+        });
+    }
+
+    DatabaseMetaData getMetaData() {
+        return (DatabaseMetaData) proxy(DatabaseMetaData.class, new Handler() {
+            Object invoke(String name, Object[] args) {
+                if (name.equals("getPrimaryKeys")) {
+                    String key = primaryKeys.get(args[2]);
+                    return createResultSet(null, key == null ? new Object[0][]
+                            : new Object[][] { { key } }, "COLUMN_NAME");
+                }
+                return null;
+            }
+        });
+    }
+
+    Statement createStatement(final String prepared) {
+        final Map<Integer, Object> bound = new TreeMap<Integer, Object>();
+        final List<String> batch = new ArrayList<String>();
+        final List<List<Object>> batchParameters = new ArrayList<List<Object>>();
+        Class<?> type = prepared == null ? Statement.class : PreparedStatement.class;
+        return (Statement) proxy(type, new Handler() {
+            Object invoke(String name, Object[] args) throws SQLException {
+                if (name.equals("executeQuery") || name.equals("execute")
+                        || name.equals("executeUpdate")) {
+                    String sql = args == null || args.length == 0 ? prepared : (String) args[0];
+                    ResultSet rs = run(sql, bound);
+                    if (name.equals("executeQuery")) {
+                        return rs;
+                    }
+                    return name.equals("execute") ? (Object) Boolean.TRUE : (Object) 1;
+                } else if (name.equals("addBatch")) {
+                    if (args != null && args.length == 1) {
+                        batch.add((String) args[0]);
+                    } else {
+                        batch.add(prepared);
+                        batchParameters.add(new ArrayList<Object>(bound.values()));
+                    }
+                } else if (name.equals("executeBatch")) {
+                    int[] counts = new int[batch.size()];
+                    for (int i = 0; i < batch.size(); i++) {
+                        bound.clear();
+                        if (i < batchParameters.size()) {
+                            List<Object> values = batchParameters.get(i);
+                            for (int j = 0; j < values.size(); j++) {
+                                bound.put(j + 1, values.get(j));
+                            }
+                        }
+                        run(batch.get(i), bound);
+                        counts[i] = 1;
+                    }
+                    batch.clear();
+                    batchParameters.clear();
+                    return counts;
+                } else if (name.startsWith("set") && args != null && args.length >= 2
+                        && args[0] instanceof Integer) {
+                    bound.put((Integer) args[0], name.equals("setNull") ? null : args[1]);
+                } else if (name.equals("clearParameters")) {
+                    bound.clear();
+                }
+                return null;
+            }
+        });
+    }
+
+    ResultSet run(String sql, Map<Integer, Object> bound) throws SQLException {
+        executed.add(sql);
+        if (sql != null && sql.indexOf('?') >= 0) {
+            parameters.add(new ArrayList<Object>(bound.values()));
+        }
+        for (String fragment : failures) {
+            if (sql.contains(fragment)) {
+                throw new SQLException("Failing on purpose: " + sql);
+            }
+        }
+        for (Map.Entry<String, Object[][]> entry : results.entrySet()) {
+            if (sql.contains(entry.getKey())) {
+                return createResultSet(null, entry.getValue());
+            }
+        }
+        return createResultSet(null, new Object[0][]);
+    }
+
+    ResultSet createResultSet(final Statement st, final Object[][] rows,
+            final String... labels) {
+        return (ResultSet) proxy(ResultSet.class, new Handler() {
+            int row = -1;
+
+            Object last;
+
+            Object invoke(String name, Object[] args) throws SQLException {
+                if (name.equals("next")) {
+                    return ++row < rows.length;
+                } else if (name.equals("wasNull")) {
+                    return last == null;
+                } else if (name.equals("getStatement")) {
+                    return st;
+                } else if (name.startsWith("get") && args != null && args.length == 1) {
+                    int column = args[0] instanceof Integer ? (Integer) args[0] : Arrays
+                            .asList(labels).indexOf(args[0]) + 1;
+                    last = column > 0 && column <= rows[row].length ? rows[row][column - 1]
+                            : null;
+                    return convert(last, name);
+                }
+                return null;
+            }
+        });
+    }
+
+    static Object convert(Object value, String getter) {
+        if (getter.equals("getString")) {
+            return value == null ? null : value.toString();
+        } else if (getter.equals("getLong")) {
+            return value == null ? 0L : ((Number) value).longValue();
+        } else if (getter.equals("getInt")) {
+            return value == null ? 0 : ((Number) value).intValue();
+        } else if (getter.equals("getDouble")) {
+            return value == null ? 0d : ((Number) value).doubleValue();
+        } else if (getter.equals("getBoolean")) {
+            return value != null && (Boolean) value;
+        }
+        return value;
+    }
+
+    static Object proxy(Class<?> type, final Handler handler) {
+        return Proxy.newProxyInstance(MockJDBC.class.getClassLoader(), new Class[] { type },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                            throws Throwable {
+                        if (method.getName().equals("hashCode")) {
+                            return System.identityHashCode(proxy);
+                        } else if (method.getName().equals("equals")) {
+                            return proxy == args[0];
+                        } else if (method.getName().equals("toString")) {
+                            return "Mock" + method.getDeclaringClass().getSimpleName();
+                        }
+                        Object result = handler.invoke(method.getName(), args);
+                        if (result == null && method.getReturnType().isPrimitive()) {
+                            return defaultValue(method.getReturnType());
+                        }
+                        return result;
+                    }
+                });
+    }
+
+    static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return Boolean.FALSE;
+        } else if (type == void.class) {
+            return null;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == double.class) {
+            return 0d;
+        } else if (type == float.class) {
+            return 0f;
+        } else if (type == short.class) {
+            return (short) 0;
+        } else if (type == byte.class) {
+            return (byte) 0;
+        } else if (type == char.class) {
+            return (char) 0;
+        }
+        return 0;
+    }
+
+    static abstract class Handler {
+        abstract Object invoke(String name, Object[] args) throws SQLException;
+    }
+}
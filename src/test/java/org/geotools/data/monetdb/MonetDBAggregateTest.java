@@ -0,0 +1,250 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2008, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.monetdb;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.util.Arrays;
+import java.util.Collection;
+
+import junit.framework.TestCase;
+
+import org.geotools.data.Query;
+import org.geotools.data.Transaction;
+import org.geotools.data.store.ContentEntry;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.feature.visitor.AverageVisitor;
+import org.geotools.feature.visitor.CountVisitor;
+import org.geotools.feature.visitor.MaxVisitor;
+import org.geotools.feature.visitor.MinVisitor;
+import org.geotools.feature.visitor.SumVisitor;
+import org.geotools.feature.visitor.UniqueVisitor;
+import org.geotools.jdbc.JDBCDataStore;
+import org.geotools.jdbc.JDBCState;
+import org.geotools.jdbc.NullPrimaryKey;
+import org.opengis.feature.FeatureVisitor;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Runs the aggregate visitors through the store against canned results, checking the
+ * SQL pushed down to MonetDB and the values handed back
+ *
+ * @source $URL$
+ */
+public class MonetDBAggregateTest extends TestCase {
+
+    static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2(null);
+
+    MockJDBC jdbc;
+    Connection cx;
+    AggregateStore store;
+    SimpleFeatureType roads;
+    Filter filter;
+
+    @Override
+    protected void setUp() throws Exception {
+        jdbc = new MockJDBC();
+        cx = jdbc.getConnection();
+
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("roads");
+        tb.add("name", String.class);
+        tb.add("speed", Integer.class);
+        tb.add("geom", Polygon.class);
+        roads = tb.buildFeatureType();
+        roads.getGeometryDescriptor().getUserData().put(JDBCDataStore.JDBC_NATIVE_SRID, 4326);
+
+        store = new AggregateStore();
+        store.setSQLDialect(new MonetDBDialect(store));
+        store.setDataSource(jdbc.getDataSource());
+        store.setDatabaseSchema("sys");
+        store.register(roads);
+
+        Geometry box = new GeometryFactory().toGeometry(new Envelope(0, 10, 0, 20));
+        filter = FF.and(FF.intersects(FF.property("geom"), FF.literal(box)),
+                FF.greater(FF.property("speed"), FF.literal(30)));
+    }
+
+    Query query(Filter filter) {
+        Query query = new Query("roads");
+        query.setFilter(filter);
+        return query;
+    }
+
+    /**
+     * Runs the visitor on the filtered roads, returning the aggregated value
+     */
+    Object aggregate(FeatureVisitor visitor, SimpleFeatureType featureType, Filter filter)
+            throws IOException {
+        return store.aggregate(visitor, featureType, query(filter), cx);
+    }
+
+    String lastSQL() {
+        assertFalse(jdbc.executed.isEmpty());
+        return jdbc.executed.get(jdbc.executed.size() - 1);
+    }
+
+    void assertFiltered(String sql) {
+        assertTrue(sql, sql.contains("FROM \"sys\".\"roads\" WHERE "));
+        assertTrue(sql, sql.contains("\"Intersect\"(\"geom\", GeomFromText("));
+        assertTrue(sql, sql.contains("\"speed\" > 30"));
+    }
+
+    public void testCount() throws Exception {
+        jdbc.result("count(", new Object[] { 3L });
+        assertEquals(3, ((Number) aggregate(new CountVisitor(), roads, filter)).intValue());
+        String sql = lastSQL();
+        assertTrue(sql, sql.startsWith("SELECT count(*) FROM"));
+        assertFiltered(sql);
+    }
+
+    public void testMinMax() throws Exception {
+        jdbc.result("min(", new Object[] { 40 });
+        jdbc.result("max(", new Object[] { 120 });
+        assertEquals(40, aggregate(new MinVisitor("speed"), roads, filter));
+        String sql = lastSQL();
+        assertTrue(sql, sql.startsWith("SELECT min(\"speed\") FROM"));
+        assertFiltered(sql);
+
+        assertEquals(120, aggregate(new MaxVisitor("speed"), roads, filter));
+        sql = lastSQL();
+        assertTrue(sql, sql.startsWith("SELECT max(\"speed\") FROM"));
+        assertFiltered(sql);
+    }
+
+    public void testSumAverage() throws Exception {
+        jdbc.result("sum(", new Object[] { 250L });
+        jdbc.result("avg(", new Object[] { 62.5 });
+        assertEquals(250L, aggregate(new SumVisitor("speed"), roads, filter));
+        String sql = lastSQL();
+        assertTrue(sql, sql.startsWith("SELECT sum(\"speed\") FROM"));
+        assertFiltered(sql);
+
+        assertEquals(62.5, aggregate(new AverageVisitor("speed"), roads, filter));
+        sql = lastSQL();
+        assertTrue(sql, sql.startsWith("SELECT avg(\"speed\") FROM"));
+        assertFiltered(sql);
+    }
+
+    public void testUnique() throws Exception {
+        // one row per distinct value, nulls included
+        jdbc.result("\"name\")", new Object[] { "main" }, new Object[] { "high" },
+                new Object[] { null });
+        Object result = aggregate(new UniqueVisitor("name"), roads, filter);
+        assertTrue(String.valueOf(result), result instanceof Collection);
+        Collection<?> values = (Collection<?>) result;
+        assertEquals(3, values.size());
+        assertTrue(values.containsAll(Arrays.asList("main", "high", null)));
+        String sql = lastSQL();
+        assertTrue(sql, sql.toLowerCase().startsWith("select distinct"));
+        assertFiltered(sql);
+    }
+
+    public void testEmptyTable() throws Exception {
+        // aggregates over no rows give a single row, zero counted and nothing else
+        jdbc.result("count(", new Object[] { 0L });
+        jdbc.result("max(", new Object[] { null });
+        jdbc.result("avg(", new Object[] { null });
+        assertEquals(0, ((Number) aggregate(new CountVisitor(), roads, filter)).intValue());
+        assertNull(aggregate(new MaxVisitor("speed"), roads, filter));
+        assertNull(aggregate(new AverageVisitor("speed"), roads, filter));
+
+        Object result = aggregate(new UniqueVisitor("name"), roads, filter);
+        assertTrue(result == null || ((Collection<?>) result).isEmpty());
+    }
+
+    public void testNullGeometryColumn() throws Exception {
+        // a table without geometry aggregates as any other
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("counters");
+        tb.add("name", String.class);
+        tb.add("hits", Long.class);
+        SimpleFeatureType counters = tb.buildFeatureType();
+        assertNull(counters.getGeometryDescriptor());
+        store.register(counters);
+
+        jdbc.result("max(", new Object[] { 9L });
+        Query query = new Query("counters");
+        query.setFilter(FF.equals(FF.property("name"), FF.literal("a")));
+        assertEquals(9L, store.aggregate(new MaxVisitor("hits"), counters, query, cx));
+        String sql = lastSQL();
+        assertTrue(sql, sql.startsWith("SELECT max(\"hits\") FROM \"sys\".\"counters\" WHERE"));
+        assertTrue(sql, sql.contains("\"name\" = 'a'"));
+
+        // the geometry column itself holds nulls, the aggregate of the others is unaffected
+        jdbc.result("count(", new Object[] { 2L });
+        Filter nullGeometry = FF.isNull(FF.property("geom"));
+        assertEquals(2, ((Number) aggregate(new CountVisitor(), roads, nullGeometry))
+                .intValue());
+        sql = lastSQL();
+        assertTrue(sql, sql.contains("\"geom\" IS NULL"));
+    }
+
+    public void testPreparedStatements() throws Exception {
+        MonetDBDialect delegate = new MonetDBDialect(store);
+        store.setSQLDialect(new MonetDBPSDialect(store, delegate));
+
+        jdbc.result("count(", new Object[] { 3L });
+        jdbc.result("sum(", new Object[] { 250L });
+        jdbc.result("\"name\")", new Object[] { "main" });
+        assertEquals(3, ((Number) aggregate(new CountVisitor(), roads, filter)).intValue());
+        assertEquals(250L, aggregate(new SumVisitor("speed"), roads, filter));
+        Object unique = aggregate(new UniqueVisitor("name"), roads, filter);
+        assertEquals(Arrays.asList("main"), Arrays.asList(((Collection<?>) unique).toArray()));
+
+        assertEquals(3, jdbc.executed.size());
+        for (int i = 0; i < jdbc.executed.size(); i++) {
+            String sql = jdbc.executed.get(i);
+            assertTrue(sql, sql.contains("\"Intersect\"(\"geom\", GeomFromText(?, 4326))"));
+            assertTrue(sql, sql.contains("\"speed\" > ?"));
+            assertFalse(sql, sql.contains("POLYGON"));
+            // every placeholder bound, the literal values included
+            int placeholders = sql.split("\\?", -1).length - 1;
+            assertEquals(placeholders, jdbc.parameters.get(i).size());
+            assertTrue(jdbc.parameters.get(i).contains(30));
+        }
+        assertTrue(jdbc.executed.get(1), jdbc.executed.get(1).startsWith(
+                "SELECT sum(\"speed\") FROM \"sys\".\"roads\" WHERE"));
+    }
+
+    /**
+     * Store knowing its feature types up front, exposing the aggregate pushdown
+     */
+    static class AggregateStore extends JDBCDataStore {
+
+        void register(SimpleFeatureType featureType) {
+            ContentEntry entry = new ContentEntry(this, featureType.getName());
+            JDBCState state = (JDBCState) entry.getState(Transaction.AUTO_COMMIT);
+            state.setFeatureType(featureType);
+            state.setPrimaryKey(new NullPrimaryKey(featureType.getTypeName()));
+            entries.put(featureType.getName(), entry);
+        }
+
+        Object aggregate(FeatureVisitor visitor, SimpleFeatureType featureType, Query query,
+                Connection cx) throws IOException {
+            return getAggregateValue(visitor, featureType, query, cx);
+        }
+    }
+}
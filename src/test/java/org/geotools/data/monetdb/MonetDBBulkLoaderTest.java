@@ -0,0 +1,308 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2008, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.monetdb;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.geotools.data.DataUtilities;
+import org.geotools.data.DefaultTransaction;
+import org.geotools.data.Transaction;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.jdbc.JDBCDataStore;
+import org.geotools.jdbc.PrimaryKey;
+import org.geotools.jdbc.PrimaryKeyColumn;
+import org.geotools.jdbc.SequencedPrimaryKeyColumn;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.filter.identity.FeatureId;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Point;
+
+/**
+ * Checks the records and statements written by {@link MonetDBBulkLoader} and the bulk
+ * sequence value fetch of {@link MonetDBDialect}
+ *
+ * @source $URL$
+ */
+public class MonetDBBulkLoaderTest extends TestCase {
+
+    static final GeometryFactory GF = new GeometryFactory();
+
+    MockJDBC jdbc;
+    Connection cx;
+    JDBCDataStore dataStore;
+    MonetDBDialect dialect;
+    MonetDBBulkLoader loader;
+    SimpleFeatureType roads;
+
+    @Override
+    protected void setUp() throws Exception {
+        jdbc = new MockJDBC();
+        cx = jdbc.getConnection();
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("roads");
+        tb.add("fid", Integer.class);
+        tb.add("name", String.class);
+        tb.add("lanes", Integer.class);
+        tb.add("geom", Point.class);
+        roads = tb.buildFeatureType();
+
+        dataStore = new JDBCDataStore() {
+            @Override
+            public SimpleFeatureType getSchema(String typeName) {
+                return roads;
+            }
+        };
+        dialect = new MonetDBDialect(dataStore);
+        dataStore.setSQLDialect(dialect);
+        dataStore.setDataSource(jdbc.getDataSource());
+        dataStore.setDatabaseSchema("geo");
+        loader = new MonetDBBulkLoader(dataStore) {
+            @Override
+            PrimaryKey getPrimaryKey(String typeName) {
+                return new PrimaryKey(typeName, Collections.<PrimaryKeyColumn> singletonList(
+                        new SequencedPrimaryKeyColumn("fid", Integer.class, "roads_fid_seq")));
+            }
+        };
+    }
+
+    String record(Object value) {
+        StringBuffer sb = new StringBuffer();
+        MonetDBBulkLoader.encodeRecordValue(value, false, sb);
+        return sb.toString();
+    }
+
+    public void testEncodeText() {
+        assertEquals("\"plain\"", record("plain"));
+        assertEquals("\"a|b\"", record("a|b"));
+        assertEquals("\"say \\\"hi\\\"\"", record("say \"hi\""));
+        assertEquals("\"c:\\\\temp\"", record("c:\\temp"));
+        assertEquals("\"one\\ntwo\\r\\tthree\"", record("one\ntwo\r\tthree"));
+    }
+
+    public void testEncodeNull() {
+        assertEquals("", record(null));
+        StringBuffer sb = new StringBuffer();
+        MonetDBBulkLoader.encodeRecordValue(null, true, sb);
+        assertEquals("", sb.toString());
+    }
+
+    public void testEncodeNumbersAndBooleans() {
+        assertEquals("42", record(42));
+        assertEquals("1.5", record(1.5d));
+        assertEquals("true", record(Boolean.TRUE));
+        assertEquals("false", record(Boolean.FALSE));
+    }
+
+    public void testEncodeDates() {
+        assertEquals("\"2014-01-02\"", record(java.sql.Date.valueOf("2014-01-02")));
+        assertEquals("\"10:20:30\"", record(java.sql.Time.valueOf("10:20:30")));
+        Timestamp ts = Timestamp.valueOf("2014-01-02 10:20:30.5");
+        assertEquals("\"2014-01-02 10:20:30.5\"", record(ts));
+        // plain dates are written as timestamps
+        assertEquals("\"2014-01-02 10:20:30.5\"", record(new java.util.Date(ts.getTime())));
+    }
+
+    public void testEncodeGeometry() {
+        assertEquals("\"POINT (1 2)\"", record(GF.createPoint(new Coordinate(1, 2))));
+
+        // rings are written as line strings, empty geometries as null
+        LinearRing ring = GF.createLinearRing(new Coordinate[] { new Coordinate(0, 0),
+                new Coordinate(1, 0), new Coordinate(1, 1), new Coordinate(0, 0) });
+        assertEquals("\"LINESTRING (0 0, 1 0, 1 1, 0 0)\"", record(ring));
+        assertEquals("", record(GF.createPoint((Coordinate) null)));
+    }
+
+    List<SimpleFeature> features() {
+        SimpleFeatureBuilder fb = new SimpleFeatureBuilder(roads);
+        List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+        features.add(fb.buildFeature("a", new Object[] { null, "main \"st\"", 2,
+                GF.createPoint(new Coordinate(1, 2)) }));
+        features.add(fb.buildFeature("b", new Object[] { null, null, null, null }));
+        return features;
+    }
+
+    List<AttributeDescriptor> attributes() {
+        return roads.getAttributeDescriptors().subList(1, 4);
+    }
+
+    public void testCopy() throws Exception {
+        jdbc.result("generate_series", new Object[] { 7L }, new Object[] { 8L });
+        List<FeatureId> ids = new ArrayList<FeatureId>();
+        loader.write(null, roads, attributes(), "fid", "roads_fid_seq", features(), ids, cx);
+
+        String sql = jdbc.executed.get(jdbc.executed.size() - 1);
+        assertEquals("COPY 2 RECORDS INTO \"geo\".\"roads\" (\"fid\",\"name\",\"lanes\",\"geom\") "
+                + "FROM STDIN USING DELIMITERS '|','\\n','\"' NULL AS '';\n"
+                + "7|\"main \\\"st\\\"\"|2|\"POINT (1 2)\"\n"
+                + "8|||\n", sql);
+        assertEquals("roads.7", ids.get(0).getID());
+        assertEquals("roads.8", ids.get(1).getID());
+    }
+
+    public void testCopyWithoutKey() throws Exception {
+        List<FeatureId> ids = new ArrayList<FeatureId>();
+        loader.write(null, roads, attributes(), null, null, features(), ids, cx);
+
+        String sql = jdbc.executed.get(0);
+        assertTrue(sql, sql.contains("(\"name\",\"lanes\",\"geom\")"));
+        assertTrue(sql, sql.endsWith("\n||\n"));
+        // the ids of the features are kept
+        assertEquals("a", ids.get(0).getID());
+        assertEquals(0, jdbc.count("NEXT VALUE FOR"));
+    }
+
+    public void testInsertSQL() {
+        assertEquals("INSERT INTO \"geo\".\"roads\" (\"fid\",\"name\",\"lanes\",\"geom\") "
+                + "VALUES (?,?,?,GeomFromText(?, 0))", loader.insertSQL(roads, attributes(), "fid"));
+        assertEquals("INSERT INTO \"geo\".\"roads\" (\"name\",\"lanes\",\"geom\") "
+                + "VALUES (?,?,GeomFromText(?, 0))", loader.insertSQL(roads, attributes(), null));
+    }
+
+    public void testMBRColumns() throws Exception {
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.init(roads);
+        for (String column : MonetDBDialect.getMBRColumns("geom")) {
+            tb.add(column, Double.class);
+        }
+        SimpleFeatureType columns = tb.buildFeatureType();
+        MonetDBDialect.markAccessColumns(columns);
+        SimpleFeatureType boxedRoads = MonetDBFeatureSource.hideAccessColumns(columns);
+
+        // not part of the feature type, filled by the loader nonetheless
+        List<AttributeDescriptor> attributes = MonetDBBulkLoader.getAttributes(boxedRoads,
+                "fid");
+        assertEquals("INSERT INTO \"geo\".\"roads\" (\"fid\",\"name\",\"lanes\",\"geom\","
+                + "\"geom_minx\",\"geom_miny\",\"geom_maxx\",\"geom_maxy\") "
+                + "VALUES (?,?,?,GeomFromText(?, 0),?,?,?,?)", loader.insertSQL(boxedRoads,
+                attributes, "fid"));
+
+        jdbc.result("generate_series", new Object[] { 7L }, new Object[] { 8L });
+        PreparedStatement ps = cx.prepareStatement(loader.insertSQL(boxedRoads, attributes,
+                "fid"));
+        loader.write(ps, boxedRoads, attributes, "fid", "roads_fid_seq", features(),
+                new ArrayList<FeatureId>(), cx);
+        assertEquals(Arrays.<Object> asList(7L, "main \"st\"", 2, "POINT (1 2)", 1d, 2d, 1d,
+                2d), jdbc.parameters.get(0));
+        assertEquals(Arrays.<Object> asList(8L, null, null, null, null, null, null, null),
+                jdbc.parameters.get(1));
+    }
+
+    public void testInsertValues() throws Exception {
+        jdbc.result("generate_series", new Object[] { 7L }, new Object[] { 8L });
+        List<FeatureId> ids = new ArrayList<FeatureId>();
+        PreparedStatement ps = cx.prepareStatement(loader.insertSQL(roads, attributes(), "fid"));
+        loader.write(ps, roads, attributes(), "fid", "roads_fid_seq", features(), ids, cx);
+
+        // one statement text, values bound
+        assertEquals(2, jdbc.count("INSERT INTO"));
+        assertEquals(Arrays.<Object> asList(7L, "main \"st\"", 2, "POINT (1 2)"),
+                jdbc.parameters.get(0));
+        assertEquals(Arrays.<Object> asList(8L, null, null, null), jdbc.parameters.get(1));
+        assertEquals("roads.7", ids.get(0).getID());
+        assertEquals("roads.8", ids.get(1).getID());
+    }
+
+    public void testInsertBatches() throws Exception {
+        dialect.setInsertBatchSize(2);
+        jdbc.result("generate_series", new Object[] { 7L }, new Object[] { 8L });
+        jdbc.result("nextval", new Object[] { 9L });
+        List<SimpleFeature> features = features();
+        features.add(features.get(0));
+
+        Transaction tx = new DefaultTransaction();
+        try {
+            List<FeatureId> ids = loader.addFeatures("roads", DataUtilities.collection(features),
+                    tx);
+            assertEquals(3, ids.size());
+            assertEquals("roads.9", ids.get(2).getID());
+        } finally {
+            tx.close();
+        }
+
+        // a batch is sent before the keys of the next one are fetched
+        List<String> statements = new ArrayList<String>();
+        for (String sql : jdbc.executed) {
+            for (String fragment : new String[] { "INSERT", "nextval", "generate_series" }) {
+                if (sql.contains(fragment)) {
+                    statements.add(fragment);
+                }
+            }
+        }
+        assertEquals(Arrays.asList("generate_series", "INSERT", "INSERT", "nextval", "INSERT"),
+                statements);
+        assertEquals(0, jdbc.count("COPY"));
+        assertEquals(9L, jdbc.parameters.get(2).get(0));
+    }
+
+    public void testFetchSequenceValues() throws Exception {
+        jdbc.result("generate_series", new Object[] { 1L }, new Object[] { 2L },
+                new Object[] { 3L });
+        List<Object> values = dialect.fetchSequenceValues("geo", "roads_fid_seq", 3, cx);
+        assertEquals(Arrays.<Object> asList(1L, 2L, 3L), values);
+        assertEquals(1, jdbc.executed.size());
+        assertEquals("SELECT NEXT VALUE FOR \"geo\".\"roads_fid_seq\" "
+                + "FROM sys.generate_series(0, 3)", jdbc.executed.get(0));
+    }
+
+    public void testFetchSequenceValuesDuplicates() throws Exception {
+        // next value evaluated once for the whole query
+        jdbc.result("generate_series", new Object[] { 5L }, new Object[] { 5L },
+                new Object[] { 5L });
+        jdbc.result("nextval", new Object[] { 6L });
+        List<Object> values = dialect.fetchSequenceValues("geo", "roads_fid_seq", 3, cx);
+        assertEquals(3, values.size());
+        assertEquals(3, jdbc.count("nextval('roads_fid_seq')"));
+    }
+
+    public void testFetchSequenceValuesFailure() throws Exception {
+        jdbc.fail("generate_series");
+        jdbc.result("nextval", new Object[] { 6L });
+        List<Object> values = dialect.fetchSequenceValues("geo", "roads_fid_seq", 2, cx);
+        assertEquals(2, values.size());
+        assertEquals(2, jdbc.count("nextval"));
+
+        // a failed query aborts a transaction, no fallback then
+        cx.setAutoCommit(false);
+        try {
+            dialect.fetchSequenceValues("geo", "roads_fid_seq", 2, cx);
+            fail("The failure should have been reported");
+        } catch (SQLException expected) {
+        }
+    }
+
+    public void testFetchSingleSequenceValue() throws Exception {
+        jdbc.result("nextval", new Object[] { 6L });
+        assertEquals(Arrays.<Object> asList(6L),
+                dialect.fetchSequenceValues("geo", "roads_fid_seq", 1, cx));
+        assertEquals(0, jdbc.count("generate_series"));
+    }
+}
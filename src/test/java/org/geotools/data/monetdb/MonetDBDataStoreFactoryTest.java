@@ -16,6 +16,7 @@
  */
 package org.geotools.data.monetdb;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 
@@ -23,6 +24,7 @@ import junit.framework.TestCase;
 
 import org.geotools.data.DataStore;
 import org.geotools.data.jdbc.datasource.ManageableDataSource;
+import org.geotools.jdbc.ConnectionLifecycleListener;
 import org.geotools.jdbc.JDBCDataStore;
 import org.geotools.jdbc.JDBCDataStoreFactory;
 import org.h2.tools.Server;
@@ -60,6 +62,94 @@ public class MonetDBDataStoreFactoryTest extends TestCase {
         ds.dispose();
     }
     
+    public void testFetchSize() throws Exception {
+        // disabled unless asked for
+        JDBCDataStore ds = factory.createDataStore(params);
+        assertEquals(0, ds.getFetchSize());
+        ds.dispose();
+        
+        params.put(JDBCDataStoreFactory.FETCHSIZE.key, 500);
+        ds = factory.createDataStore(params);
+        assertEquals(500, ds.getFetchSize());
+        ds.dispose();
+        
+        // picked per table, the given one is the fallback
+        params.put(MonetDBDataStoreFactory.ADAPTIVE_FETCH_SIZE.key, Boolean.TRUE);
+        ds = factory.createDataStore(params);
+        assertEquals(500, ds.getFetchSize());
+        assertNotNull(((MonetDBDataStore) ds).getMonetDBDialect().getAdaptiveFetchSize());
+        ds.dispose();
+        
+        assertTrue(Arrays.asList(factory.getParametersInfo()).contains(
+                JDBCDataStoreFactory.FETCHSIZE));
+        assertTrue(Arrays.asList(new MonetDBJNDIDataStoreFactory().getParametersInfo())
+                .contains(JDBCDataStoreFactory.FETCHSIZE));
+    }
+    
+    public void testDialectBoundToDataStore() throws Exception {
+        JDBCDataStore ds = factory.createDataStore(params);
+        assertTrue(ds instanceof MonetDBDataStore);
+        assertSame(ds, ((MonetDBDataStore) ds).getMonetDBDialect().getDataStore());
+        ds.dispose();
+        
+        params.put(MonetDBDataStoreFactory.PREPARED_STATEMENTS.key, Boolean.TRUE);
+        ds = factory.createDataStore(params);
+        assertTrue(ds.getSQLDialect() instanceof MonetDBPSDialect);
+        assertSame(ds, ((MonetDBDataStore) ds).getMonetDBDialect().getDataStore());
+        ds.dispose();
+    }
+    
+    public void testDisposeReleasesDialect() throws Exception {
+        final boolean[] disposed = new boolean[1];
+        JDBCDataStore template = new JDBCDataStore();
+        template.setSQLDialect(new MonetDBDialect(template) {
+            @Override
+            public void dispose() {
+                disposed[0] = true;
+                super.dispose();
+            }
+        });
+        // no pooled data source, as with JNDI
+        template.setDataSource(new MockJDBC().getDataSource());
+        
+        MonetDBDataStore ds = new MonetDBDataStore(template);
+        assertSame(ds, ds.getMonetDBDialect().getDataStore());
+        ds.dispose();
+        assertTrue(disposed[0]);
+    }
+    
+    public void testTemplateConfiguration() throws Exception {
+        JDBCDataStore template = new JDBCDataStore();
+        MonetDBDialect delegate = new MonetDBDialect(template);
+        template.setSQLDialect(new MonetDBPSDialect(template, delegate));
+        template.setDataSource(new MockJDBC().getDataSource());
+        template.setDatabaseSchema("geo");
+        template.setNamespaceURI("http://geotools.org/monetdb");
+        template.setFetchSize(250);
+        template.setExposePrimaryKeyColumns(true);
+        ConnectionLifecycleListener listener = (ConnectionLifecycleListener) MockJDBC.proxy(
+                ConnectionLifecycleListener.class, new MockJDBC.Handler() {
+                    Object invoke(String name, Object[] args) {
+                        return null;
+                    }
+                });
+        template.getConnectionLifecycleListeners().add(listener);
+
+        MonetDBDataStore ds = new MonetDBDataStore(template);
+        assertSame(template.getSQLDialect(), ds.getSQLDialect());
+        assertSame(template.getDataSource(), ds.getDataSource());
+        assertEquals("geo", ds.getDatabaseSchema());
+        assertEquals("http://geotools.org/monetdb", ds.getNamespaceURI());
+        assertEquals(250, ds.getFetchSize());
+        assertTrue(ds.isExposePrimaryKeyColumns());
+        assertSame(template.getPrimaryKeyFinder(), ds.getPrimaryKeyFinder());
+        assertSame(template.getGeometryFactory(), ds.getGeometryFactory());
+        assertTrue(ds.getConnectionLifecycleListeners().contains(listener));
+        // both dialects work for the new store
+        assertSame(ds, delegate.getDataStore());
+        assertSame(ds, ((MonetDBPSDialect) ds.getSQLDialect()).getDataStore());
+    }
+    
     public void testTCP() throws Exception {
         params.put(MonetDBDataStoreFactory.PASSWD.key, "monetdbFAIL");
         
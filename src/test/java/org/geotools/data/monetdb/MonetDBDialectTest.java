@@ -0,0 +1,410 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2008, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.monetdb;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.geotools.data.Query;
+import org.geotools.factory.Hints;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.feature.visitor.AverageVisitor;
+import org.geotools.feature.visitor.CountVisitor;
+import org.geotools.feature.visitor.MaxVisitor;
+import org.geotools.feature.visitor.SumVisitor;
+import org.geotools.feature.visitor.UniqueVisitor;
+import org.geotools.jdbc.JDBCDataStore;
+import org.opengis.feature.FeatureVisitor;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.PrecisionModel;
+import com.vividsolutions.jts.io.WKBWriter;
+import com.vividsolutions.jts.io.WKTReader;
+
+/**
+ * Checks the SQL generated by {@link MonetDBDialect} without a database
+ *
+ * @source $URL$
+ */
+public class MonetDBDialectTest extends TestCase {
+
+    MonetDBDialect dialect;
+
+    @Override
+    protected void setUp() throws Exception {
+        dialect = new MonetDBDialect(null);
+    }
+
+    public void testLimitOffset() {
+        StringBuffer sql = new StringBuffer("SELECT \"fid\" FROM \"sys\".\"roads\" ORDER BY \"fid\" ASC");
+        dialect.applyLimitOffset(sql, 10, 20);
+        assertEquals("SELECT \"fid\" FROM \"sys\".\"roads\" ORDER BY \"fid\" ASC LIMIT 10 OFFSET 20",
+                sql.toString());
+    }
+
+    public void testAccessColumnsFromCatalog() {
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("roads");
+        tb.add("geom", LineString.class);
+        tb.add("location", Point.class);
+        for (String column : MonetDBDialect.getMBRColumns("geom")) {
+            tb.add(column, Double.class);
+        }
+        tb.add(MonetDBDialect.getHilbertColumn("geom"), Long.class);
+        // incomplete
+        tb.add("location_minx", Double.class);
+        SimpleFeatureType featureType = tb.buildFeatureType();
+        featureType.getUserData().put(JDBCDataStore.JDBC_VIRTUAL_TABLE, Boolean.TRUE);
+
+        MonetDBDialect.markAccessColumns(featureType);
+        GeometryDescriptor geom = featureType.getGeometryDescriptor();
+        GeometryDescriptor location = (GeometryDescriptor) featureType.getDescriptor("location");
+        assertEquals("geom_maxy", MonetDBDialect.getMBRColumns(geom)[3]);
+        assertEquals("geom_hilbert", MonetDBDialect.getHilbertColumn(geom));
+        assertNull(MonetDBDialect.getMBRColumns(location));
+        assertNull(MonetDBDialect.getHilbertColumn(location));
+
+        // hidden from clients
+        SimpleFeatureType hidden = MonetDBFeatureSource.hideAccessColumns(featureType);
+        assertEquals(3, hidden.getAttributeCount());
+        assertNull(hidden.getDescriptor("geom_minx"));
+        assertNull(hidden.getDescriptor("geom_hilbert"));
+        assertNotNull(hidden.getDescriptor("location_minx"));
+        assertSame(geom, hidden.getGeometryDescriptor());
+        assertEquals(Boolean.TRUE, hidden.getUserData().get(JDBCDataStore.JDBC_VIRTUAL_TABLE));
+    }
+
+    public void testMBRColumns() throws Exception {
+        MockJDBC jdbc = new MockJDBC();
+        JDBCDataStore store = new JDBCDataStore();
+        dialect = new MonetDBDialect(store);
+        store.setSQLDialect(dialect);
+        Connection cx = jdbc.getConnection();
+
+        dialect.createMBRColumns("geo", "roads", "geom", cx.createStatement());
+        assertEquals(5, jdbc.executed.size());
+        assertEquals("ALTER TABLE \"geo\".\"roads\" ADD COLUMN \"geom_minx\" DOUBLE",
+                jdbc.executed.get(0));
+        String sql = jdbc.executed.get(4);
+        assertTrue(sql, sql.startsWith("UPDATE \"geo\".\"roads\" SET \"geom_minx\" = "
+                + "ST_XMin(\"geom\"), "));
+        assertTrue(sql, sql.endsWith(" OR \"geom_maxy\" <> ST_YMax(\"geom\")))"));
+        // the datastore writes the columns itself
+        assertEquals(0, jdbc.count("TRIGGER"));
+    }
+
+    public void testWriteAccessColumns() throws Exception {
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("roads");
+        tb.add("name", String.class);
+        tb.add("geom", LineString.class);
+        for (String column : MonetDBDialect.getMBRColumns("geom")) {
+            tb.add(column, Double.class);
+        }
+        tb.add(MonetDBDialect.getHilbertColumn("geom"), Long.class);
+        SimpleFeatureType columns = tb.buildFeatureType();
+        MonetDBDialect.markAccessColumns(columns);
+        SimpleFeatureType roads = MonetDBFeatureSource.hideAccessColumns(columns);
+
+        GeometryFactory gf = new GeometryFactory();
+        LineString line = gf.createLineString(new Coordinate[] { new Coordinate(1, 2),
+                new Coordinate(3, 4) });
+
+        // inserts compute the box from the geometry
+        SimpleFeatureType rowType = MonetDBDataStore.getRowType(roads);
+        assertEquals(6, rowType.getAttributeCount());
+        SimpleFeature feature = SimpleFeatureBuilder.build(roads, new Object[] { "a", line },
+                "roads.1");
+        SimpleFeature row = MonetDBDataStore.getRow(feature, rowType);
+        assertEquals(Arrays.<Object> asList("a", line, 1d, 2d, 3d, 4d), row.getAttributes());
+        assertEquals("roads.1", row.getID());
+
+        // updates of the geometry update its box and empty the key
+        AttributeDescriptor[] attributes = { roads.getDescriptor("name"),
+                roads.getDescriptor("geom") };
+        List<AttributeDescriptor> updated = new ArrayList<AttributeDescriptor>(Arrays
+                .asList(attributes));
+        List<Object> values = new ArrayList<Object>(Arrays.<Object> asList("b", line));
+        MonetDBDataStore.addAccessColumns(roads, attributes, values.toArray(), updated, values);
+        assertEquals(7, updated.size());
+        assertEquals("geom_minx", updated.get(2).getLocalName());
+        assertEquals("geom_hilbert", updated.get(6).getLocalName());
+        assertEquals(Arrays.<Object> asList("b", line, 1d, 2d, 3d, 4d, null), values);
+
+        // a null geometry has no box
+        values = new ArrayList<Object>();
+        values.add(null);
+        updated = new ArrayList<AttributeDescriptor>();
+        MonetDBDataStore.addAccessColumns(roads, new AttributeDescriptor[] { roads
+                .getDescriptor("geom") }, new Object[1], updated, values);
+        assertEquals(Arrays.asList(null, null, null, null, null, null), values);
+
+        // other attributes leave the columns alone
+        values = new ArrayList<Object>();
+        MonetDBDataStore.addAccessColumns(roads, new AttributeDescriptor[] { roads
+                .getDescriptor("name") }, new Object[] { "c" }, updated, values);
+        assertTrue(values.isEmpty());
+    }
+
+    public void testEncodeGeometryEnvelope() {
+        StringBuffer sql = new StringBuffer();
+        dialect.encodeGeometryEnvelope("roads", "geom", sql);
+        // a single aggregated box, not an envelope per feature
+        assertEquals("ST_MakeEnvelope(MIN(ST_XMin(\"geom\")), MIN(ST_YMin(\"geom\")), "
+                + "MAX(ST_XMax(\"geom\")), MAX(ST_YMax(\"geom\")), 0)", sql.toString());
+
+        // transferred like the geometries
+        dialect.wkbSupported = true;
+        sql = new StringBuffer();
+        dialect.encodeGeometryEnvelope("roads", "geom", sql);
+        assertTrue(sql.toString(), sql.toString().startsWith("ST_AsBinary(ST_MakeEnvelope("));
+
+        // the server cannot build boxes
+        dialect.wkbSupported = false;
+        dialect.envelopeSupported = false;
+        sql = new StringBuffer();
+        dialect.encodeGeometryEnvelope("roads", "geom", sql);
+        assertEquals("Envelope(\"geom\")", sql.toString());
+    }
+
+    public void testDecodeGeometryEnvelope() throws Exception {
+        MockJDBC jdbc = new MockJDBC();
+        ResultSet rs = jdbc.createResultSet(null, new Object[][] {
+                { "POLYGON ((0.1 -1, 2.5 -1, 2.5 3e10, 0.1 3e10, 0.1 -1))" }, { null } });
+        rs.next();
+        assertEquals(new Envelope(0.1, 2.5, -1, 3e10), dialect.decodeGeometryEnvelope(rs, 1, null));
+        rs.next();
+        assertTrue(dialect.decodeGeometryEnvelope(rs, 1, null).isNull());
+    }
+
+    public void testWKBSupport() throws Exception {
+        MockJDBC jdbc = new MockJDBC();
+        Connection cx = jdbc.getConnection();
+        dialect = new MonetDBDialect(new JDBCDataStore());
+        byte[] point = new WKBWriter().write(new GeometryFactory().createPoint(
+                new Coordinate(0, 0)));
+        jdbc.result("ST_AsBinary(GeomFromText('POINT(0 0)', 0))", new Object[] { point });
+        dialect.initializeConnection(cx);
+        assertEquals(Boolean.TRUE, dialect.wkbSupported);
+        assertTrue(dialect.isWKBActive());
+        // checked once
+        dialect.initializeConnection(cx);
+        assertEquals(1, jdbc.count("ST_AsBinary("));
+
+        // the server does not know the function, WKT it is
+        jdbc.fail("ST_AsBinary(");
+        dialect = new MonetDBDialect(new JDBCDataStore());
+        dialect.initializeConnection(cx);
+        assertEquals(Boolean.FALSE, dialect.wkbSupported);
+        assertFalse(dialect.isWKBActive());
+
+        // switched off, never asked
+        jdbc.executed.clear();
+        dialect = new MonetDBDialect(new JDBCDataStore());
+        dialect.setWkbEnabled(false);
+        dialect.initializeConnection(cx);
+        assertEquals(0, jdbc.count("ST_AsBinary("));
+        assertFalse(dialect.isWKBActive());
+    }
+
+    public void testEncodeWKBColumn() {
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("roads");
+        tb.add("geom", LineString.class);
+        GeometryDescriptor geom = tb.buildFeatureType().getGeometryDescriptor();
+
+        StringBuffer sql = new StringBuffer();
+        dialect.encodeGeometryColumn(geom, null, 4326, sql);
+        assertEquals("\"geom\"", sql.toString());
+
+        dialect.wkbSupported = true;
+        sql = new StringBuffer();
+        dialect.encodeGeometryColumn(geom, "a", 4326, sql);
+        assertEquals("ST_AsBinary(\"a\".\"geom\")", sql.toString());
+
+        // supported but disabled
+        dialect.setWkbEnabled(false);
+        sql = new StringBuffer();
+        dialect.encodeGeometryColumn(geom, null, 4326, sql);
+        assertEquals("\"geom\"", sql.toString());
+    }
+
+    public void testDecodeWKB() throws Exception {
+        Geometry line = new WKTReader().read("LINESTRING (0 0, 0.5 0, 10 0.25, 20 0)");
+        MockJDBC jdbc = new MockJDBC();
+        ResultSet rs = jdbc.createResultSet(null, new Object[][] {
+                { new WKBWriter().write(line), line.toText() }, { null, null } }, "wkb", "wkt");
+        GeometryFactory factory = new GeometryFactory(new PrecisionModel(), 4326);
+
+        dialect.wkbSupported = true;
+        rs.next();
+        Geometry decoded = dialect.decodeGeometryValue(null, rs, 1, factory, null);
+        assertTrue(decoded.toText(), line.equalsExact(decoded));
+        assertEquals(4326, decoded.getSRID());
+        decoded = dialect.decodeGeometryValue(null, rs, "wkb", factory, null);
+        assertTrue(decoded.toText(), line.equalsExact(decoded));
+
+        // the same rows read back as WKT when the server cannot produce WKB
+        dialect.wkbSupported = false;
+        decoded = dialect.decodeGeometryValue(null, rs, "wkt", factory, null);
+        assertTrue(decoded.toText(), line.equalsExact(decoded));
+        decoded = dialect.decodeGeometryValue(null, rs, 2, factory, null);
+        assertTrue(decoded.toText(), line.equalsExact(decoded));
+
+        // decimated queries select WKT even with WKB active, and parse it decimating
+        dialect.wkbSupported = true;
+        DecimatingGeometryFactory decimating = new DecimatingGeometryFactory(factory, 1);
+        decoded = dialect.decodeGeometryValue(null, rs, "wkt", decimating, null);
+        assertTrue(decoded.toText(), decoded.equalsExact(new WKTReader().read(
+                "LINESTRING (0 0, 10 0.25, 20 0)")));
+
+        rs.next();
+        assertNull(dialect.decodeGeometryValue(null, rs, 1, factory, null));
+        assertNull(dialect.decodeGeometryValue(null, rs, "wkt", decimating, null));
+    }
+
+    public void testEncodeGeometryValue() throws Exception {
+        // long enough to be cached if values went through the filter literal cache
+        Coordinate[] coordinates = new Coordinate[100];
+        for (int i = 0; i < coordinates.length; i++) {
+            coordinates[i] = new Coordinate(i, i);
+        }
+        LineString line = new GeometryFactory().createLineString(coordinates);
+        StringBuffer sql = new StringBuffer();
+        dialect.encodeGeometryValue(line, 4326, sql);
+        assertTrue(sql.toString(), sql.toString().startsWith("GeomFromText('LINESTRING (0 0, 1 1"));
+
+        // written again after an update in place
+        line.getCoordinateN(0).x = 5;
+        line.geometryChanged();
+        sql = new StringBuffer();
+        dialect.encodeGeometryValue(line, 4326, sql);
+        assertTrue(sql.toString(), sql.toString().startsWith("GeomFromText('LINESTRING (5 0, 1 1"));
+        assertEquals(0, dialect.getLiteralEncoderCache().getMisses());
+
+        sql = new StringBuffer();
+        dialect.encodeGeometryValue(null, 4326, sql);
+        assertEquals("NULL", sql.toString());
+    }
+
+    public void testAggregateFunctions() {
+        Map<Class<? extends FeatureVisitor>, String> aggregates = 
+            new HashMap<Class<? extends FeatureVisitor>, String>();
+        dialect.registerAggregateFunctions(aggregates);
+        assertEquals("count", aggregates.get(CountVisitor.class));
+        assertEquals("max", aggregates.get(MaxVisitor.class));
+        assertEquals("sum", aggregates.get(SumVisitor.class));
+        assertEquals("avg", aggregates.get(AverageVisitor.class));
+        assertNotNull(aggregates.get(UniqueVisitor.class));
+    }
+
+    public void testEncodeSimplifiedGeometryColumn() {
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("roads");
+        tb.add("geom", LineString.class);
+        tb.add("location", Point.class);
+        SimpleFeatureType featureType = tb.buildFeatureType();
+        Hints hints = new Hints(Hints.GEOMETRY_SIMPLIFICATION, 2.5);
+        dialect.simplifyFunction = "ST_SimplifyPreserveTopology";
+
+        StringBuffer sql = new StringBuffer();
+        dialect.encodeGeometryColumn(featureType.getGeometryDescriptor(), null, 4326, hints, sql);
+        assertEquals("ST_SimplifyPreserveTopology(\"geom\", 2.5)", sql.toString());
+
+        // no distance, no simplification
+        sql = new StringBuffer();
+        dialect.encodeGeometryColumn(featureType.getGeometryDescriptor(), null, 4326, null, sql);
+        assertEquals("\"geom\"", sql.toString());
+
+        // points cannot be simplified
+        sql = new StringBuffer();
+        dialect.encodeGeometryColumn((GeometryDescriptor) featureType.getDescriptor("location"),
+                null, 4326, hints, sql);
+        assertEquals("\"location\"", sql.toString());
+
+        // the server has no function for it
+        dialect.simplifyFunction = "";
+        sql = new StringBuffer();
+        dialect.encodeGeometryColumn(featureType.getGeometryDescriptor(), null, 4326, hints, sql);
+        assertEquals("\"geom\"", sql.toString());
+        // decimated while parsed, so transferred as WKT
+        assertEquals(2.5, dialect.getClientDecimationDistance(hints));
+        // as long as the query carries the factory binding the distance to it
+        dialect.wkbSupported = true;
+        sql = new StringBuffer();
+        dialect.encodeGeometryColumn(featureType.getGeometryDescriptor(), null, 4326, hints, sql);
+        assertEquals("ST_AsBinary(\"geom\")", sql.toString());
+        hints.put(Hints.JTS_GEOMETRY_FACTORY, new DecimatingGeometryFactory(
+                new GeometryFactory(), 2.5));
+        sql = new StringBuffer();
+        dialect.encodeGeometryColumn(featureType.getGeometryDescriptor(), null, 4326, hints, sql);
+        assertEquals("\"geom\"", sql.toString());
+        sql = new StringBuffer();
+        dialect.encodeGeometryColumn(featureType.getGeometryDescriptor(), null, 4326, null, sql);
+        assertEquals("ST_AsBinary(\"geom\")", sql.toString());
+        Set<Hints.Key> supported = new HashSet<Hints.Key>();
+        dialect.addSupportedHints(supported);
+        // still declared, the geometries are decimated while decoding
+        assertTrue(supported.contains(Hints.GEOMETRY_SIMPLIFICATION));
+        dialect.setClientDecimationEnabled(false);
+        supported.clear();
+        dialect.addSupportedHints(supported);
+        assertFalse(supported.contains(Hints.GEOMETRY_SIMPLIFICATION));
+    }
+
+    public void testBindDecimation() {
+        JDBCDataStore store = new JDBCDataStore();
+        store.setSQLDialect(dialect);
+        dialect.simplifyFunction = "";
+        Query query = new Query("roads");
+        assertSame(query, MonetDBFeatureSource.bindDecimation(query, store));
+
+        GeometryFactory factory = new GeometryFactory(new PrecisionModel(100));
+        query.setHints(new Hints(Hints.GEOMETRY_SIMPLIFICATION, 2.5));
+        query.getHints().put(Hints.JTS_GEOMETRY_FACTORY, factory);
+        Query decimated = MonetDBFeatureSource.bindDecimation(query, store);
+        GeometryFactory bound = (GeometryFactory) decimated.getHints().get(
+                Hints.JTS_GEOMETRY_FACTORY);
+        assertEquals(2.5, DecimatingGeometryFactory.getDistance(bound), 0);
+        assertEquals(factory.getPrecisionModel(), bound.getPrecisionModel());
+        // the query of the caller is left alone
+        assertSame(factory, query.getHints().get(Hints.JTS_GEOMETRY_FACTORY));
+
+        // the server simplifies them itself
+        dialect.simplifyFunction = "ST_SimplifyPreserveTopology";
+        assertSame(query, MonetDBFeatureSource.bindDecimation(query, store));
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2008, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.monetdb;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.geometry.jts.JTS;
+import org.geotools.jdbc.JDBCDataStore;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Checks the SQL {@link MonetDBFilterToSQL} generates for spatial filters
+ *
+ * @source $URL$
+ */
+public class MonetDBFilterToSQLTest extends TestCase {
+
+    static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2(null);
+
+    MonetDBDialect dialect;
+    MonetDBFilterToSQL encoder;
+    SimpleFeatureType roads;
+    SimpleFeatureType boxedRoads;
+    SimpleFeatureType clusteredRoads;
+
+    @Override
+    protected void setUp() throws Exception {
+        dialect = new MonetDBDialect(null);
+        encoder = new MonetDBFilterToSQL(dialect);
+
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("roads");
+        tb.add("name", String.class);
+        tb.add("geom", Polygon.class);
+        roads = tb.buildFeatureType();
+
+        tb.setName("roads");
+        tb.add("name", String.class);
+        tb.add("geom", Polygon.class);
+        for (String column : MonetDBDialect.getMBRColumns("geom")) {
+            tb.add(column, Double.class);
+        }
+        boxedRoads = fromCatalog(tb.buildFeatureType());
+
+        tb.setName("roads");
+        tb.add("name", String.class);
+        tb.add("geom", Polygon.class);
+        for (String column : MonetDBDialect.getMBRColumns("geom")) {
+            tb.add(column, Double.class);
+        }
+        tb.add(MonetDBDialect.getHilbertColumn("geom"), Long.class);
+        clusteredRoads = fromCatalog(tb.buildFeatureType());
+    }
+
+    /**
+     * Returns the feature type the datastore builds for a table with these columns
+     */
+    SimpleFeatureType fromCatalog(SimpleFeatureType columns) {
+        MonetDBDialect.markAccessColumns(columns);
+        SimpleFeatureType featureType = MonetDBFeatureSource.hideAccessColumns(columns);
+        assertEquals(2, featureType.getAttributeCount());
+        return featureType;
+    }
+
+    String encode(SimpleFeatureType featureType, Filter filter) throws Exception {
+        encoder.setFeatureType(featureType);
+        return encoder.encodeToString(filter);
+    }
+
+    public void testBBOX() throws Exception {
+        String sql = encode(roads, FF.bbox("geom", 0, 0, 10, 20, null));
+        assertTrue(sql, sql.contains("mbroverlaps(mbr(\"geom\"), mbr(GeomFromText("));
+        assertTrue(sql, sql.contains("\"Intersect\"(\"geom\", GeomFromText("));
+    }
+
+    public void testBBOXOnMBRColumns() throws Exception {
+        String sql = encode(boxedRoads, FF.bbox("geom", 0, 0, 10, 20, null));
+        assertFalse(sql, sql.contains("mbroverlaps"));
+        assertTrue(sql, sql.contains("\"geom_minx\" <= 10.0 AND \"geom_maxx\" >= 0.0 "
+                + "AND \"geom_miny\" <= 20.0 AND \"geom_maxy\" >= 0.0"));
+        assertTrue(sql, sql.contains("\"Intersect\"(\"geom\", GeomFromText("));
+    }
+
+    public void testBBOXOnHilbertKey() throws Exception {
+        dialect.putHilbertCurve("sys", "roads", "geom", new HilbertCurve(16, new Envelope(
+                -180, 180, -90, 90), 1, 1));
+        String sql = encode(clusteredRoads, FF.bbox("geom", 0, 0, 10, 20, null));
+        assertTrue(sql, sql.contains("(\"geom_hilbert\" IS NULL OR \"geom_hilbert\" BETWEEN "));
+        assertTrue(sql, sql.contains(") AND \"geom_minx\" <= 10.0"));
+
+        // other spatial filters do not use the key
+        sql = encode(clusteredRoads, FF.intersects(FF.property("geom"), FF.literal(JTS
+                .toGeometry(new Envelope(0, 10, 0, 20)))));
+        assertFalse(sql, sql.contains("geom_hilbert"));
+    }
+
+    public void testBBOXWithoutHilbertCurve() throws Exception {
+        // no curve known for the layer
+        String sql = encode(clusteredRoads, FF.bbox("geom", 0, 0, 10, 20, null));
+        assertFalse(sql, sql.contains("geom_hilbert"));
+    }
+
+    public void testLiteralGeometryCache() throws Exception {
+        Geometry outline = new GeometryFactory().createPoint(new Coordinate(1 / 3d, 2 / 3d))
+                .buffer(10, 32);
+        Filter filter = FF.intersects(FF.property("geom"), FF.literal(outline));
+        String sql = encode(roads, filter);
+        assertEquals(sql, encode(roads, filter));
+        // encoded once, even though the prefilter writes it out as well
+        assertEquals(1, dialect.getLiteralEncoderCache().getMisses());
+        assertEquals(3, dialect.getLiteralEncoderCache().getHits());
+
+        // small geometries are not worth caching
+        encode(roads, FF.bbox("geom", 0, 0, 10, 20, null));
+        assertEquals(1, dialect.getLiteralEncoderCache().getMisses());
+
+        // coordinates trimmed to the precision of the data
+        dialect.setLiteralPrecision(2);
+        sql = encode(roads, filter);
+        assertTrue(sql, sql.contains("(10.33 0.67, "));
+        assertFalse(sql, sql.contains("0.333"));
+    }
+
+    public void testStagedGeometryInline() throws Exception {
+        dialect.setStagedGeometries(new StagedGeometries(dialect, 100));
+        roads.getGeometryDescriptor().getUserData().put(JDBCDataStore.JDBC_NATIVE_SRID, 4326);
+        Geometry outline = new GeometryFactory().createPoint(new Coordinate(0, 0)).buffer(10, 64);
+
+        // only prepared statements can carry the geometry to the connection
+        String sql = encode(roads, FF.intersects(FF.property("geom"), FF.literal(outline)));
+        assertTrue(sql, sql.contains("GeomFromText('POLYGON"));
+        assertFalse(sql, sql.contains("filter_geometries"));
+    }
+
+    public void testHybridBoundingBoxFilter() throws Exception {
+        Geometry area = new GeometryFactory().createPoint(new Coordinate(0, 0)).buffer(10);
+        Filter filter = HybridSpatialFilter.create(FF.within(FF.property("geom"),
+                FF.literal(area)), roads).getBoundingBoxFilter();
+        String sql = encode(roads, filter);
+        assertTrue(sql, sql.contains("mbroverlaps(mbr(\"geom\"), mbr(GeomFromText('POLYGON "
+                + "((-10 -10, -10 10, 10 10, 10 -10, -10 -10))'"));
+        assertFalse(sql, sql.contains("Intersect"));
+
+        sql = encode(boxedRoads, filter);
+        assertTrue(sql, sql.endsWith("\"geom_maxy\" >= -10.0"));
+    }
+
+    public void testDWithin() throws Exception {
+        Geometry point = new GeometryFactory().createPoint(new Coordinate(5, 10));
+        String sql = encode(roads, FF.dwithin(FF.property("geom"), FF.literal(point), 2, "m"));
+        assertTrue(sql, sql.contains("mbroverlaps(mbr(\"geom\"), mbr(GeomFromText('POLYGON "
+                + "((3 8, 3 12, 7 12, 7 8, 3 8))'"));
+        assertTrue(sql, sql.contains(" AND ST_DWithin(\"geom\","));
+
+        sql = encode(boxedRoads, FF.dwithin(FF.property("geom"), FF.literal(point), 2, "m"));
+        assertTrue(sql, sql.contains("\"geom_minx\" <= 7.0 AND \"geom_maxx\" >= 3.0 "
+                + "AND \"geom_miny\" <= 12.0 AND \"geom_maxy\" >= 8.0 AND ST_DWithin("));
+    }
+
+    public void testBeyond() throws Exception {
+        Geometry point = new GeometryFactory().createPoint(new Coordinate(5, 10));
+        String sql = encode(roads, FF.beyond(FF.property("geom"), FF.literal(point), 2, "m"));
+        assertTrue(sql, sql.contains("NOT (mbroverlaps(mbr(\"geom\"), mbr(GeomFromText("));
+        assertTrue(sql, sql.contains(" AND ST_DWithin(\"geom\","));
+        assertTrue(sql, sql.endsWith(",2.0))"));
+        assertFalse(sql, sql.contains("Distance("));
+    }
+
+    public void testBBOXAsEnvelope() throws Exception {
+        dialect.envelopeSupported = Boolean.TRUE;
+        roads.getGeometryDescriptor().getUserData().put(JDBCDataStore.JDBC_NATIVE_SRID, 4326);
+        String sql = encode(roads, FF.bbox("geom", 0, 0, 10, 20, null));
+        assertFalse(sql, sql.contains("GeomFromText"));
+        assertTrue(sql, sql.contains("mbroverlaps(mbr(\"geom\"), mbr(ST_MakeEnvelope(0.0, 0.0, "
+                + "10.0, 20.0, 4326))) AND \"Intersect\"(\"geom\", ST_MakeEnvelope(0.0, 0.0, "
+                + "10.0, 20.0, 4326))"));
+
+        // loose bbox, only the bounding boxes are compared
+        encoder.helper.looseBBOXEnabled = true;
+        sql = encode(roads, FF.bbox("geom", 0, 0, 10, 20, null));
+        assertFalse(sql, sql.contains("Intersect"));
+    }
+
+    public void testBBOXNotFinite() throws Exception {
+        GeometryFactory gf = new GeometryFactory();
+        Geometry box = gf.toGeometry(new Envelope(Double.NEGATIVE_INFINITY, 10, 0,
+                Double.POSITIVE_INFINITY));
+        String sql = encode(boxedRoads, FF.bbox(FF.property("geom"), FF.literal(box)));
+        assertFalse(sql, sql.contains("Infinity"));
+        assertTrue(sql, sql.contains("\"geom_maxx\" >= -1.7976931348623157E308"));
+        assertTrue(sql, sql.contains("\"geom_miny\" <= 1.7976931348623157E308"));
+
+        // no envelope to write at all
+        assertNull(FilterToSqlHelper.getSQLEnvelope(FF.literal(gf.createPoint(new Coordinate(
+                Double.NaN, 1)))));
+        sql = encode(boxedRoads, FF.bbox(FF.property("geom"), FF.literal(gf.createPoint(
+                new Coordinate(Double.NaN, 1)))));
+        assertFalse(sql, sql.contains("geom_minx"));
+    }
+
+    public void testBBOXOnPoints() throws Exception {
+        dialect.envelopeSupported = Boolean.TRUE;
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("cities");
+        tb.add("geom", Point.class);
+        SimpleFeatureType cities = tb.buildFeatureType();
+        cities.getGeometryDescriptor().getUserData().put(JDBCDataStore.JDBC_NATIVE_SRID, 4326);
+
+        String sql = encode(cities, FF.bbox("geom", 0, 0, 10, 20, null));
+        assertTrue(sql, sql.contains("mbroverlaps(mbr(\"geom\"), mbr(ST_MakeEnvelope("));
+        assertFalse(sql, sql.contains("Intersect"));
+    }
+
+    public void testLooseBBOX() throws Exception {
+        dialect.setLooseBBOXEnabled(true);
+        encoder = new MonetDBFilterToSQL(dialect);
+        String sql = encode(roads, FF.bbox("geom", 0, 0, 10, 20, null));
+        assertTrue(sql, sql.contains("mbroverlaps(mbr(\"geom\"), mbr(GeomFromText("));
+        assertFalse(sql, sql.contains("Intersect"));
+
+        // other filters are still exact
+        sql = encode(roads, FF.intersects(FF.property("geom"), FF.literal(JTS
+                .toGeometry(new Envelope(0, 10, 0, 20)))));
+        assertTrue(sql, sql.contains("\"Intersect\"(\"geom\", GeomFromText("));
+    }
+
+    public void testOrAsIn() throws Exception {
+        Filter filter = FF.or(Arrays.asList(
+                FF.equals(FF.property("name"), FF.literal("a")),
+                FF.bbox("geom", 0, 0, 10, 20, null),
+                FF.equals(FF.literal("b"), FF.property("name"))));
+        String sql = encode(roads, filter);
+        assertTrue(sql, sql.contains("\"name\" IN ('a', 'b') OR "));
+        assertEquals(sql, 1, sql.split(" OR ").length - 1);
+
+        // a single equality stays as it is
+        sql = encode(roads, FF.or(FF.equals(FF.property("name"), FF.literal("a")),
+                FF.bbox("geom", 0, 0, 10, 20, null)));
+        assertFalse(sql, sql.contains(" IN "));
+    }
+
+    public void testOptimizedBeforeEncoding() throws Exception {
+        String sql = encode(roads, FF.or(FF.bbox("geom", 0, 0, 10, 10, null),
+                FF.bbox("geom", 10, 0, 20, 10, null)));
+        assertFalse(sql, sql.contains(" OR "));
+        assertTrue(sql, sql.contains("mbroverlaps("));
+    }
+}
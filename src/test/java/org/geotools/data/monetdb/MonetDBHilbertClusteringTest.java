@@ -0,0 +1,205 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2008, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.monetdb;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.geotools.data.Query;
+import org.geotools.data.Transaction;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.DefaultFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.geometry.jts.JTS;
+import org.geotools.jdbc.JDBCDataStore;
+import org.geotools.jdbc.JDBCTestSetup;
+import org.geotools.jdbc.JDBCTestSupport;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Clusters a layer loaded in random order with {@link MonetDBLayerOptimizer} on a
+ * MonetDB server, and checks BBOX queries still find the same features afterwards
+ *
+ * @source $URL$
+ */
+public class MonetDBHilbertClusteringTest extends JDBCTestSupport {
+
+    static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2(null);
+
+    static final String TYPE_NAME = "hilbert_clustering";
+
+    static final int FEATURES = 2000;
+
+    protected JDBCTestSetup createTestSetup() {
+        return new MonetDBTestSetup();
+    }
+
+    public void testClustering() throws Exception {
+        drop(dataStore, TYPE_NAME);
+        try {
+            load(dataStore, FEATURES);
+            List<Filter> filters = createQueries(20);
+            List<Set<String>> random = read(dataStore, TYPE_NAME, filters);
+
+            new MonetDBLayerOptimizer(dataStore).optimize(TYPE_NAME, true);
+            assertNull(dataStore.getSchema(TYPE_NAME).getDescriptor(
+                    MonetDBDialect.getHilbertColumn("geom")));
+            List<Set<String>> clustered = read(dataStore, TYPE_NAME, filters);
+            assertEquals(random, clustered);
+            assertTrue(count(clustered) > 0);
+
+            // every row got its key, and the rows are stored in key order
+            List<Long> keys = readKeys();
+            assertEquals(FEATURES, keys.size());
+            assertNotNull(keys.get(0));
+            for (int i = 1; i < keys.size(); i++) {
+                assertNotNull(keys.get(i));
+                assertTrue(keys.get(i - 1) <= keys.get(i));
+            }
+        } finally {
+            drop(dataStore, TYPE_NAME);
+        }
+    }
+
+    List<Long> readKeys() throws Exception {
+        String hilbert = MonetDBDialect.getHilbertColumn("geom");
+        List<Long> keys = new ArrayList<Long>();
+        Connection cx = dataStore.getConnection(Transaction.AUTO_COMMIT);
+        Statement st = cx.createStatement();
+        try {
+            ResultSet rs = st.executeQuery("SELECT \"" + hilbert + "\" FROM \""
+                    + schema(dataStore) + "\".\"" + TYPE_NAME + "\"");
+            while (rs.next()) {
+                long key = rs.getLong(1);
+                keys.add(rs.wasNull() ? null : key);
+            }
+            dataStore.closeSafe(rs);
+        } finally {
+            dataStore.closeSafe(st);
+            dataStore.closeSafe(cx);
+        }
+        return keys;
+    }
+
+    static String schema(JDBCDataStore dataStore) {
+        return dataStore.getDatabaseSchema() == null ? "sys" : dataStore.getDatabaseSchema();
+    }
+
+    /**
+     * Drops the table of the feature type and its geometry_columns entry, if there
+     */
+    static void drop(JDBCDataStore dataStore, String typeName) throws Exception {
+        String schema = schema(dataStore);
+        Connection cx = dataStore.getConnection(Transaction.AUTO_COMMIT);
+        Statement st = cx.createStatement();
+        try {
+            st.execute("DROP TABLE \"" + schema + "\".\"" + typeName + "\"");
+        } catch (SQLException e) {
+            // not there
+        }
+        try {
+            st.execute("DELETE FROM geometry_columns WHERE f_table_schema = "
+                    + MonetDBDialect.quoteValue(schema) + " AND f_table_name = "
+                    + MonetDBDialect.quoteValue(typeName));
+        } finally {
+            dataStore.closeSafe(st);
+            dataStore.closeSafe(cx);
+        }
+    }
+
+    /**
+     * Loads small boxes scattered around the world, in random order
+     */
+    static void load(JDBCDataStore dataStore, int features) throws Exception {
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName(TYPE_NAME);
+        tb.setSRS("EPSG:4326");
+        tb.add("geom", Polygon.class);
+        tb.add("name", String.class);
+        dataStore.createSchema(tb.buildFeatureType());
+        SimpleFeatureType featureType = dataStore.getSchema(TYPE_NAME);
+
+        Random random = new Random(1);
+        SimpleFeatureBuilder fb = new SimpleFeatureBuilder(featureType);
+        DefaultFeatureCollection features = new DefaultFeatureCollection();
+        for (int i = 0; i < features; i++) {
+            double x = -180 + random.nextDouble() * 359;
+            double y = -90 + random.nextDouble() * 179;
+            fb.set("geom", JTS.toGeometry(new Envelope(x, x + random.nextDouble(), y, y
+                    + random.nextDouble())));
+            fb.set("name", "feature " + i);
+            features.add(fb.buildFeature(null));
+        }
+        new MonetDBBulkLoader(dataStore).addFeatures(TYPE_NAME, features,
+                Transaction.AUTO_COMMIT);
+    }
+
+    static List<Filter> createQueries(int queries) {
+        Random random = new Random(2);
+        List<Filter> filters = new ArrayList<Filter>();
+        for (int i = 0; i < queries; i++) {
+            double x = -180 + random.nextDouble() * 340;
+            double y = -90 + random.nextDouble() * 160;
+            filters.add(FF.bbox("geom", x, y, x + 20, y + 20, null));
+        }
+        return filters;
+    }
+
+    /**
+     * Returns the ids of the features matching each filter
+     */
+    static List<Set<String>> read(JDBCDataStore dataStore, String typeName,
+            List<Filter> filters) throws Exception {
+        List<Set<String>> ids = new ArrayList<Set<String>>();
+        for (Filter filter : filters) {
+            Set<String> matched = new HashSet<String>();
+            SimpleFeatureIterator it = dataStore.getFeatureSource(typeName)
+                    .getFeatures(new Query(typeName, filter)).features();
+            try {
+                while (it.hasNext()) {
+                    matched.add(it.next().getID());
+                }
+            } finally {
+                it.close();
+            }
+            ids.add(matched);
+        }
+        return ids;
+    }
+
+    static int count(List<Set<String>> ids) {
+        int count = 0;
+        for (Set<String> matched : ids) {
+            count += matched.size();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2008, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.monetdb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.geotools.data.Transaction;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.DefaultFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.jdbc.JDBCDataStore;
+import org.geotools.jdbc.JDBCTestSetup;
+import org.geotools.jdbc.JDBCTestSupport;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Checks spatial queries with complex polygons find the same features on a MonetDB
+ * server whether the exact predicates run on the server or, in hybrid mode, on the
+ * client
+ *
+ * @source $URL$
+ */
+public class MonetDBHybridFilteringTest extends JDBCTestSupport {
+
+    static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2(null);
+
+    static final GeometryFactory GF = new GeometryFactory();
+
+    static final String TYPE_NAME = "hybrid_filtering";
+
+    protected JDBCTestSetup createTestSetup() {
+        return new MonetDBTestSetup();
+    }
+
+    public void testSameResults() throws Exception {
+        MonetDBDialect dialect = MonetDBBulkLoader.getDialect(dataStore);
+        MonetDBHilbertClusteringTest.drop(dataStore, TYPE_NAME);
+        try {
+            load(dataStore, TYPE_NAME, 2000, 50);
+            List<Filter> filters = createQueries(10);
+
+            dialect.setHybridFilteringLayers(Collections.<String> emptySet());
+            List<Set<String>> server = MonetDBHilbertClusteringTest.read(dataStore,
+                    TYPE_NAME, filters);
+            dialect.setHybridFilteringLayers(Collections.singleton(TYPE_NAME));
+            List<Set<String>> hybrid = MonetDBHilbertClusteringTest.read(dataStore,
+                    TYPE_NAME, filters);
+
+            assertEquals(server, hybrid);
+            assertTrue(MonetDBHilbertClusteringTest.count(hybrid) > 0);
+        } finally {
+            dialect.setHybridFilteringLayers(Collections.<String> emptySet());
+            MonetDBHilbertClusteringTest.drop(dataStore, TYPE_NAME);
+        }
+    }
+
+    /**
+     * Returns a star shaped polygon with the specified number of spikes
+     */
+    static Geometry star(Random random, double x, double y, double radius, int spikes) {
+        Coordinate[] coordinates = new Coordinate[spikes * 2 + 1];
+        for (int i = 0; i < spikes * 2; i++) {
+            double angle = Math.PI * i / spikes;
+            double r = i % 2 == 0 ? radius : radius * (0.3 + 0.5 * random.nextDouble());
+            coordinates[i] = new Coordinate(x + r * Math.cos(angle), y + r * Math.sin(angle));
+        }
+        coordinates[coordinates.length - 1] = coordinates[0];
+        return GF.createPolygon(GF.createLinearRing(coordinates), null);
+    }
+
+    /**
+     * Creates a layer of star shaped polygons of about one degree scattered around the
+     * world
+     */
+    static void load(JDBCDataStore dataStore, String typeName, int features, int spikes)
+            throws Exception {
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName(typeName);
+        tb.setSRS("EPSG:4326");
+        tb.add("geom", Polygon.class);
+        tb.add("name", String.class);
+        dataStore.createSchema(tb.buildFeatureType());
+        SimpleFeatureType featureType = dataStore.getSchema(typeName);
+
+        Random random = new Random(1);
+        SimpleFeatureBuilder fb = new SimpleFeatureBuilder(featureType);
+        DefaultFeatureCollection collection = new DefaultFeatureCollection();
+        for (int i = 0; i < features; i++) {
+            double x = -179 + random.nextDouble() * 358;
+            double y = -89 + random.nextDouble() * 178;
+            fb.set("geom", star(random, x, y, 0.5, spikes));
+            fb.set("name", "feature " + i);
+            collection.add(fb.buildFeature(null));
+        }
+        new MonetDBBulkLoader(dataStore).addFeatures(typeName, collection,
+                Transaction.AUTO_COMMIT);
+    }
+
+    /**
+     * Intersects filters with stars of eight degrees and a thousand spikes, whose
+     * bounding boxes match many features their outline does not
+     */
+    static List<Filter> createQueries(int queries) {
+        Random random = new Random(2);
+        List<Filter> filters = new ArrayList<Filter>();
+        for (int i = 0; i < queries; i++) {
+            double x = -170 + random.nextDouble() * 340;
+            double y = -80 + random.nextDouble() * 160;
+            filters.add(FF.intersects(FF.property("geom"), FF.literal(star(random, x, y, 8,
+                    1000))));
+        }
+        return filters;
+    }
+}
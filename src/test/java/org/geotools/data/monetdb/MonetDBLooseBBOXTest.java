@@ -0,0 +1,119 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2008, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.monetdb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.geotools.data.Query;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.geometry.jts.JTS;
+import org.geotools.jdbc.JDBCTestSetup;
+import org.geotools.jdbc.JDBCTestSupport;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.filter.Filter;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Checks BBOX queries on a layer of large polygons on a MonetDB server with and
+ * without {@link MonetDBDataStoreFactory#LOOSE_BBOX}: the loose ones find the exact
+ * matches, plus features whose bounding box only overlaps the queried one
+ *
+ * @source $URL$
+ */
+public class MonetDBLooseBBOXTest extends JDBCTestSupport {
+
+    static final String TYPE_NAME = "loose_bbox";
+
+    protected JDBCTestSetup createTestSetup() {
+        return new MonetDBTestSetup();
+    }
+
+    public void testLooseMatches() throws Exception {
+        MonetDBDialect dialect = MonetDBBulkLoader.getDialect(dataStore);
+        MonetDBHilbertClusteringTest.drop(dataStore, TYPE_NAME);
+        try {
+            // polygons of a thousand vertices
+            MonetDBHybridFilteringTest.load(dataStore, TYPE_NAME, 2000, 500);
+            List<Envelope> boxes = createQueries(20);
+
+            dialect.setLooseBBOXEnabled(false);
+            List<Map<String, Geometry>> exact = read(boxes);
+            dialect.setLooseBBOXEnabled(true);
+            List<Map<String, Geometry>> loose = read(boxes);
+
+            int matched = 0;
+            for (int i = 0; i < boxes.size(); i++) {
+                Set<String> ids = exact.get(i).keySet();
+                assertTrue(loose.get(i).keySet().containsAll(ids));
+                Geometry box = JTS.toGeometry(boxes.get(i));
+                for (Map.Entry<String, Geometry> entry : loose.get(i).entrySet()) {
+                    Geometry geometry = entry.getValue();
+                    assertTrue(boxes.get(i).intersects(geometry.getEnvelopeInternal()));
+                    assertEquals(entry.getKey(), ids.contains(entry.getKey()), box
+                            .intersects(geometry));
+                }
+                matched += ids.size();
+            }
+            assertTrue(matched > 0);
+        } finally {
+            dialect.setLooseBBOXEnabled(false);
+            MonetDBHilbertClusteringTest.drop(dataStore, TYPE_NAME);
+        }
+    }
+
+    static List<Envelope> createQueries(int queries) {
+        Random random = new Random(2);
+        List<Envelope> boxes = new ArrayList<Envelope>();
+        for (int i = 0; i < queries; i++) {
+            double x = -180 + random.nextDouble() * 340;
+            double y = -90 + random.nextDouble() * 160;
+            boxes.add(new Envelope(x, x + 20, y, y + 20));
+        }
+        return boxes;
+    }
+
+    /**
+     * Returns the geometries of the features matching each box, by feature id
+     */
+    List<Map<String, Geometry>> read(List<Envelope> boxes) throws Exception {
+        List<Map<String, Geometry>> matches = new ArrayList<Map<String, Geometry>>();
+        for (Envelope box : boxes) {
+            Filter filter = MonetDBHybridFilteringTest.FF.bbox("geom", box.getMinX(), box
+                    .getMinY(), box.getMaxX(), box.getMaxY(), null);
+            Map<String, Geometry> matched = new HashMap<String, Geometry>();
+            SimpleFeatureIterator it = dataStore.getFeatureSource(TYPE_NAME).getFeatures(
+                    new Query(TYPE_NAME, filter)).features();
+            try {
+                while (it.hasNext()) {
+                    SimpleFeature feature = it.next();
+                    matched.put(feature.getID(), (Geometry) feature.getDefaultGeometry());
+                }
+            } finally {
+                it.close();
+            }
+            matches.add(matched);
+        }
+        return matches;
+    }
+}
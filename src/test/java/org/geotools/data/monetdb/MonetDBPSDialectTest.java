@@ -0,0 +1,216 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2008, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.monetdb;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.jdbc.JDBCDataStore;
+import org.geotools.jdbc.JDBCDataStoreFactory;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.FilterFactory2;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Checks the statements of {@link MonetDBPSDialect} and {@link MonetDBPSFilterToSQL}
+ * carry their values as parameters
+ *
+ * @source $URL$
+ */
+public class MonetDBPSDialectTest extends TestCase {
+
+    static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2(null);
+
+    MonetDBPSDialect dialect;
+    MonetDBPSFilterToSQL encoder;
+    SimpleFeatureType roads;
+
+    @Override
+    protected void setUp() throws Exception {
+        dialect = new MonetDBPSDialect(null, new MonetDBDialect(null));
+        encoder = new MonetDBPSFilterToSQL(dialect);
+
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("roads");
+        tb.add("name", String.class);
+        tb.add("geom", Polygon.class);
+        roads = tb.buildFeatureType();
+        roads.getGeometryDescriptor().getUserData().put(JDBCDataStore.JDBC_NATIVE_SRID, 4326);
+        encoder.setFeatureType(roads);
+    }
+
+    public void testPrepareGeometryValue() {
+        Geometry g = new GeometryFactory().createPoint(new Coordinate(1, 2));
+        StringBuffer sql = new StringBuffer();
+        dialect.prepareGeometryValue(g, 4326, Geometry.class, sql);
+        assertEquals("GeomFromText(?, 4326)", sql.toString());
+
+        sql = new StringBuffer();
+        dialect.prepareGeometryValue(null, 4326, Geometry.class, sql);
+        assertEquals("?", sql.toString());
+    }
+
+    public void testSetGeometryValue() throws Exception {
+        MockJDBC jdbc = new MockJDBC();
+        PreparedStatement ps = jdbc.getConnection().prepareStatement("INSERT ?, ?, ?");
+        GeometryFactory gf = new GeometryFactory();
+        LinearRing ring = gf.createLinearRing(new Coordinate[] { new Coordinate(0, 0),
+                new Coordinate(1, 0), new Coordinate(1, 1), new Coordinate(0, 0) });
+        dialect.setGeometryValue(gf.createPoint(new Coordinate(1, 2)), 4326, Geometry.class,
+                ps, 1);
+        // rings are bound as line strings, MonetDB does not know them
+        dialect.setGeometryValue(ring, 4326, Geometry.class, ps, 2);
+        dialect.setGeometryValue(null, 4326, Geometry.class, ps, 3);
+        ps.executeUpdate();
+
+        assertEquals(Arrays.<Object> asList("POINT (1 2)", "LINESTRING (0 0, 1 0, 1 1, 0 0)",
+                null), jdbc.parameters.get(0));
+    }
+
+    public void testLiteralBinding() throws Exception {
+        String sql = encoder.encodeToString(FF.equals(FF.property("name"), FF.literal("a")));
+        assertEquals("WHERE \"name\" = ?", sql);
+        assertEquals(Arrays.<Object> asList("a"), encoder.getLiteralValues());
+    }
+
+    public void testGeometryBinding() throws Exception {
+        Geometry box = new GeometryFactory().toGeometry(new Envelope(0, 10, 0, 20));
+        String sql = encoder.encodeToString(FF.intersects(FF.property("geom"), FF.literal(box)));
+        assertFalse(sql, sql.contains("POLYGON"));
+        assertTrue(sql, sql.contains("\"Intersect\"(\"geom\", GeomFromText(?, 4326))"));
+
+        // one bound geometry per placeholder, the prefilter uses it too
+        int placeholders = sql.split("\\?", -1).length - 1;
+        assertEquals(placeholders, encoder.getLiteralValues().size());
+        for (Object value : encoder.getLiteralValues()) {
+            assertSame(box, value);
+        }
+    }
+
+    public void testBBOXBinding() throws Exception {
+        dialect.getDelegate().envelopeSupported = Boolean.TRUE;
+        String sql = encoder.encodeToString(FF.bbox("geom", 0, 0, 10, 20, null));
+        assertTrue(sql, sql.contains("mbroverlaps(mbr(\"geom\"), mbr(ST_MakeEnvelope(?, ?, ?, ?, "
+                + "4326))) AND \"Intersect\"(\"geom\", ST_MakeEnvelope(?, ?, ?, ?, 4326))"));
+        assertEquals(Arrays.<Object> asList(0d, 0d, 10d, 20d, 0d, 0d, 10d, 20d),
+                encoder.getLiteralValues());
+    }
+
+    public void testMBRColumnsBinding() throws Exception {
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.init(roads);
+        for (String column : MonetDBDialect.getMBRColumns("geom")) {
+            tb.add(column, Double.class);
+        }
+        tb.add(MonetDBDialect.getHilbertColumn("geom"), Long.class);
+        SimpleFeatureType columns = tb.buildFeatureType();
+        MonetDBDialect.markAccessColumns(columns);
+        encoder.setFeatureType(MonetDBFeatureSource.hideAccessColumns(columns));
+        dialect.getDelegate().putHilbertCurve("sys", "roads", "geom", new HilbertCurve(16,
+                new Envelope(-180, 180, -90, 90), 1, 1));
+
+        String sql = encoder.encodeToString(FF.bbox("geom", 0, 0, 10, 20, null));
+        assertTrue(sql, sql.contains("\"geom_minx\" <= ? AND \"geom_maxx\" >= ? "
+                + "AND \"geom_miny\" <= ? AND \"geom_maxy\" >= ?"));
+        assertFalse(sql, sql.contains("10.0"));
+        // as many key ranges whatever the box, the statement can be reused
+        assertEquals(FilterToSqlHelper.HILBERT_RANGES, sql.split("BETWEEN \\? AND \\?",
+                -1).length - 1);
+        assertEquals(sql.split("\\?", -1).length - 1, encoder.getLiteralValues().size());
+        assertEquals(sql, encoder.encodeToString(FF.bbox("geom", 0, 0, 0.1, 0.1, null)));
+    }
+
+    public void testInfiniteBBOX() throws Exception {
+        dialect.getDelegate().envelopeSupported = Boolean.TRUE;
+        Geometry box = new GeometryFactory().toGeometry(new Envelope(Double.NEGATIVE_INFINITY,
+                Double.POSITIVE_INFINITY, 0, 20));
+        String sql = encoder.encodeToString(FF.bbox(FF.property("geom"), FF.literal(box)));
+        assertTrue(sql, sql.contains("ST_MakeEnvelope(?, ?, ?, ?, 4326)"));
+        assertEquals(Arrays.<Object> asList(-Double.MAX_VALUE, 0d, Double.MAX_VALUE, 20d),
+                encoder.getLiteralValues().subList(0, 4));
+    }
+
+    public void testStagedGeometry() throws Exception {
+        JDBCDataStore store = new JDBCDataStore();
+        MonetDBDialect delegate = new MonetDBDialect(store);
+        delegate.setStagedGeometries(new StagedGeometries(delegate, 100));
+        dialect = new MonetDBPSDialect(store, delegate);
+        encoder = new MonetDBPSFilterToSQL(dialect);
+        encoder.setFeatureType(roads);
+
+        Geometry outline = new GeometryFactory().createPoint(new Coordinate(0, 0)).buffer(10, 64);
+        String sql = encoder.encodeToString(FF.intersects(FF.property("geom"),
+                FF.literal(outline)));
+        assertFalse(sql, sql.contains("GeomFromText("));
+        assertTrue(sql, sql.contains("\"Intersect\"(\"geom\", (SELECT \"geom\" FROM "
+                + "\"tmp\".\"filter_geometries\" WHERE \"id\" = ?))"));
+
+        // uploaded once to the connection of the statement while binding its id
+        MockJDBC jdbc = new MockJDBC();
+        Connection cx = jdbc.getConnection();
+        for (int i = 0; i < 2; i++) {
+            PreparedStatement ps = cx.prepareStatement("SELECT * FROM \"roads\" " + sql);
+            for (int j = 0; j < encoder.getLiteralValues().size(); j++) {
+                dialect.setValue(encoder.getLiteralValues().get(j), encoder.getLiteralTypes()
+                        .get(j), ps, j + 1, cx);
+            }
+            ps.executeQuery();
+        }
+        assertEquals(1, jdbc.count("CREATE LOCAL TEMPORARY TABLE \"filter_geometries\""));
+        assertEquals(1, jdbc.count("INSERT INTO \"tmp\".\"filter_geometries\""));
+        for (Object id : jdbc.parameters.get(jdbc.parameters.size() - 1)) {
+            assertEquals(1, id);
+        }
+
+        // small geometries stay inline
+        sql = encoder.encodeToString(FF.bbox("geom", 0, 0, 10, 20, null));
+        assertFalse(sql, sql.contains("filter_geometries"));
+    }
+
+    public void testEncodeByteArray() {
+        StringBuffer sql = new StringBuffer();
+        dialect.getDelegate().encodeValue(new byte[] { 0, 15, (byte) 255 }, byte[].class, sql);
+        assertEquals("BLOB '000fff'", sql.toString());
+    }
+
+    public void testPreparedStatementPool() throws Exception {
+        Map<String, Object> params = new HashMap<String, Object>();
+        BasicDataSource dataSource = new BasicDataSource();
+        MonetDBDataStoreFactory.configurePreparedStatementPool(dataSource, params);
+        assertFalse(dataSource.isPoolPreparedStatements());
+
+        params.put(MonetDBDataStoreFactory.PREPARED_STATEMENTS.key, Boolean.TRUE);
+        params.put(JDBCDataStoreFactory.MAX_OPEN_PREPARED_STATEMENTS.key, 20);
+        MonetDBDataStoreFactory.configurePreparedStatementPool(dataSource, params);
+        assertTrue(dataSource.isPoolPreparedStatements());
+        assertEquals(20, dataSource.getMaxOpenPreparedStatements());
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2008, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.monetdb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.geotools.data.Query;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.jdbc.JDBCTestSetup;
+import org.geotools.jdbc.JDBCTestSupport;
+import org.opengis.filter.sort.SortBy;
+
+/**
+ * Checks pages read with LIMIT/OFFSET against an unpaged read on a MonetDB server
+ *
+ * @source $URL$
+ */
+public class MonetDBPagingTest extends JDBCTestSupport {
+
+    protected JDBCTestSetup createTestSetup() {
+        return new MonetDBTestSetup();
+    }
+
+    public void testPages() throws Exception {
+        List<Object> paged = readPages();
+        List<Object> all = read(-1, -1);
+        assertEquals(all, paged);
+        assertEquals(3, paged.size());
+    }
+
+    /**
+     * Reads the features of ft1 one page of one feature at a time
+     */
+    List<Object> readPages() throws Exception {
+        List<Object> ids = new ArrayList<Object>();
+        for (int offset = 0; offset < 4; offset++) {
+            ids.addAll(read(offset, 1));
+        }
+        return ids;
+    }
+
+    /**
+     * Reads the values of intProperty sorted on the primary key, a negative offset reads them all
+     */
+    List<Object> read(int offset, int max) throws Exception {
+        Query query = new Query(tname("ft1"));
+        query.setSortBy(new SortBy[] { SortBy.NATURAL_ORDER });
+        if (offset >= 0) {
+            query.setStartIndex(offset);
+            query.setMaxFeatures(max);
+        }
+
+        List<Object> ids = new ArrayList<Object>();
+        SimpleFeatureIterator it = dataStore.getFeatureSource(tname("ft1"))
+                .getFeatures(query).features();
+        try {
+            while (it.hasNext()) {
+                ids.add(it.next().getAttribute(aname("intProperty")));
+            }
+        } finally {
+            it.close();
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2008, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.monetdb;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks {@link SequenceAllocator} hands out every value once, reserving blocks
+ *
+ * @source $URL$
+ */
+public class SequenceAllocatorTest extends TestCase {
+
+    MockJDBC jdbc = new MockJDBC();
+    Connection cx = jdbc.getConnection();
+    AtomicLong sequence = new AtomicLong();
+    AtomicInteger roundTrips = new AtomicInteger();
+
+    MonetDBDialect dialect = new MonetDBDialect(null) {
+        @Override
+        List<Object> fetchSequenceValues(String schemaName, String sequenceName, int count,
+                Connection cx) {
+            roundTrips.incrementAndGet();
+            List<Object> values = new ArrayList<Object>();
+            for (int i = 0; i < count; i++) {
+                values.add(sequence.incrementAndGet());
+            }
+            return values;
+        }
+    };
+
+    public void testBlocks() throws Exception {
+        SequenceAllocator allocator = new SequenceAllocator(dialect, 10);
+        for (long i = 1; i <= 25; i++) {
+            assertEquals(i, allocator.next("sys", "seq_1", cx));
+        }
+        assertEquals(3, roundTrips.get());
+
+        // larger than a block, served from the rest of the block plus one reservation
+        List<Object> values = allocator.next("sys", "seq_1", 30, cx);
+        assertEquals(30, values.size());
+        assertEquals(26L, values.get(0));
+        assertEquals(55L, values.get(29));
+        assertEquals(4, roundTrips.get());
+    }
+
+    public void testInTransaction() throws Exception {
+        SequenceAllocator allocator = new SequenceAllocator(dialect, 10);
+        allocator.next("sys", "seq_1", cx);
+        assertEquals(1, roundTrips.get());
+
+        // the reserved values are still handed out
+        cx.setAutoCommit(false);
+        assertEquals(2L, allocator.next("sys", "seq_1", cx));
+        assertEquals(1, roundTrips.get());
+
+        // no second connection to commit on, only what is needed is fetched in the
+        // transaction and nothing is shared
+        List<Object> values = allocator.next("sys", "seq_1", 12, cx);
+        assertEquals(12, values.size());
+        assertEquals(2, roundTrips.get());
+        assertEquals(15L, allocator.next("sys", "seq_1", cx));
+        assertEquals(3, roundTrips.get());
+    }
+
+    public void testDisabledByDefault() {
+        assertEquals(1, SequenceAllocator.DEFAULT_BLOCK_SIZE);
+        assertEquals(SequenceAllocator.DEFAULT_BLOCK_SIZE,
+                MonetDBDataStoreFactory.SEQUENCE_BLOCK_SIZE.sample);
+    }
+
+    public void testConcurrent() throws Exception {
+        final SequenceAllocator allocator = new SequenceAllocator(dialect, 7);
+        final Set<Object> values = Collections.synchronizedSet(new HashSet<Object>());
+        final AtomicInteger duplicates = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < 1000; j++) {
+                            if (!values.add(allocator.next("sys", "seq_1", cx))) {
+                                duplicates.incrementAndGet();
+                            }
+                        }
+                    } catch (Exception e) {
+                        duplicates.incrementAndGet();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(0, duplicates.get());
+        assertEquals(8000, values.size());
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2008, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.monetdb;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.PrecisionModel;
+import com.vividsolutions.jts.geom.impl.PackedCoordinateSequenceFactory;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKTReader;
+
+/**
+ * Checks {@link WKTParser} builds the same geometries as the JTS reader
+ *
+ * @source $URL$
+ */
+public class WKTParserTest extends TestCase {
+
+    static final String[] WKT = new String[] {
+        "POINT (0 0)",
+        "POINT(-1.5 2.25)",
+        "point (1e3 -2.5E-3)",
+        "POINT (1 2 3)",
+        "POINT EMPTY",
+        "LINESTRING (0 0, 1 1, 2 0.5)",
+        "LINESTRING EMPTY",
+        "LINEARRING (0 0, 1 0, 1 1, 0 0)",
+        "POLYGON ((0 0, 10 0, 10 10, 0 10, 0 0))",
+        "POLYGON ((0 0, 10 0, 10 10, 0 10, 0 0), (1 1, 2 1, 2 2, 1 1), (5 5, 6 5, 6 6, 5 5))",
+        "POLYGON EMPTY",
+        "MULTIPOINT ((0 0), (1 1))",
+        "MULTIPOINT (0 0, 1 1)",
+        "MULTIPOINT EMPTY",
+        "MULTILINESTRING ((0 0, 1 1), (2 2, 3 3))",
+        "MULTIPOLYGON (((0 0, 1 0, 1 1, 0 0)), ((5 5, 6 5, 6 6, 5 5), (5.1 5.1, 5.2 5.1, 5.2 5.2, 5.1 5.1)))",
+        "MULTIPOLYGON EMPTY",
+        "GEOMETRYCOLLECTION (POINT (1 1), LINESTRING (0 0, 1 1), GEOMETRYCOLLECTION EMPTY)",
+        "GEOMETRYCOLLECTION EMPTY",
+        "POINT (0.1 0.30000000000000004)",
+        "POINT (123456789012345678 1.7976931348623157E308)",
+        "POINT (4.9E-324 -0.0)",
+        "POINT (.5 -.25)"
+    };
+
+    public void testSameAsJTS() throws Exception {
+        GeometryFactory gf = new GeometryFactory();
+        for (String wkt : WKT) {
+            assertSame(wkt, new WKTReader(gf).read(wkt), new WKTParser(gf).read(wkt));
+        }
+    }
+
+    public void testReuse() throws Exception {
+        GeometryFactory gf = new GeometryFactory();
+        WKTParser parser = new WKTParser(gf);
+        for (int i = 0; i < 3; i++) {
+            for (String wkt : WKT) {
+                assertSame(wkt, new WKTReader(gf).read(wkt), parser.read(wkt));
+            }
+        }
+    }
+
+    public void testLargePolygon() throws Exception {
+        // a row of a few megabytes, as the decode path gets from big polygon layers
+        String wkt = createPolygon(100000);
+        assertTrue(wkt.length() > 2 * 1024 * 1024);
+        GeometryFactory gf = new GeometryFactory();
+        WKTParser parser = new WKTParser(gf);
+        Geometry expected = new WKTReader(gf).read(wkt);
+        assertSame("large polygon", expected, parser.read(wkt));
+
+        // once its buffers have grown the parser allocates little beyond the geometry,
+        // the JTS reader a string per number on top of it
+        ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        long before = allocatedBytes(mx);
+        if (before < 0) {
+            return;
+        }
+        parser.read(wkt);
+        long parsed = allocatedBytes(mx) - before;
+        before = allocatedBytes(mx);
+        new WKTReader(gf).read(wkt);
+        long read = allocatedBytes(mx) - before;
+        assertTrue(parsed + " bytes allocated against " + read, parsed < read / 2);
+    }
+
+    static long allocatedBytes(ThreadMXBean mx) {
+        if (mx instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) mx).getThreadAllocatedBytes(
+                    Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the WKT of a roughly circular polygon with the specified number of vertices,
+     * in projected coordinates rounded to the millimetre
+     */
+    static String createPolygon(int vertices) {
+        Random random = new Random(1);
+        StringBuilder sb = new StringBuilder("POLYGON ((");
+        double firstX = 0, firstY = 0;
+        for (int i = 0; i < vertices - 1; i++) {
+            double angle = 2 * Math.PI * i / vertices;
+            double radius = 1000 + random.nextDouble() * 10;
+            double x = Math.round((155000.123 + Math.cos(angle) * radius) * 1000) / 1000d;
+            double y = Math.round((463000.456 + Math.sin(angle) * radius) * 1000) / 1000d;
+            if (i == 0) {
+                firstX = x;
+                firstY = y;
+            }
+            sb.append(x).append(' ').append(y).append(", ");
+        }
+        sb.append(firstX).append(' ').append(firstY).append("))");
+        return sb.toString();
+    }
+
+    public void testRandomNumbers() throws Exception {
+        GeometryFactory gf = new GeometryFactory();
+        WKTParser parser = new WKTParser(gf);
+        Random random = new Random(42);
+
+        StringBuilder sb = new StringBuilder("LINESTRING (");
+        for (int i = 0; i < 5000; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            double x = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(20) - 10);
+            double y = random.nextInt(1000000) / 1000d;
+            sb.append(x).append(' ').append(y);
+        }
+        sb.append(")");
+        String wkt = sb.toString();
+
+        assertSame(wkt, new WKTReader(gf).read(wkt), parser.read(wkt));
+    }
+
+    public void testNumbersMatchJDK() throws Exception {
+        WKTParser parser = new WKTParser();
+        Random random = new Random(7);
+        for (int i = 0; i < 20000; i++) {
+            String number;
+            switch (i % 4) {
+            case 0:
+                // shortest representation of random doubles, up to 17 digits
+                number = Double.toString(Double.longBitsToDouble(random.nextLong()));
+                break;
+            case 1:
+                number = Double.toString((random.nextDouble() - 0.5) * 1e7);
+                break;
+            case 2:
+                // 16 to 19 significant digits
+                number = Long.toString(Math.abs(random.nextLong()) % 10000000000000000L
+                        + 1000000000000000L) + "e" + (random.nextInt(60) - 40);
+                break;
+            default:
+                number = "0." + Math.abs(random.nextLong());
+            }
+            if (number.indexOf("Infinity") >= 0 || number.indexOf("NaN") >= 0) {
+                continue;
+            }
+            double expected = Double.parseDouble(number);
+            Geometry point = parser.read("POINT (" + number + " 0)");
+            assertEquals(number, Double.doubleToLongBits(expected),
+                    Double.doubleToLongBits(point.getCoordinate().x));
+        }
+    }
+
+    public void testNumberBoundaries() throws Exception {
+        // halfway cases, subnormals, the edges of the fast path and long mantissas
+        String[] numbers = { "9007199254740993", "9007199254740992.5", "1e23", "1e22",
+                "1e-22", "123456789012345", "1234567890123456", "0.30000000000000004",
+                "2.2250738585072011e-308", "2.2250738585072012e-308", "4.9e-324", "2.4e-324",
+                "1.7976931348623157e308", "8.98846567431158e307", "9223372036854775807",
+                "9223372036854775808e-20", "0.000000000000000000000000123456789012345678",
+                "7.038531e-26", "2.5e-324", "1e400", "-1e-400" };
+        WKTParser parser = new WKTParser();
+        for (String number : numbers) {
+            double expected = Double.parseDouble(number);
+            Geometry point = parser.read("POINT (" + number + " 0)");
+            assertEquals(number, Double.doubleToLongBits(expected),
+                    Double.doubleToLongBits(point.getCoordinate().x));
+        }
+    }
+
+    public void testPrecisionModel() throws Exception {
+        GeometryFactory gf = new GeometryFactory(new PrecisionModel(100));
+        String wkt = "LINESTRING (0.12345 1.98765, 2.555 3.001 7.12345)";
+        assertSame(wkt, new WKTReader(gf).read(wkt), new WKTParser(gf).read(wkt));
+    }
+
+    public void testCoordinateSequenceFactory() throws Exception {
+        GeometryFactory gf = new GeometryFactory(new PackedCoordinateSequenceFactory());
+        WKTParser parser = new WKTParser(gf);
+        for (String wkt : WKT) {
+            Geometry expected = new WKTReader(gf).read(wkt);
+            Geometry actual = parser.read(wkt);
+            assertTrue(wkt, expected.equalsExact(actual));
+        }
+    }
+
+    public void testInvalid() throws Exception {
+        WKTParser parser = new WKTParser();
+        String[] invalid = new String[] { "", "CIRCLE (0 0)", "POINT (0 a)", "POINT (0 0",
+                "LINESTRING (0 0; 1 1)", "POLYGON ((0 0, 1 1, 0 0))" };
+        for (String wkt : invalid) {
+            try {
+                parser.read(wkt);
+                fail("Should have failed parsing " + wkt);
+            } catch (ParseException e) {
+                // fine
+            } catch (IllegalArgumentException e) {
+                // fine as well, the factory refuses the geometry
+            }
+        }
+    }
+
+    public void testDecimation() throws Exception {
+        WKTParser parser = new WKTParser(new GeometryFactory());
+        parser.setDecimationDistance(1);
+
+        // close vertices are dropped, the ends are kept
+        Geometry line = parser.read("LINESTRING (0 0, 0.5 0.5, 0.7 0.2, 3 3, 3.2 3.1, 3.3 3.3)");
+        assertTrue(line.toText(), line.equalsExact(new WKTReader().read(
+                "LINESTRING (0 0, 3 3, 3.3 3.3)")));
+
+        // the distance is measured diagonally as well
+        line = parser.read("LINESTRING (0 0, 0.8 0.8, 0.9 0, 5 5)");
+        assertTrue(line.toText(), line.equalsExact(new WKTReader().read(
+                "LINESTRING (0 0, 0.8 0.8, 5 5)")));
+
+        // rings stay closed, the ones that would collapse are kept whole
+        Geometry polygon = parser.read("POLYGON ((0 0, 10 0, 10 0.5, 10 10, 0 10, 0 0), "
+                + "(1 1, 1.2 1, 1.2 1.2, 1 1))");
+        assertTrue(polygon.toText(), polygon.equalsExact(new WKTReader().read(
+                "POLYGON ((0 0, 10 0, 10 10, 0 10, 0 0), (1 1, 1.2 1, 1.2 1.2, 1 1))")));
+
+        // a ring left with 4 vertices is decimated
+        polygon = parser.read("POLYGON ((0 0, 10 0, 10 0.5, 10 10, 0 0))");
+        assertTrue(polygon.toText(), polygon.equalsExact(new WKTReader().read(
+                "POLYGON ((0 0, 10 0, 10 10, 0 0))")));
+
+        // points are never decimated
+        Geometry points = parser.read("MULTIPOINT ((0 0), (0.1 0.1))");
+        assertEquals(2, points.getNumPoints());
+
+        // the same geometries as JTS once disabled
+        parser.setDecimationDistance(0);
+        for (String wkt : WKT) {
+            assertSame(wkt, new WKTReader().read(wkt), parser.read(wkt));
+        }
+    }
+
+    void assertSame(String wkt, Geometry expected, Geometry actual) {
+        assertEquals(wkt, expected.getClass(), actual.getClass());
+        assertTrue(wkt, expected.equalsExact(actual));
+        Coordinate[] ec = expected.getCoordinates();
+        Coordinate[] ac = actual.getCoordinates();
+        assertEquals(wkt, ec.length, ac.length);
+        for (int i = 0; i < ec.length; i++) {
+            assertEquals(wkt, Double.doubleToLongBits(ec[i].x), Double.doubleToLongBits(ac[i].x));
+            assertEquals(wkt, Double.doubleToLongBits(ec[i].y), Double.doubleToLongBits(ac[i].y));
+            assertEquals(wkt, Double.doubleToLongBits(ec[i].z), Double.doubleToLongBits(ac[i].z));
+        }
+    }
+}